@@ -115,20 +115,82 @@ CREATE TABLE IF NOT EXISTS `user_relation` (
   `relation_desc`   VARCHAR(50)  DEFAULT NULL COMMENT '中文称谓（奶奶/表哥/姥爷等）',
   `relation_chain`  VARCHAR(500) DEFAULT NULL COMMENT '关系链JSON，如["父","母"]',
   `inferred_from`   BIGINT       DEFAULT NULL COMMENT '由哪条关系推断而来',
+  `reinfer_job_id`  BIGINT       DEFAULT NULL COMMENT '暂存记录所属的重推任务（reinfer_job.id）',
   `infer_status`    TINYINT      NOT NULL DEFAULT 0
-      COMMENT '0-手动建立 1-系统推断待确认 2-推断已确认',
+      COMMENT '0-手动建立 1-系统推断待确认 2-推断已确认 3-全量重推暂存',
   `confirm_status`  TINYINT      NOT NULL DEFAULT 0 COMMENT '0-待确认 1-已确认 2-已拒绝',
   `confirm_time`    DATETIME     DEFAULT NULL,
   `create_time`     DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP,
   `update_time`     DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `deleted`         TINYINT      NOT NULL DEFAULT 0,
+  `alive`           TINYINT      AS (IF(`deleted` = 0, 1, NULL)) VIRTUAL
+      COMMENT '有效标记（deleted=0 时为 1，否则 NULL），用于唯一键',
   PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_relation_alive` (`user_id`, `related_user_id`, `infer_status`, `alive`),
   KEY `idx_user_id`         (`user_id`),
   KEY `idx_related_user_id` (`related_user_id`),
   KEY `idx_confirm_status`  (`confirm_status`),
-  KEY `idx_infer_status`    (`infer_status`)
+  KEY `idx_infer_status`    (`infer_status`),
+  KEY `idx_reinfer_job_id`  (`reinfer_job_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='用户关系表';
 
+-- -----------------------------------------------
+-- 3.1 全量重推任务表（检查点 / 心跳 / 取消）
+-- -----------------------------------------------
+CREATE TABLE IF NOT EXISTS `reinfer_job` (
+  `id`               BIGINT       NOT NULL AUTO_INCREMENT,
+  `job_id`           VARCHAR(64)  NOT NULL COMMENT '对外任务号（userId_时间戳）',
+  `origin_user_id`   BIGINT       NOT NULL COMMENT '发起用户',
+  `status`           TINYINT      NOT NULL DEFAULT 0 COMMENT '0-运行中 1-完成 2-失败 3-已取消',
+  `total_edges`      INT          NOT NULL DEFAULT 0 COMMENT '手动确认边总数',
+  `done_edges`       INT          NOT NULL DEFAULT 0 COMMENT '已完成边数',
+  `last_edge_id`     BIGINT       NOT NULL DEFAULT 0 COMMENT '检查点：已完成的最大手动边 user_relation.id',
+  `graph_rebuilt`    TINYINT      NOT NULL DEFAULT 0 COMMENT 'Nebula 边是否已重建',
+  `owner_node`       VARCHAR(128) DEFAULT NULL COMMENT '当前执行节点',
+  `heartbeat_time`   DATETIME     DEFAULT NULL COMMENT '最近心跳',
+  `cancel_requested` TINYINT      NOT NULL DEFAULT 0 COMMENT '是否已请求取消',
+  `message`          VARCHAR(255) DEFAULT NULL,
+  `create_time`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_job_id` (`job_id`),
+  KEY `idx_status_heartbeat` (`status`, `heartbeat_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='全量重推任务';
+
+-- -----------------------------------------------
+-- 3.2 MySQL → NebulaGraph 同步 outbox（与业务写入同事务，后台按序投递）
+-- -----------------------------------------------
+CREATE TABLE IF NOT EXISTS `graph_outbox` (
+  `id`              BIGINT        NOT NULL AUTO_INCREMENT,
+  `op_group`        VARCHAR(32)   DEFAULT NULL COMMENT '可合并的语句类型（VERTEX:Person / EDGE:PARENT_OF / DELETE:SPOUSE_OF 等），NULL 为独立语句',
+  `op_value`        VARCHAR(1024) NOT NULL COMMENT 'VALUES 子句 / 边键 / 完整 nGQL（均幂等，可重放）',
+  `vertex_a`        BIGINT        NOT NULL COMMENT '涉及的顶点',
+  `vertex_b`        BIGINT        DEFAULT NULL COMMENT '涉及的另一顶点（边变更）',
+  `status`          TINYINT       NOT NULL DEFAULT 0 COMMENT '0-待同步 1-已同步 2-放弃（超过重试次数）',
+  `attempts`        INT           NOT NULL DEFAULT 0 COMMENT '失败次数',
+  `next_retry_time` DATETIME      DEFAULT NULL COMMENT '下次重试时间',
+  `last_error`      VARCHAR(255)  DEFAULT NULL,
+  `create_time`     DATETIME      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time`     DATETIME      NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  KEY `idx_status_id` (`status`, `id`),
+  KEY `idx_status_update` (`status`, `update_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='MySQL → NebulaGraph 同步 outbox';
+
+-- -----------------------------------------------
+-- 3.3 一次性批处理任务检查点（按主键区间分块，记录水位，可续跑）
+-- -----------------------------------------------
+CREATE TABLE IF NOT EXISTS `job_checkpoint` (
+  `job_name`     VARCHAR(64)  NOT NULL COMMENT '任务名',
+  `watermark`    BIGINT       NOT NULL DEFAULT 0 COMMENT '已处理到的最大主键（含）',
+  `target_id`    BIGINT       NOT NULL DEFAULT 0 COMMENT '任务开始时的最大主键，处理到此即完成',
+  `status`       TINYINT      NOT NULL DEFAULT 0 COMMENT '0-进行中 1-已完成',
+  `processed`    BIGINT       NOT NULL DEFAULT 0 COMMENT '累计修改行数',
+  `create_time`  DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time`  DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`job_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='一次性批处理任务检查点';
+
 -- -----------------------------------------------
 -- 4. 关系申请表
 -- -----------------------------------------------
@@ -0,0 +1,86 @@
+-- =====================================================
+-- RootLink v0.8.0 数据库迁移脚本
+-- 执行前请备份数据库（需 MySQL 8）
+-- =====================================================
+
+USE rootlink;
+
+-- 1. 清理重复的有效关系：同 (user_id, related_user_id, infer_status) 只保留一条
+--    优先保留已确认（confirm_status=1）的记录，其次保留最早的记录，其余逻辑删除
+UPDATE user_relation r
+  JOIN (
+        SELECT id
+          FROM (
+                SELECT id,
+                       ROW_NUMBER() OVER (PARTITION BY user_id, related_user_id, infer_status
+                                          ORDER BY (confirm_status = 1) DESC, id) AS rn
+                  FROM user_relation
+                 WHERE deleted = 0
+               ) t
+         WHERE t.rn > 1
+       ) dup ON dup.id = r.id
+   SET r.deleted = 1;
+
+-- 2. user_relation 唯一键：推断结果批量写入（INSERT … ON DUPLICATE KEY UPDATE）依赖此键
+--    alive 为虚拟列，逻辑删除的记录为 NULL，不参与唯一性冲突
+ALTER TABLE user_relation
+  ADD COLUMN alive TINYINT AS (IF(deleted = 0, 1, NULL)) VIRTUAL COMMENT '有效标记（deleted=0 时为 1，否则 NULL）',
+  ADD UNIQUE KEY uk_relation_alive (user_id, related_user_id, infer_status, alive);
+
+-- 3. user_relation 全量重推暂存：新推断先写 infer_status=3，任务完成后整体转正
+ALTER TABLE user_relation
+  MODIFY COLUMN infer_status TINYINT NOT NULL DEFAULT 0
+      COMMENT '0-手动建立 1-系统推断待确认 2-推断已确认 3-全量重推暂存',
+  ADD COLUMN reinfer_job_id BIGINT NULL COMMENT '暂存记录所属的重推任务（reinfer_job.id）' AFTER inferred_from,
+  ADD KEY idx_reinfer_job_id (reinfer_job_id);
+
+-- 4. 全量重推任务表（检查点 / 心跳 / 取消）
+CREATE TABLE IF NOT EXISTS `reinfer_job` (
+  `id`               BIGINT       NOT NULL AUTO_INCREMENT,
+  `job_id`           VARCHAR(64)  NOT NULL COMMENT '对外任务号（userId_时间戳）',
+  `origin_user_id`   BIGINT       NOT NULL COMMENT '发起用户',
+  `status`           TINYINT      NOT NULL DEFAULT 0 COMMENT '0-运行中 1-完成 2-失败 3-已取消',
+  `total_edges`      INT          NOT NULL DEFAULT 0 COMMENT '手动确认边总数',
+  `done_edges`       INT          NOT NULL DEFAULT 0 COMMENT '已完成边数',
+  `last_edge_id`     BIGINT       NOT NULL DEFAULT 0 COMMENT '检查点：已完成的最大手动边 user_relation.id',
+  `graph_rebuilt`    TINYINT      NOT NULL DEFAULT 0 COMMENT 'Nebula 边是否已重建',
+  `owner_node`       VARCHAR(128) DEFAULT NULL COMMENT '当前执行节点',
+  `heartbeat_time`   DATETIME     DEFAULT NULL COMMENT '最近心跳',
+  `cancel_requested` TINYINT      NOT NULL DEFAULT 0 COMMENT '是否已请求取消',
+  `message`          VARCHAR(255) DEFAULT NULL,
+  `create_time`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uk_job_id` (`job_id`),
+  KEY `idx_status_heartbeat` (`status`, `heartbeat_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='全量重推任务';
+
+-- 5. MySQL → NebulaGraph 同步 outbox（与业务写入同事务，后台按序投递）
+CREATE TABLE IF NOT EXISTS `graph_outbox` (
+  `id`              BIGINT        NOT NULL AUTO_INCREMENT,
+  `op_group`        VARCHAR(32)   DEFAULT NULL COMMENT '可合并的语句类型（VERTEX:Person / EDGE:PARENT_OF / DELETE:SPOUSE_OF 等），NULL 为独立语句',
+  `op_value`        VARCHAR(1024) NOT NULL COMMENT 'VALUES 子句 / 边键 / 完整 nGQL（均幂等，可重放）',
+  `vertex_a`        BIGINT        NOT NULL COMMENT '涉及的顶点',
+  `vertex_b`        BIGINT        DEFAULT NULL COMMENT '涉及的另一顶点（边变更）',
+  `status`          TINYINT       NOT NULL DEFAULT 0 COMMENT '0-待同步 1-已同步 2-放弃（超过重试次数）',
+  `attempts`        INT           NOT NULL DEFAULT 0 COMMENT '失败次数',
+  `next_retry_time` DATETIME      DEFAULT NULL COMMENT '下次重试时间',
+  `last_error`      VARCHAR(255)  DEFAULT NULL,
+  `create_time`     DATETIME      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time`     DATETIME      NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`),
+  KEY `idx_status_id` (`status`, `id`),
+  KEY `idx_status_update` (`status`, `update_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='MySQL → NebulaGraph 同步 outbox';
+
+-- 6. 一次性批处理任务检查点（僵尸推断迁移等，按主键区间分块，记录水位，可续跑）
+CREATE TABLE IF NOT EXISTS `job_checkpoint` (
+  `job_name`     VARCHAR(64)  NOT NULL COMMENT '任务名',
+  `watermark`    BIGINT       NOT NULL DEFAULT 0 COMMENT '已处理到的最大主键（含）',
+  `target_id`    BIGINT       NOT NULL DEFAULT 0 COMMENT '任务开始时的最大主键，处理到此即完成',
+  `status`       TINYINT      NOT NULL DEFAULT 0 COMMENT '0-进行中 1-已完成',
+  `processed`    BIGINT       NOT NULL DEFAULT 0 COMMENT '累计修改行数',
+  `create_time`  DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time`  DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+  PRIMARY KEY (`job_name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='一次性批处理任务检查点';
@@ -0,0 +1,89 @@
+package com.rootlink.backend.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 称谓解析基准：逐步解析（StepwiseKinshipResolver，原实现） vs 签名编码 + 记忆化
+ *
+ * 运行：mvn -Pbench test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KinshipResolverBenchmark {
+
+    private static final long ME = 1, SPOUSE = 2, FATHER = 10, UNCLE = 11, COUSIN = 12,
+            GRANDPA = 20, GREAT_UNCLE = 21, SECOND_COUSIN_PARENT = 22, FATHER_IN_LAW = 30;
+
+    private NebulaRelationResolver resolver;
+    private StepwiseKinshipResolver stepwise;
+    private Map<Long, Integer> genders;
+    private List<List<GraphEdge>> paths;
+
+    @Setup
+    public void setup() {
+        resolver = new NebulaRelationResolver();
+        stepwise = new StepwiseKinshipResolver(resolver);
+
+        genders = new HashMap<>();
+        genders.put(ME, 1);
+        genders.put(SPOUSE, 2);
+        genders.put(FATHER, 1);
+        genders.put(UNCLE, 1);
+        genders.put(COUSIN, 2);
+        genders.put(GRANDPA, 1);
+        genders.put(GREAT_UNCLE, 1);
+        genders.put(SECOND_COUSIN_PARENT, 2);
+        genders.put(FATHER_IN_LAW, 1);
+
+        GraphEdge fatherOfMe     = parent(FATHER, ME);
+        GraphEdge grandpaOfFather = parent(GRANDPA, FATHER);
+        GraphEdge fatherUncle    = new GraphEdge("SIBLING_OF", FATHER, UNCLE, 0, 0, 2);
+        GraphEdge uncleCousin    = parent(UNCLE, COUSIN);
+        GraphEdge meSpouse       = new GraphEdge("SPOUSE_OF", ME, SPOUSE, 0, 0, 0);
+        GraphEdge inLawSpouse    = parent(FATHER_IN_LAW, SPOUSE);
+        GraphEdge grandpaBrother = new GraphEdge("SIBLING_OF", GREAT_UNCLE, GRANDPA, 0, 0, 2);
+        GraphEdge brotherChild   = parent(GREAT_UNCLE, SECOND_COUSIN_PARENT);
+
+        paths = List.of(
+                List.of(fatherOfMe),                                           // 父亲
+                List.of(fatherOfMe, grandpaOfFather),                          // 爷爷
+                List.of(fatherOfMe, fatherUncle),                              // 伯父
+                List.of(fatherOfMe, fatherUncle, uncleCousin),                 // 堂姐/妹
+                List.of(meSpouse, inLawSpouse),                                // 岳父
+                List.of(fatherOfMe, grandpaOfFather, grandpaBrother, brotherChild)); // 表姑/姑姑
+    }
+
+    private static GraphEdge parent(long parentId, long childId) {
+        return new GraphEdge("PARENT_OF", parentId, childId, 0, 0, 0);
+    }
+
+    @Benchmark
+    public void stepwise(Blackhole bh) {
+        for (List<GraphEdge> p : paths) bh.consume(stepwise.resolve(p, ME, genders));
+    }
+
+    @Benchmark
+    public void compiled(Blackhole bh) {
+        for (List<GraphEdge> p : paths) bh.consume(resolver.resolveEdges(p, ME, genders));
+    }
+
+    @Benchmark
+    public void stepwiseBothDirections(Blackhole bh) {
+        for (List<GraphEdge> p : paths) bh.consume(stepwise.resolveBoth(p, ME, genders));
+    }
+
+    @Benchmark
+    public void compiledBothDirections(Blackhole bh) {
+        for (List<GraphEdge> p : paths) bh.consume(resolver.resolveBoth(p, ME, genders));
+    }
+}
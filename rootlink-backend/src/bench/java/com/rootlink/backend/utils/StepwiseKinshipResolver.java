@@ -0,0 +1,99 @@
+package com.rootlink.backend.utils;
+
+import com.rootlink.backend.utils.NebulaRelationResolver.Kinship;
+import com.rootlink.backend.utils.NebulaRelationResolver.Step;
+import com.rootlink.backend.utils.NebulaRelationResolver.StepType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 逐步解析（签名编码之前的原始实现），只作 KinshipResolverBenchmark 的对照组
+ *
+ * 每次解析都构造 Step 序列再走 mapToKinship；逆向称谓把 Step 序列反转后再解析一次。
+ * 生产代码只走 NebulaRelationResolver 的签名编码 + 记忆化路径。
+ */
+class StepwiseKinshipResolver {
+
+    private static final Kinship UNKNOWN = new Kinship("亲属", "亲属");
+
+    private final NebulaRelationResolver resolver;
+
+    StepwiseKinshipResolver(NebulaRelationResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    String resolve(List<GraphEdge> edges, Long viewerId, Map<Long, Integer> genderMap) {
+        if (edges == null || edges.isEmpty()) return "亲属";
+        List<Step> steps = extractSteps(edges, viewerId, genderMap);
+        if (steps == null || steps.isEmpty()) return "亲属";
+        return resolver.mapToKinship(steps, viewerId, genderMap);
+    }
+
+    Kinship resolveBoth(List<GraphEdge> edges, Long viewerId, Map<Long, Integer> genderMap) {
+        if (edges == null || edges.isEmpty()) return UNKNOWN;
+        List<Step> steps = extractSteps(edges, viewerId, genderMap);
+        if (steps == null || steps.isEmpty()) return UNKNOWN;
+        Long targetId = steps.get(steps.size() - 1).nextNodeId;
+        return new Kinship(resolver.mapToKinship(steps, viewerId, genderMap),
+                           resolver.mapToKinship(invertSteps(steps, viewerId), targetId, genderMap));
+    }
+
+    /**
+     * 路径反转：从终点走回 startId
+     * 每一步方向取反（UP↔DOWN，兄姐↔弟妹），PARENT_OF 的父母/子女性别是边属性，保持不变
+     */
+    private static List<Step> invertSteps(List<Step> steps, Long startId) {
+        List<Step> inverted = new ArrayList<>(steps.size());
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            Step s = steps.get(i);
+            Long prevId = i == 0 ? startId : steps.get(i - 1).nextNodeId;
+            StepType type = s.type == StepType.UP ? StepType.DOWN
+                          : s.type == StepType.DOWN ? StepType.UP : s.type;
+            int older = s.nextOlderThan == 1 ? 2 : (s.nextOlderThan == 2 ? 1 : 0);
+            inverted.add(new Step(type, prevId, s.parentGender, s.childGender, older));
+        }
+        return inverted;
+    }
+
+    private static List<Step> extractSteps(List<GraphEdge> edges, Long startId, Map<Long, Integer> genderMap) {
+        List<Step> steps = new ArrayList<>();
+        Long currentId = startId;
+        for (GraphEdge rel : edges) {
+            long srcId  = rel.src();
+            long dstId  = rel.dst();
+            String edge = rel.type();
+            boolean fwd = (srcId == currentId);
+            Long nextId = fwd ? dstId : srcId;
+
+            int parentGender = 0, childGender = 0, nextOlderThan = 0;
+
+            if ("PARENT_OF".equals(edge)) {
+                // PARENT_OF 的 src 永远是父/母，dst 永远是子/女；genderMap 覆盖边属性
+                parentGender = rel.parentGender();
+                childGender  = rel.childGender();
+                int mapPG = genderMap.getOrDefault(srcId, 0);
+                int mapCG = genderMap.getOrDefault(dstId, 0);
+                if (mapPG != 0) parentGender = mapPG;
+                if (mapCG != 0) childGender  = mapCG;
+
+            } else if ("SIBLING_OF".equals(edge)) {
+                // seniority: 在 src→dst 边上，1=src比dst年长，2=src比dst年幼，0=未知
+                int seniority = rel.seniority();
+                nextOlderThan = fwd ? (seniority == 1 ? 2 : (seniority == 2 ? 1 : 0)) : seniority;
+            }
+
+            StepType type;
+            switch (edge) {
+                case "PARENT_OF":  type = fwd ? StepType.DOWN : StepType.UP; break;
+                case "SPOUSE_OF":  type = StepType.SPOUSE;  break;
+                case "SIBLING_OF": type = StepType.SIBLING; break;
+                default: return null;
+            }
+            steps.add(new Step(type, nextId, parentGender, childGender, nextOlderThan));
+            currentId = nextId;
+        }
+        return steps;
+    }
+}
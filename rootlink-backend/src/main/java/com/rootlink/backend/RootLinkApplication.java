@@ -4,12 +4,14 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * RootLink 后端应用启动类
  */
 @SpringBootApplication
 @EnableAsync
+@EnableScheduling
 @MapperScan("com.rootlink.backend.mapper")
 public class RootLinkApplication {
 
@@ -0,0 +1,155 @@
+package com.rootlink.backend.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步线程池配置
+ *
+ * 三个独立线程池，互不抢占：
+ *   inferenceExecutor  交互推断（同意申请后的推断扩散），队列满时拒绝，不回退到请求线程；
+ *                      被拒绝的关系确认交给家族对账补全推断（见 RelationService#onRelationConfirmed）
+ *   reconcileExecutor  家族对账（关系变更后的僵尸修复与推断补全），队列满时丢弃并记录，家族再次变更时重新触发
+ *   reInferExecutor    全量重推，队列满时拒绝，由接口提示稍后再试
+ *
+ * 推断会占用 Nebula 会话，三个池的最大线程数之和不超过 nebula.session-pool.max-size
+ * （超出时优先压缩交互推断池之外的份额）。
+ *
+ * 指标（spring-boot-starter-actuator）：
+ *   executor.active / executor.queued / executor.pool.size 等由 Boot 按 bean 名自动绑定
+ *   rootlink.executor.task.wait / rootlink.executor.task.run   排队耗时 / 执行耗时
+ *   rootlink.executor.rejected                                  拒绝次数
+ */
+@Slf4j
+@Configuration
+public class AsyncConfig implements AsyncConfigurer {
+
+    public static final String INFERENCE = "inferenceExecutor";
+    public static final String RECONCILE = "reconcileExecutor";
+    public static final String RE_INFER  = "reInferExecutor";
+
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${nebula.session-pool.max-size:10}")
+    private int nebulaMaxConn;
+
+    @Value("${app.executor.inference.core-size:2}")     private int inferenceCore;
+    @Value("${app.executor.inference.max-size:4}")      private int inferenceMax;
+    @Value("${app.executor.inference.queue-capacity:200}") private int inferenceQueue;
+
+    @Value("${app.executor.reconcile.core-size:1}")     private int reconcileCore;
+    @Value("${app.executor.reconcile.max-size:2}")      private int reconcileMax;
+    @Value("${app.executor.reconcile.queue-capacity:100}") private int reconcileQueue;
+
+    @Value("${app.executor.reinfer.max-size:1}")        private int reInferMax;
+    @Value("${app.executor.reinfer.queue-capacity:4}")  private int reInferQueue;
+
+    @Bean(INFERENCE)
+    public ThreadPoolTaskExecutor inferenceExecutor() {
+        int max = Math.max(1, Math.min(inferenceMax, budget() - reconcileShare() - reInferShare()));
+        return build(INFERENCE, "infer-", Math.min(inferenceCore, max), max, inferenceQueue,
+                counting(INFERENCE, new ThreadPoolExecutor.AbortPolicy()));
+    }
+
+    @Bean(RECONCILE)
+    public ThreadPoolTaskExecutor reconcileExecutor() {
+        int max = reconcileShare();
+        return build(RECONCILE, "reconcile-", Math.min(reconcileCore, max), max, reconcileQueue,
+                counting(RECONCILE, (r, pool) -> log.warn("[线程池] {} 队列已满，丢弃对账任务", RECONCILE)));
+    }
+
+    @Bean(RE_INFER)
+    public ThreadPoolTaskExecutor reInferExecutor() {
+        int max = reInferShare();
+        return build(RE_INFER, "reinfer-", max, max, reInferQueue,
+                counting(RE_INFER, new ThreadPoolExecutor.AbortPolicy()));
+    }
+
+    /** 未指定线程池的 @Async 归入交互推断池 */
+    @Override
+    public Executor getAsyncExecutor() {
+        return inferenceExecutor();
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (ex, method, params) -> log.error("[异步任务] {} 执行异常", method.getName(), ex);
+    }
+
+    // ── 内部实现 ─────────────────────────────────────
+
+    /** 三个池可用的线程总数 = Nebula 最大会话数（至少 3，保证每个池至少 1 个线程） */
+    private int budget() {
+        return Math.max(nebulaMaxConn, 3);
+    }
+
+    private int reconcileShare() {
+        return Math.max(1, Math.min(reconcileMax, budget() / 5));
+    }
+
+    private int reInferShare() {
+        return Math.max(1, Math.min(reInferMax, budget() / 5));
+    }
+
+    private ThreadPoolTaskExecutor build(String name, String prefix, int core, int max, int queue,
+                                         RejectedExecutionHandler rejection) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(core);
+        executor.setMaxPoolSize(max);
+        executor.setQueueCapacity(queue);
+        executor.setThreadNamePrefix(prefix);
+        executor.setRejectedExecutionHandler(rejection);
+        executor.setTaskDecorator(timed(name));
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        log.info("[线程池] {} core={} max={} queue={}", name, core, max, queue);
+        return executor;
+    }
+
+    /** 记录排队耗时与执行耗时 */
+    private TaskDecorator timed(String name) {
+        Timer waitTimer = Timer.builder("rootlink.executor.task.wait")
+                .description("任务提交到开始执行的排队耗时")
+                .tag("executor", name).register(meterRegistry);
+        Timer runTimer = Timer.builder("rootlink.executor.task.run")
+                .description("任务执行耗时")
+                .tag("executor", name).register(meterRegistry);
+        return task -> {
+            long submitted = System.nanoTime();
+            return () -> {
+                long started = System.nanoTime();
+                waitTimer.record(started - submitted, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } finally {
+                    runTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            };
+        };
+    }
+
+    private RejectedExecutionHandler counting(String name, RejectedExecutionHandler delegate) {
+        Counter rejected = Counter.builder("rootlink.executor.rejected")
+                .tag("executor", name).register(meterRegistry);
+        return (r, pool) -> {
+            rejected.increment();
+            delegate.rejectedExecution(r, pool);
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package com.rootlink.backend.config;
+
+import com.rootlink.backend.utils.FailoverGraphStore;
+import com.rootlink.backend.utils.GraphStore;
+import com.rootlink.backend.utils.InMemoryGraphStore;
+import com.rootlink.backend.utils.NebulaGraphStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * 图存储选择
+ *
+ * 每次调用按 Nebula 熔断状态路由（见 FailoverGraphStore）：
+ * NebulaGraph 可用时使用 NebulaGraphStore；
+ * 否则（nebula.enabled=false、启动时未连上或运行中熔断）在 app.graph-store.embedded.enabled=true 时使用进程内图，
+ * 单节点部署也能走完整的多跳推断；进程内图也关闭时 GraphStore 不可用，推断降级为 Java 链式推断。
+ * Nebula 恢复后自动切回。
+ */
+@Slf4j
+@Configuration
+public class GraphStoreConfig {
+
+    @Value("${app.graph-store.embedded.enabled:true}")
+    private boolean embeddedEnabled;
+
+    @Bean
+    @Primary
+    public GraphStore graphStore(NebulaGraphStore nebula, InMemoryGraphStore embedded) {
+        log.info("[图存储] NebulaGraph 优先，不可用时{}", embeddedEnabled ? "使用进程内图" : "降级为 Java 链式推断");
+        return new FailoverGraphStore(nebula, embedded, embeddedEnabled);
+    }
+}
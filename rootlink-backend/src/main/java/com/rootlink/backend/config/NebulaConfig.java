@@ -1,7 +1,8 @@
 package com.rootlink.backend.config;
 
 import com.vesoft.nebula.client.graph.NebulaPoolConfig;
-import com.vesoft.nebula.client.graph.net.NebulaPool;
+import com.vesoft.nebula.client.graph.SessionPoolConfig;
+import com.vesoft.nebula.client.graph.data.HostAddress;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -14,8 +15,15 @@ import java.util.stream.Collectors;
 /**
  * NebulaGraph 连接池配置
  *
- * 连接失败时不抛异常，返回 null，由 NebulaUtil 中的
- * @Autowired(required = false) 接收，EulogyService 自动降级到 MySQL 查询。
+ * 仅提供配置，不在启动时连接：连接的建立、熔断与重连由 NebulaConnectionManager 负责，
+ * 禁用时两个配置均为 null，由 @Autowired(required = false) 接收，业务自动降级。
+ *
+ * 两类会话：
+ *   NebulaPool      仅用于建图空间等 Meta 语句（此时图空间可能尚不存在）
+ *   SessionPool     业务查询使用，会话创建时已认证并绑定图空间，复用时无需再认证 / USE；
+ *                   依赖图空间已存在，在 Schema 初始化后创建
+ *
+ * 两者共用 session-pool.timeout-ms 作为单条语句超时、wait-ms 作为取连接 / 会话的等待上限。
  */
 @Slf4j
 @Configuration
@@ -36,43 +44,83 @@ public class NebulaConfig {
     @Value("${nebula.enabled:false}")
     private boolean enabled;
 
-    @Bean(destroyMethod = "")   // destroyMethod="" 防止 null 时调用 close() 报 NPE
-    public NebulaPool nebulaPool() {
+    @Value("${nebula.graph.username:root}")
+    private String username;
+
+    @Value("${nebula.graph.password:nebula}")
+    private String password;
+
+    @Value("${nebula.graph.space:rootlink_family}")
+    private String space;
+
+    @Value("${nebula.session-pool.min-size:1}")
+    private int sessionMinSize;
+
+    @Value("${nebula.session-pool.max-size:10}")
+    private int sessionMaxSize;
+
+    @Value("${nebula.session-pool.wait-ms:3000}")
+    private int sessionWaitMs;
+
+    @Value("${nebula.session-pool.timeout-ms:10000}")
+    private int sessionTimeoutMs;
+
+    @Value("${nebula.session-pool.health-check-seconds:60}")
+    private int healthCheckSeconds;
+
+    @Value("${nebula.session-pool.idle-seconds:300}")
+    private int idleSeconds;
+
+    @Value("${nebula.session-pool.retry-times:2}")
+    private int retryTimes;
+
+    /**
+     * Meta 连接池配置（建图空间用）；禁用时返回 null
+     * 连接池本身由 NebulaConnectionManager 创建，graphd 未就绪时后台重连
+     */
+    @Bean
+    public NebulaPoolConfig nebulaPoolConfig() {
         if (!enabled) {
-            log.info("NebulaGraph 已禁用（nebula.enabled=false），将使用 MySQL 降级查询");
+            log.info("NebulaGraph 已禁用（nebula.enabled=false），将使用降级推断");
             return null;
         }
+        NebulaPoolConfig poolConfig = new NebulaPoolConfig();
+        poolConfig.setMaxConnSize(maxConnSize);
+        poolConfig.setMinConnSize(minConnSize);
+        poolConfig.setIdleTime(idleTime);
+        poolConfig.setTimeout(sessionTimeoutMs);
+        poolConfig.setWaitTime(sessionWaitMs);
+        return poolConfig;
+    }
 
-        try {
-            NebulaPoolConfig poolConfig = new NebulaPoolConfig();
-            poolConfig.setMaxConnSize(maxConnSize);
-            poolConfig.setMinConnSize(minConnSize);
-            poolConfig.setIdleTime(idleTime);
-
-            List<com.vesoft.nebula.client.graph.data.HostAddress> addressList =
-                Arrays.stream(hosts.split(","))
-                    .map(String::trim)
-                    .map(h -> {
-                        String[] parts = h.split(":");
-                        return new com.vesoft.nebula.client.graph.data.HostAddress(
-                            parts[0], Integer.parseInt(parts[1])
-                        );
-                    })
-                    .collect(Collectors.toList());
-
-            NebulaPool pool = new NebulaPool();
-            boolean initOk = pool.init(addressList, poolConfig);
-            if (!initOk) {
-                log.warn("NebulaGraph 连接池初始化失败（服务未启动？），已降级到 MySQL 查询");
-                return null;
-            }
-
-            log.info("NebulaGraph 连接池初始化成功，hosts={}", hosts);
-            return pool;
-
-        } catch (Exception e) {
-            log.warn("NebulaGraph 初始化异常，已降级到 MySQL 查询：{}", e.getMessage());
-            return null;
-        }
+    /**
+     * 业务会话池配置（绑定图空间）
+     *
+     * health-check-seconds  定期校验空闲会话，失效会话自动剔除重建
+     * idle-seconds          空闲超过该时长且多于 min-size 的会话被回收
+     * wait-ms               会话耗尽时的等待时长，超时抛异常
+     */
+    @Bean
+    public SessionPoolConfig nebulaSessionPoolConfig() {
+        if (!enabled) return null;
+        SessionPoolConfig config = new SessionPoolConfig(addresses(), space, username, password);
+        config.setMinSessionSize(sessionMinSize);
+        config.setMaxSessionSize(Math.max(sessionMinSize, sessionMaxSize));
+        config.setWaitTime(sessionWaitMs);
+        config.setTimeout(sessionTimeoutMs);
+        config.setHealthCheckTime(healthCheckSeconds);
+        config.setCleanTime(idleSeconds);
+        config.setRetryTimes(retryTimes);
+        return config;
+    }
+
+    private List<HostAddress> addresses() {
+        return Arrays.stream(hosts.split(","))
+                .map(String::trim)
+                .map(h -> {
+                    String[] parts = h.split(":");
+                    return new HostAddress(parts[0], Integer.parseInt(parts[1]));
+                })
+                .collect(Collectors.toList());
     }
 }
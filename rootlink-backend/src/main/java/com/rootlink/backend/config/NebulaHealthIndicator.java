@@ -0,0 +1,30 @@
+package com.rootlink.backend.config;
+
+import com.rootlink.backend.utils.NebulaConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/health 中的 nebula 项：图功能就绪闸门的当前状态
+ *
+ * Nebula 未就绪 / 熔断时业务降级运行，不影响整体健康状态，始终报 UP，
+ * 通过 details.graph 区分：disabled / ready / connecting（HALF_OPEN）/ degraded（OPEN）。
+ */
+@Component("nebula")
+public class NebulaHealthIndicator implements HealthIndicator {
+
+    @Autowired private NebulaConnectionManager connections;
+
+    @Override
+    public Health health() {
+        if (!connections.isEnabled()) return Health.up().withDetail("graph", "disabled").build();
+        String graph = switch (connections.getState()) {
+            case CLOSED -> "ready";
+            case HALF_OPEN -> "connecting";
+            case OPEN -> "degraded";
+        };
+        return Health.up().withDetail("graph", graph).withDetail("breaker", connections.getState().name()).build();
+    }
+}
@@ -1,10 +1,14 @@
 package com.rootlink.backend.controller;
 
+import com.rootlink.backend.common.ErrorCode;
 import com.rootlink.backend.common.Result;
 import com.rootlink.backend.service.RelationService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.List;
@@ -105,18 +109,46 @@ public class RelationController {
      * 全量重推：以当前用户为起点，BFS 遍历整个亲属网络，
      * 清除旧推断、重建 Nebula 边（修正性别属性）、重新全量推断。
      * 任务异步执行，接口立即返回 taskId（jobId=userId+timestamp）。
-     * 前端可通过 /v1/relation/reinfer/status?jobId=xxx 轮询进度。
+     * 前端可通过 /v1/relation/reinfer/stream?jobId=xxx 订阅进度推送（或 /reinfer/status 查询）。
      */
     @PostMapping("/reinfer/full")
     public Result<Map<String, Object>> fullReInfer(@RequestAttribute("userId") Long userId) {
         String jobId = userId + "_" + System.currentTimeMillis();
-        relationService.fullReInfer(userId, jobId);
+        try {
+            relationService.startReInfer(userId, jobId);
+        } catch (TaskRejectedException e) {
+            log.warn("[全量重推] 任务队列已满，拒绝 userId={}", userId);
+            return Result.error(ErrorCode.SERVER_ERROR.getCode(), "重新推断任务排队已满，请稍后再试");
+        }
         Map<String, Object> resp = new HashMap<>();
         resp.put("jobId", jobId);
         resp.put("message", "重新推断任务已启动，正在后台处理...");
         return Result.success(resp);
     }
 
+    /**
+     * 取消全量重推（在当前边推断完成后生效，原有推断关系保持不变）
+     */
+    @PostMapping("/reinfer/cancel")
+    public Result<Void> cancelReInfer(
+            @RequestAttribute("userId") Long userId,
+            @RequestParam String jobId) {
+        relationService.cancelReInfer(userId, jobId);
+        return Result.success();
+    }
+
+    /**
+     * 订阅全量重推进度（Server-Sent Events）
+     * 事件名 progress，数据格式同 /reinfer/status；任务结束（done / error）后服务端关闭连接。
+     * 需携带 Authorization 头，浏览器端请用 fetch 流式读取（原生 EventSource 不支持自定义头）。
+     */
+    @GetMapping(value = "/reinfer/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamReInferStatus(
+            @RequestAttribute("userId") Long userId,
+            @RequestParam String jobId) {
+        return relationService.subscribeReInfer(userId, jobId);
+    }
+
     /**
      * 查询全量重推进度
      * 返回：{ jobId, status: "running"|"done"|"error", progress, message, result }
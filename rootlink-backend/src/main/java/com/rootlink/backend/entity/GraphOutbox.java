@@ -0,0 +1,28 @@
+package com.rootlink.backend.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Data
+@TableName("graph_outbox")
+public class GraphOutbox implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private String opGroup;          // 可合并的语句类型：VERTEX:Person / EDGE:PARENT_OF / DELETE:SPOUSE_OF…，null 为独立语句
+    private String opValue;          // VALUES 子句 / 边键 / 完整语句
+    private Long vertexA;            // 涉及的顶点（保证同一顶点的变更按序写入）
+    private Long vertexB;
+    private Integer status;          // 0-待同步 1-已同步 2-放弃（超过重试次数）
+    private Integer attempts;
+    private LocalDateTime nextRetryTime;
+    private String lastError;
+
+    @TableField(fill = FieldFill.INSERT)
+    private LocalDateTime createTime;
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,24 @@
+package com.rootlink.backend.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Data
+@TableName("job_checkpoint")
+public class JobCheckpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @TableId(type = IdType.INPUT)
+    private String jobName;
+    private Long watermark;          // 已处理到的最大主键（含）
+    private Long targetId;           // 任务开始时的最大主键，处理到此即完成
+    private Integer status;          // 0-进行中 1-已完成
+    private Long processed;          // 累计修改行数
+
+    @TableField(fill = FieldFill.INSERT)
+    private LocalDateTime createTime;
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,31 @@
+package com.rootlink.backend.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Data
+@TableName("reinfer_job")
+public class ReInferJob implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private String jobId;            // userId_时间戳，对外任务号
+    private Long originUserId;
+    private Integer status;          // 0-运行中 1-完成 2-失败 3-已取消
+    private Integer totalEdges;
+    private Integer doneEdges;
+    private Long lastEdgeId;         // 检查点：已完成推断的最大手动边 user_relation.id
+    private Integer graphRebuilt;    // Nebula 边是否已重建
+    private String ownerNode;        // 当前执行节点
+    private LocalDateTime heartbeatTime;
+    private Integer cancelRequested;
+    private String message;
+
+    @TableField(fill = FieldFill.INSERT)
+    private LocalDateTime createTime;
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updateTime;
+}
@@ -15,7 +15,8 @@ public class UserRelation implements Serializable {
     private String relationDesc;
     private String relationChain;  // JSON数组，如 ["父","母"]
     private Long inferredFrom;     // 由哪条关系推断（user_relation.id）
-    private Integer inferStatus;   // 0-手动 1-推断待确认 2-推断已确认
+    private Integer inferStatus;   // 0-手动 1-推断待确认 2-推断已确认 3-全量重推暂存
+    private Long reinferJobId;     // 暂存记录所属的重推任务（reinfer_job.id）
     private Integer confirmStatus;
     private LocalDateTime confirmTime;
     @TableField(fill = FieldFill.INSERT) private LocalDateTime createTime;
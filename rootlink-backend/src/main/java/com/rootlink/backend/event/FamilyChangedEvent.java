@@ -0,0 +1,12 @@
+package com.rootlink.backend.event;
+
+/**
+ * 家族关系变更事件：A、B 所在家族的关系数据发生了变化（新边推断完成 / 拒绝推断 / 解除关系）
+ *
+ * 提交后由 FamilyReconciler 登记为待对账家族，后台合并执行一次僵尸修复与推断补全。
+ * 事务回滚时不会触发；无事务发布时立即登记。
+ *
+ * @param userA 变更一方
+ * @param userB 变更另一方（解除关系后两人可能分属不同家族，两侧都需对账）
+ */
+public record FamilyChangedEvent(Long userA, Long userB) {}
@@ -0,0 +1,11 @@
+package com.rootlink.backend.event;
+
+/**
+ * 性别变更事件：用户在个人资料中设置 / 修改了性别
+ *
+ * 在事务内发布（同事务已写入顶点性别与 PARENT_OF 边属性的 graph_outbox 记录），
+ * 提交后由 RelationService#onGenderChanged 异步消费：重新解析经过该用户的推断称谓。事务回滚时不会触发。
+ *
+ * @param userId 性别变更的用户
+ */
+public record GenderChangedEvent(Long userId) {}
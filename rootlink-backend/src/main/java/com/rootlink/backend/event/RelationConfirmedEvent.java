@@ -0,0 +1,15 @@
+package com.rootlink.backend.event;
+
+import java.util.List;
+
+/**
+ * 关系确认事件：A、B 之间新增了一条确认关系（同意申请 / 确认推断）
+ *
+ * 在事务内发布，提交后由 RelationService#onRelationConfirmed 异步消费：
+ * 先等待同事务写入的 graph_outbox 边投递到 Nebula，再以新边为起点扩散推断。事务回滚时不会触发。
+ *
+ * @param userA 关系发起方
+ * @param userB 关系对端
+ * @param chain A 视角的关系链（A 称呼 B）
+ */
+public record RelationConfirmedEvent(Long userA, Long userB, List<String> chain) {}
@@ -0,0 +1,42 @@
+package com.rootlink.backend.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.rootlink.backend.entity.GraphOutbox;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * MySQL → Nebula 同步 outbox Mapper
+ */
+@Mapper
+public interface GraphOutboxMapper extends BaseMapper<GraphOutbox> {
+
+    /**
+     * 按 id 顺序锁定一批已到期（未认领、不在退避期）的待同步记录，用于认领（多节点时只有一个节点在投递同一批）
+     * 须在 READ COMMITTED 短事务中调用：不加间隙锁，不阻塞业务事务写入新记录；
+     * 认领后立即提交，不得在持锁期间调用 graphd（见 NebulaWriteQueue#claim）
+     */
+    @Select("""
+            SELECT * FROM graph_outbox
+             WHERE status = 0
+               AND (next_retry_time IS NULL OR next_retry_time <= #{now})
+             ORDER BY id
+             LIMIT #{limit}
+             FOR UPDATE
+            """)
+    List<GraphOutbox> lockPending(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * 已被认领或处于退避期的待同步记录（只取 id 与顶点），其后涉及相同顶点的记录须等它投递完再认领
+     */
+    @Select("""
+            SELECT id, vertex_a, vertex_b FROM graph_outbox
+             WHERE status = 0
+               AND next_retry_time > #{now}
+            """)
+    List<GraphOutbox> selectDeferred(@Param("now") LocalDateTime now);
+}
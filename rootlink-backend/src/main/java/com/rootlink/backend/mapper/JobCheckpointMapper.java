@@ -0,0 +1,29 @@
+package com.rootlink.backend.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.rootlink.backend.entity.JobCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+/**
+ * 一次性批处理任务检查点 Mapper
+ */
+@Mapper
+public interface JobCheckpointMapper extends BaseMapper<JobCheckpoint> {
+
+    /**
+     * 水位 CAS 推进：仅当水位仍为 expected 时更新，返回 0 表示已被其他节点推进
+     * 与该分块的数据修改同事务提交
+     */
+    @Update("""
+            UPDATE job_checkpoint
+               SET watermark = #{next},
+                   processed = processed + #{processed},
+                   status    = IF(#{next} >= target_id, 1, 0)
+             WHERE job_name  = #{jobName}
+               AND watermark = #{expected}
+            """)
+    int advance(@Param("jobName") String jobName, @Param("expected") long expected,
+                @Param("next") long next, @Param("processed") long processed);
+}
@@ -0,0 +1,60 @@
+package com.rootlink.backend.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.rootlink.backend.entity.ReInferJob;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+
+/**
+ * 全量重推任务 Mapper
+ *
+ * 检查点与接管都以 owner_node 做条件更新：只有当前持有者能推进检查点，
+ * 心跳过期的任务只会被一个节点抢到。
+ */
+@Mapper
+public interface ReInferJobMapper extends BaseMapper<ReInferJob> {
+
+    /**
+     * 推进检查点并续心跳；已请求取消或已被其他节点接管时返回 0
+     */
+    @Update("""
+            UPDATE reinfer_job
+               SET done_edges = #{doneEdges}, last_edge_id = #{lastEdgeId},
+                   heartbeat_time = NOW(), update_time = NOW()
+             WHERE id = #{id} AND owner_node = #{ownerNode}
+               AND status = 0 AND cancel_requested = 0
+            """)
+    int checkpoint(@Param("id") Long id, @Param("ownerNode") String ownerNode,
+                   @Param("doneEdges") int doneEdges, @Param("lastEdgeId") Long lastEdgeId);
+
+    /**
+     * 标记完成（在暂存区转正事务内最先执行）；已请求取消或已被其他节点接管时返回 0，转正不得继续
+     */
+    @Update("""
+            UPDATE reinfer_job
+               SET status = 1, update_time = NOW()
+             WHERE id = #{id} AND owner_node = #{ownerNode}
+               AND status = 0 AND cancel_requested = 0
+            """)
+    int markDone(@Param("id") Long id, @Param("ownerNode") String ownerNode);
+
+    /** 续心跳（执行期间定时调用）；任务已结束或已被其他节点接管时返回 0 */
+    @Update("""
+            UPDATE reinfer_job
+               SET heartbeat_time = NOW()
+             WHERE id = #{id} AND owner_node = #{ownerNode} AND status = 0
+            """)
+    int heartbeat(@Param("id") Long id, @Param("ownerNode") String ownerNode);
+
+    /** 接管心跳过期的运行中任务，抢到返回 1 */
+    @Update("""
+            UPDATE reinfer_job
+               SET owner_node = #{ownerNode}, heartbeat_time = NOW(), update_time = NOW()
+             WHERE id = #{id} AND status = 0 AND heartbeat_time < #{staleBefore}
+            """)
+    int claimStale(@Param("id") Long id, @Param("ownerNode") String ownerNode,
+                   @Param("staleBefore") LocalDateTime staleBefore);
+}
@@ -2,8 +2,237 @@ package com.rootlink.backend.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.rootlink.backend.entity.UserRelation;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 亲属关系 Mapper
+ *
+ * 除 BaseMapper 单表 CRUD 外，提供基于 MySQL 8 WITH RECURSIVE 的图遍历，
+ * 一条 SQL 完成整张亲属网络的可达性查询（Nebula 未启用时的主路径）。
+ *
+ * 递归行只有 uid，UNION DISTINCT 对全部已产生的行去重，等价于 BFS 的 visited 集合：
+ *   每个用户只展开一次，不再产生新用户即终止，成环的亲属图也能终止；
+ *   每轮迭代即一层 BFS，层数超过 maxDepth 时 MySQL 中止查询并报错（cte_max_recursion_depth），不会静默截断。
+ * 注意手写 SQL 不会自动追加逻辑删除条件，需显式 deleted = 0。
+ */
 @Mapper
 public interface UserRelationMapper extends BaseMapper<UserRelation> {
+
+    /**
+     * 从 origin 出发沿已确认关系（手动 + 推断已确认）递归遍历
+     * 返回 [{user_id}]，含 origin 自身，按 user_id 升序；网络超过 maxDepth 层时抛异常
+     */
+    @Select("""
+            WITH RECURSIVE walk (uid) AS (
+                SELECT CAST(#{origin} AS SIGNED)
+                UNION DISTINCT
+                SELECT r.related_user_id
+                  FROM walk w
+                  JOIN user_relation r ON r.user_id = w.uid
+                 WHERE r.confirm_status = 1
+                   AND r.infer_status IN (0, 2)
+                   AND r.deleted = 0
+            )
+            SELECT /*+ SET_VAR(cte_max_recursion_depth = ${maxDepth}) */ uid AS user_id
+              FROM walk
+             ORDER BY uid
+            """)
+    List<Map<String, Object>> selectReachable(@Param("origin") Long origin,
+                                              @Param("maxDepth") int maxDepth);
+
+    /**
+     * 从 origin 出发的整张亲属网络内的全部已确认关系边（两个方向都返回）
+     * 一次往返同时得到节点集（边端点 ∪ origin）与边；网络超过 maxDepth 层时抛异常
+     */
+    @Select("""
+            WITH RECURSIVE walk (uid) AS (
+                SELECT CAST(#{origin} AS SIGNED)
+                UNION DISTINCT
+                SELECT r.related_user_id
+                  FROM walk w
+                  JOIN user_relation r ON r.user_id = w.uid
+                 WHERE r.confirm_status = 1
+                   AND r.infer_status IN (0, 2)
+                   AND r.deleted = 0
+            ),
+            net AS (SELECT uid FROM walk)
+            SELECT /*+ SET_VAR(cte_max_recursion_depth = ${maxDepth}) */ r.*
+              FROM user_relation r
+              JOIN net a ON a.uid = r.user_id
+              JOIN net b ON b.uid = r.related_user_id
+             WHERE r.confirm_status = 1
+               AND r.infer_status IN (0, 2)
+               AND r.deleted = 0
+            """)
+    List<UserRelation> selectNetworkEdges(@Param("origin") Long origin,
+                                          @Param("maxDepth") int maxDepth);
+
+    /**
+     * 直系两代亲属（悼念场景）：返回 [{user_id, generation}]
+     *   generation  -1 父母 / -2 祖父母（沿 relation_type 1,2 向上）
+     *                1 子女 /  2 孙子女（沿 relation_type 4 向下）
+     *                0 配偶（relation_type 3，任一方向）
+     */
+    @Select("""
+            WITH RECURSIVE up (uid, depth) AS (
+                SELECT CAST(#{userId} AS SIGNED), 0
+                UNION DISTINCT
+                SELECT r.user_id, u.depth + 1
+                  FROM up u
+                  JOIN user_relation r ON r.related_user_id = u.uid
+                 WHERE u.depth < 2
+                   AND r.relation_type IN (1, 2)
+                   AND r.confirm_status = 1
+                   AND r.deleted = 0
+            ),
+            down (uid, depth) AS (
+                SELECT CAST(#{userId} AS SIGNED), 0
+                UNION DISTINCT
+                SELECT r.related_user_id, d.depth + 1
+                  FROM down d
+                  JOIN user_relation r ON r.user_id = d.uid
+                 WHERE d.depth < 2
+                   AND r.relation_type = 4
+                   AND r.confirm_status = 1
+                   AND r.deleted = 0
+            )
+            SELECT uid AS user_id, -depth AS generation FROM up WHERE depth > 0
+            UNION ALL
+            SELECT uid, depth FROM down WHERE depth > 0
+            UNION ALL
+            SELECT IF(r.user_id = #{userId}, r.related_user_id, r.user_id), 0
+              FROM user_relation r
+             WHERE (r.user_id = #{userId} OR r.related_user_id = #{userId})
+               AND r.relation_type = 3
+               AND r.confirm_status = 1
+               AND r.deleted = 0
+            """)
+    List<Map<String, Object>> selectDirectLineage(@Param("userId") Long userId);
+
+    /**
+     * 批量写入已确认推断关系（confirm_status=1），一条语句写一批
+     * inferStatus=2 直接生效；inferStatus=3 为全量重推暂存区，reinferJobId 记录所属任务
+     *
+     * 依赖唯一键 uk_relation_alive (user_id, related_user_id, infer_status, alive)，
+     * alive = IF(deleted=0, 1, NULL)，已逻辑删除的记录不参与冲突判断（见 migrate-v0.8.0.sql）。
+     *   - 已有同向手动确认关系（infer_status=0）的行被 NOT EXISTS 过滤，推断绝不覆盖手动关系
+     *   - 已有同状态的存活记录：唯一键冲突，不做任何修改（保持原称谓）
+     *   - 僵尸推断（infer_status=1）状态不同，不会冲突，由 dropShadowedZombies / upgradeZombies 处理
+     * 返回 MySQL 影响行数（新增 1 / 已存在 0）
+     */
+    @Insert("""
+            <script>
+            INSERT INTO user_relation
+                   (user_id, related_user_id, relation_type, relation_desc, relation_chain,
+                    reinfer_job_id, infer_status, confirm_status, confirm_time, deleted)
+            SELECT v.user_id, v.related_user_id, 99, v.relation_desc, '[]',
+                   #{reinferJobId,jdbcType=BIGINT}, #{inferStatus}, 1, NOW(), 0
+              FROM (
+                <foreach collection="rows" item="r" separator=" UNION ALL ">
+                SELECT #{r.userId} AS user_id, #{r.relatedUserId} AS related_user_id,
+                       #{r.relationDesc} AS relation_desc
+                </foreach>
+              ) v
+             WHERE NOT EXISTS (
+                   SELECT 1 FROM user_relation m
+                    WHERE m.user_id = v.user_id
+                      AND m.related_user_id = v.related_user_id
+                      AND m.infer_status = 0
+                      AND m.confirm_status = 1
+                      AND m.deleted = 0)
+            ON DUPLICATE KEY UPDATE id = id
+            </script>
+            """)
+    int upsertInferred(@Param("rows") List<UserRelation> rows,
+                       @Param("inferStatus") int inferStatus,
+                       @Param("reinferJobId") Long reinferJobId);
+
+    /**
+     * 按主键批量改写已确认推断的称谓（性别变更后重算，见 RelationService#onGenderChanged）
+     * 手动关系与暂存区记录不受影响
+     */
+    @Update("""
+            <script>
+            UPDATE user_relation
+               SET relation_desc = CASE id
+                   <foreach collection="rows" item="r">WHEN #{r.id} THEN #{r.relationDesc} </foreach>
+                   END
+             WHERE id IN (<foreach collection="rows" item="r" separator=",">#{r.id}</foreach>)
+               AND infer_status = 2
+               AND deleted = 0
+            </script>
+            """)
+    int updateInferredDesc(@Param("rows") List<UserRelation> rows);
+
+    // ── 僵尸推断升级（ZombieMigrationJob 按主键区间 / 家族对账按家族成员） ─────────
+    // 范围：fromId / toId 非空时限定主键区间，userIds 非空时限定 user_id，两者可同时使用
+
+    /**
+     * 范围内已有同向有效确认关系（手动 / 推断已确认）的僵尸推断直接逻辑删除：
+     * 升级后会与之冲突（uk_relation_alive），且推断不应与手动关系并存；须先于 upgradeZombies 执行
+     */
+    @Update("""
+            <script>
+            UPDATE user_relation z
+              JOIN user_relation t
+                ON t.user_id = z.user_id
+               AND t.related_user_id = z.related_user_id
+               AND t.infer_status IN (0, 2)
+               AND t.confirm_status = 1
+               AND t.deleted = 0
+               SET z.deleted = 1
+             WHERE z.infer_status = 1
+               AND z.confirm_status = 0
+               AND z.deleted = 0
+               <if test="fromId != null">AND z.id BETWEEN #{fromId} AND #{toId}</if>
+               <if test="userIds != null">
+               AND z.user_id IN <foreach collection="userIds" item="u" open="(" separator="," close=")">#{u}</foreach>
+               </if>
+            </script>
+            """)
+    int dropShadowedZombies(@Param("fromId") Long fromId, @Param("toId") Long toId,
+                            @Param("userIds") Collection<Long> userIds);
+
+    /** 范围内僵尸推断（infer_status=1, confirm_status=0）升级为推断已确认 */
+    @Update("""
+            <script>
+            UPDATE user_relation
+               SET infer_status = 2, confirm_status = 1, confirm_time = NOW()
+             WHERE infer_status = 1
+               AND confirm_status = 0
+               AND deleted = 0
+               <if test="fromId != null">AND id BETWEEN #{fromId} AND #{toId}</if>
+               <if test="userIds != null">
+               AND user_id IN <foreach collection="userIds" item="u" open="(" separator="," close=")">#{u}</foreach>
+               </if>
+            </script>
+            """)
+    int upgradeZombies(@Param("fromId") Long fromId, @Param("toId") Long toId,
+                       @Param("userIds") Collection<Long> userIds);
+
+    /** 区间内反向缺失（对方没有任何有效确认关系指回）的已确认推断 */
+    @Select("""
+            SELECT r.id, r.user_id, r.related_user_id, r.relation_desc, r.relation_chain
+              FROM user_relation r
+             WHERE r.id BETWEEN #{fromId} AND #{toId}
+               AND r.infer_status = 2
+               AND r.confirm_status = 1
+               AND r.deleted = 0
+               AND NOT EXISTS (
+                   SELECT 1 FROM user_relation b
+                    WHERE b.user_id = r.related_user_id
+                      AND b.related_user_id = r.user_id
+                      AND b.infer_status IN (0, 2)
+                      AND b.confirm_status = 1
+                      AND b.deleted = 0)
+            """)
+    List<UserRelation> selectMissingReverse(@Param("fromId") long fromId, @Param("toId") long toId);
 }
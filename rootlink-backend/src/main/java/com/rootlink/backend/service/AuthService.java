@@ -11,7 +11,7 @@ import com.rootlink.backend.exception.BusinessException;
 import com.rootlink.backend.mapper.UserMapper;
 import com.rootlink.backend.mapper.UserProfileMapper;
 import com.rootlink.backend.utils.JwtUtil;
-import com.rootlink.backend.utils.NebulaUtil;
+import com.rootlink.backend.utils.GraphStore;
 import com.rootlink.backend.utils.RedisUtil;
 import com.rootlink.backend.utils.SecurityUtil;
 import com.rootlink.backend.vo.LoginVO;
@@ -52,7 +52,10 @@ public class AuthService {
     private RedisUtil redisUtil;
 
     @Autowired
-    private NebulaUtil nebulaUtil;
+    private GraphStore graphStore;
+
+    @Autowired
+    private UserCacheService userCache;
 
     private static final String USER_TOKEN_PREFIX = "user:token:";
 
@@ -97,8 +100,8 @@ public class AuthService {
 
         userMapper.insert(user);
 
-        // 同步到 NebulaGraph 顶点（不可用时跳过）
-        nebulaUtil.insertPerson(user.getId(), user.getRealName(), null);
+        // 同步到 NebulaGraph 顶点（同事务写 outbox，提交后投递；不可用时跳过）
+        graphStore.insertPerson(user.getId(), user.getRealName(), null);
 
         // 5. 创建用户详情表
         UserProfile profile = new UserProfile();
@@ -155,6 +158,7 @@ public class AuthService {
         user.setLastLoginTime(LocalDateTime.now());
         user.setLastLoginIp(loginIp);
         userMapper.updateById(user);
+        userCache.evictUser(user.getId());
 
         // 7. 构建返回数据
         LoginVO vo = new LoginVO();
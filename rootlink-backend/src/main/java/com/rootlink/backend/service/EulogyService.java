@@ -311,52 +311,19 @@ public class EulogyService {
     private List<DirectRelative> queryDirectRelativesFromMySQL(Long targetUserId) {
         Set<DirectRelative> relatives = new HashSet<>();
 
-        // 1. 查询父母
-        LambdaQueryWrapper<UserRelation> parentWrapper = new LambdaQueryWrapper<>();
-        parentWrapper.eq(UserRelation::getRelatedUserId, targetUserId);
-        parentWrapper.in(UserRelation::getRelationType, Arrays.asList(1, 2));  // 父亲、母亲
-        parentWrapper.eq(UserRelation::getConfirmStatus, 1);
-        List<UserRelation> parents = relationMapper.selectList(parentWrapper);
-        parents.forEach(r -> relatives.add(new DirectRelative(r.getUserId(), 1)));
-
-        // 2. 查询配偶
-        LambdaQueryWrapper<UserRelation> spouseWrapper = new LambdaQueryWrapper<>();
-        spouseWrapper.and(w -> w.eq(UserRelation::getUserId, targetUserId)
-            .or().eq(UserRelation::getRelatedUserId, targetUserId));
-        spouseWrapper.eq(UserRelation::getRelationType, 3);  // 配偶
-        spouseWrapper.eq(UserRelation::getConfirmStatus, 1);
-        List<UserRelation> spouses = relationMapper.selectList(spouseWrapper);
-        spouses.forEach(r -> {
-            Long spouseId = r.getUserId().equals(targetUserId) ? r.getRelatedUserId() : r.getUserId();
-            relatives.add(new DirectRelative(spouseId, 2));
-        });
-
-        // 3. 查询子女
-        LambdaQueryWrapper<UserRelation> childWrapper = new LambdaQueryWrapper<>();
-        childWrapper.eq(UserRelation::getUserId, targetUserId);
-        childWrapper.eq(UserRelation::getRelationType, 4);  // 子女
-        childWrapper.eq(UserRelation::getConfirmStatus, 1);
-        List<UserRelation> children = relationMapper.selectList(childWrapper);
-        children.forEach(r -> relatives.add(new DirectRelative(r.getRelatedUserId(), 3)));
-
-        // 4. 查询祖父母（父母的父母）
-        for (UserRelation parent : parents) {
-            LambdaQueryWrapper<UserRelation> grandparentWrapper = new LambdaQueryWrapper<>();
-            grandparentWrapper.eq(UserRelation::getRelatedUserId, parent.getUserId());
-            grandparentWrapper.in(UserRelation::getRelationType, Arrays.asList(1, 2));
-            grandparentWrapper.eq(UserRelation::getConfirmStatus, 1);
-            List<UserRelation> grandparents = relationMapper.selectList(grandparentWrapper);
-            grandparents.forEach(r -> relatives.add(new DirectRelative(r.getUserId(), 4)));
-        }
-
-        // 5. 查询孙子女（子女的子女）
-        for (UserRelation child : children) {
-            LambdaQueryWrapper<UserRelation> grandchildWrapper = new LambdaQueryWrapper<>();
-            grandchildWrapper.eq(UserRelation::getUserId, child.getRelatedUserId());
-            grandchildWrapper.eq(UserRelation::getRelationType, 4);
-            grandchildWrapper.eq(UserRelation::getConfirmStatus, 1);
-            List<UserRelation> grandchildren = relationMapper.selectList(grandchildWrapper);
-            grandchildren.forEach(r -> relatives.add(new DirectRelative(r.getRelatedUserId(), 5)));
+        // 递归 CTE 一次查出父母/祖父母、子女/孙子女、配偶
+        for (Map<String, Object> row : relationMapper.selectDirectLineage(targetUserId)) {
+            Long userId = ((Number) row.get("user_id")).longValue();
+            int generation = ((Number) row.get("generation")).intValue();
+            Integer relationType = switch (generation) {
+                case -1 -> 1;  // 父母
+                case 0  -> 2;  // 配偶
+                case 1  -> 3;  // 子女
+                case -2 -> 4;  // 祖父母
+                case 2  -> 5;  // 孙子女
+                default -> null;
+            };
+            if (relationType != null) relatives.add(new DirectRelative(userId, relationType));
         }
 
         log.info("MySQL查询直系两代亲属: targetUserId={}, count={}", targetUserId, relatives.size());
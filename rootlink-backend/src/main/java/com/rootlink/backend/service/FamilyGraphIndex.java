@@ -0,0 +1,282 @@
+package com.rootlink.backend.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.rootlink.backend.entity.UserRelation;
+import com.rootlink.backend.mapper.UserRelationMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 亲属关系邻接索引（进程内）
+ *
+ * 缓存 user_relation 中所有已确认的关系边（confirm_status=1, infer_status ∈ {0,2}）：
+ *   userId → { relatedUserId → inferStatus }
+ *
+ * 网络 BFS、僵尸修复、全量重推等只在内存中遍历亲属图，
+ * 需要完整行数据时再对 MySQL 发一次批量 IN 查询，不再逐节点查库。
+ *
+ * 维护方式：
+ *   1. 首次访问时整表加载（只取 user_id / related_user_id / infer_status 三列）
+ *   2. RelationService / UserService 写入或删除关系时增量更新，在所在事务提交后应用
+ *      （无事务时立即应用），回滚则不应用；未提交的关系对其他线程的遍历始终不可见
+ *   3. 超过 app.graph-index.refresh-seconds 后下次访问自动重载，
+ *      兜底多实例部署时其他节点的写入（0 表示不自动重载）
+ *
+ * app.graph-index.enabled=false 时不常驻内存，查询直接走 MySQL：
+ *   可达网络由 UserRelationMapper 的 WITH RECURSIVE 一条 SQL 完成
+ */
+@Slf4j
+@Component
+public class FamilyGraphIndex {
+
+    @Autowired private UserRelationMapper relationMapper;
+
+    /** 递归 CTE 遍历的最大层数（家族网络直径远小于此值，超过时查询报错而非截断） */
+    public static final int MAX_WALK_DEPTH = 32;
+
+    @Value("${app.graph-index.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.graph-index.refresh-seconds:300}")
+    private long refreshSeconds;
+
+    private volatile Map<Long, Map<Long, Integer>> adjacency;
+    private volatile long loadedAt;
+    private final Object lock = new Object();
+
+    // ═══════════════════════════════════════════════════
+    // 查询
+    // ═══════════════════════════════════════════════════
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 从 origin 出发 BFS，返回整个可达亲属网络（含 origin，按 BFS 顺序） */
+    public Set<Long> reachable(Long origin) {
+        if (!enabled) {
+            Set<Long> visited = new LinkedHashSet<>();
+            visited.add(origin);
+            for (Map<String, Object> row : relationMapper.selectReachable(origin, MAX_WALK_DEPTH)) {
+                visited.add(((Number) row.get("user_id")).longValue());
+            }
+            return visited;
+        }
+        Map<Long, Map<Long, Integer>> adj = graph();
+        Set<Long> visited = new LinkedHashSet<>();
+        Deque<Long> queue = new ArrayDeque<>();
+        visited.add(origin);
+        queue.add(origin);
+        while (!queue.isEmpty()) {
+            Map<Long, Integer> out = adj.get(queue.poll());
+            if (out == null) continue;
+            for (Long next : out.keySet()) {
+                if (visited.add(next)) queue.add(next);
+            }
+        }
+        return visited;
+    }
+
+    /** 一跳邻居（已确认关系，含手动和推断） */
+    public Set<Long> neighbors(Long userId) {
+        if (!enabled) {
+            Set<Long> result = new HashSet<>();
+            for (UserRelation r : relationMapper.selectList(confirmedFrom(Collections.singleton(userId))))
+                result.add(r.getRelatedUserId());
+            return result;
+        }
+        Map<Long, Integer> out = graph().get(userId);
+        return out == null ? new HashSet<>() : new HashSet<>(out.keySet());
+    }
+
+    /** from → to 是否存在已确认关系 */
+    public boolean hasEdge(Long from, Long to) {
+        if (!enabled) return inferStatus(from, to) != null;
+        Map<Long, Integer> out = graph().get(from);
+        return out != null && out.containsKey(to);
+    }
+
+    /** from → to 的 infer_status，无关系返回 null */
+    public Integer inferStatus(Long from, Long to) {
+        if (!enabled) {
+            LambdaQueryWrapper<UserRelation> w = confirmedFrom(Collections.singleton(from));
+            w.eq(UserRelation::getRelatedUserId, to);
+            return relationMapper.selectList(w).stream()
+                    .map(UserRelation::getInferStatus).min(Integer::compare).orElse(null);
+        }
+        Map<Long, Integer> out = graph().get(from);
+        return out == null ? null : out.get(to);
+    }
+
+    /**
+     * nodes 内部的手动确认边（infer_status=0），无方向去重，
+     * 每条边以 {较小 userId 所在一侧, 另一侧} 的 {from, to} 形式返回
+     */
+    public List<Long[]> manualEdges(Collection<Long> nodes) {
+        Map<Long, Map<Long, Integer>> adj = enabled ? graph() : loadScope(nodes);
+        Set<Long> scope = nodes instanceof Set ? (Set<Long>) nodes : new HashSet<>(nodes);
+        List<Long[]> result = new ArrayList<>();
+        for (Long uid : scope) {
+            Map<Long, Integer> out = adj.get(uid);
+            if (out == null) continue;
+            for (Map.Entry<Long, Integer> e : out.entrySet()) {
+                Long other = e.getKey();
+                if (e.getValue() != 0 || !scope.contains(other)) continue;
+                // 无方向去重：只保留 uid < other 的一侧；单向手动边（反向缺失）也要保留
+                if (uid < other || !isManual(adj, other, uid)) result.add(new Long[]{uid, other});
+            }
+        }
+        return result;
+    }
+
+    // ═══════════════════════════════════════════════════
+    // 增量维护
+    // ═══════════════════════════════════════════════════
+
+    /** 新增 / 升级为已确认关系（infer_status 0 或 2） */
+    public void onSaved(Long from, Long to, int inferStatus) {
+        if (inferStatus != 0 && inferStatus != 2) return;
+        mutate(adj -> {
+            Map<Long, Integer> out = adj.computeIfAbsent(from, k -> new ConcurrentHashMap<>());
+            // 手动关系优先：同一对用户同时有手动和推断记录时，以手动为准
+            out.merge(to, inferStatus, Math::min);
+        });
+    }
+
+    /** 删除 from → to 上指定 infer_status 的关系；inferStatus 为 null 时无条件删除 */
+    public void onRemoved(Long from, Long to, Integer inferStatus) {
+        mutate(adj -> {
+            Map<Long, Integer> out = adj.get(from);
+            if (out == null) return;
+            if (inferStatus == null) out.remove(to);
+            else out.remove(to, inferStatus);
+        });
+    }
+
+    /** 删除 nodes 内部所有推断关系（infer_status=2），用于全量重推清理 */
+    public void onInferredCleared(Collection<Long> nodes) {
+        Set<Long> scope = new HashSet<>(nodes);
+        mutate(adj -> {
+            for (Long uid : scope) {
+                Map<Long, Integer> out = adj.get(uid);
+                if (out != null) out.entrySet().removeIf(e -> e.getValue() == 2 && scope.contains(e.getKey()));
+            }
+        });
+    }
+
+    /** 删除某用户的全部关系（账号注销） */
+    public void onUserRemoved(Long userId) {
+        mutate(adj -> {
+            Map<Long, Integer> out = adj.remove(userId);
+            if (out == null) return;
+            for (Long other : out.keySet()) {
+                Map<Long, Integer> back = adj.get(other);
+                if (back != null) back.remove(userId);
+            }
+        });
+    }
+
+    /** 使索引失效，下次访问时重新加载 */
+    public void invalidate() {
+        synchronized (lock) {
+            adjacency = null;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════
+    // 内部实现
+    // ═══════════════════════════════════════════════════
+
+    private Map<Long, Map<Long, Integer>> graph() {
+        Map<Long, Map<Long, Integer>> adj = adjacency;
+        if (adj != null && !expired()) return adj;
+        synchronized (lock) {
+            if (adjacency == null || expired()) reload();
+            return adjacency;
+        }
+    }
+
+    private boolean expired() {
+        return refreshSeconds > 0 && System.currentTimeMillis() - loadedAt > refreshSeconds * 1000;
+    }
+
+    private void reload() {
+        long start = System.currentTimeMillis();
+        Map<Long, Map<Long, Integer>> adj = new ConcurrentHashMap<>();
+        int edges = 0;
+        for (UserRelation r : relationMapper.selectList(confirmedFrom(null))) {
+            adj.computeIfAbsent(r.getUserId(), k -> new ConcurrentHashMap<>())
+               .merge(r.getRelatedUserId(), r.getInferStatus(), Math::min);
+            edges++;
+        }
+        adjacency = adj;
+        loadedAt = System.currentTimeMillis();
+        log.info("[关系索引] 加载完成: 用户 {} 人, 关系 {} 条, 耗时 {}ms",
+                adj.size(), edges, loadedAt - start);
+    }
+
+    private void mutate(Consumer<Map<Long, Map<Long, Integer>>> change) {
+        if (!enabled) return;
+        Runnable apply = () -> {
+            synchronized (lock) {
+                // 尚未加载时无需增量维护，首次访问会整表加载（已包含本次提交）
+                if (adjacency != null) change.accept(adjacency);
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+
+                /** 先于 InMemoryGraphStore 的家族失效执行，重新加载的家族已包含本次提交的成员 */
+                @Override
+                public int getOrder() {
+                    return Ordered.HIGHEST_PRECEDENCE;
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    /** 索引关闭时，按需加载 nodes 内部的邻接表（一次批量查询） */
+    private Map<Long, Map<Long, Integer>> loadScope(Collection<Long> nodes) {
+        Map<Long, Map<Long, Integer>> adj = new HashMap<>();
+        if (nodes.isEmpty()) return adj;
+        LambdaQueryWrapper<UserRelation> w = confirmedFrom(nodes);
+        w.in(UserRelation::getRelatedUserId, nodes);
+        for (UserRelation r : relationMapper.selectList(w)) {
+            adj.computeIfAbsent(r.getUserId(), k -> new HashMap<>())
+               .merge(r.getRelatedUserId(), r.getInferStatus(), Math::min);
+        }
+        return adj;
+    }
+
+    /** 已确认关系（手动 + 推断已确认）的投影查询；fromUsers 为 null 时整表 */
+    private LambdaQueryWrapper<UserRelation> confirmedFrom(Collection<Long> fromUsers) {
+        LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
+        w.select(UserRelation::getUserId, UserRelation::getRelatedUserId, UserRelation::getInferStatus)
+         .in(fromUsers != null, UserRelation::getUserId, fromUsers)
+         .eq(UserRelation::getConfirmStatus, 1)
+         .in(UserRelation::getInferStatus, 0, 2)
+         .eq(UserRelation::getDeleted, 0);
+        return w;
+    }
+
+    private static boolean isManual(Map<Long, Map<Long, Integer>> adj, Long from, Long to) {
+        Map<Long, Integer> out = adj.get(from);
+        Integer s = out == null ? null : out.get(to);
+        return s != null && s == 0;
+    }
+}
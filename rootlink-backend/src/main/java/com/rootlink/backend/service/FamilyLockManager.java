@@ -0,0 +1,225 @@
+package com.rootlink.backend.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 家族锁：同一家族（连通分量）内的推断写入串行执行，不同家族互不阻塞
+ *
+ * 家族键 = 可达用户集合中的最小 userId（内存索引 BFS）。
+ *   两个家族因新边合并后，双方计算出的键一致，自然落到同一把锁上；
+ *   加锁后重新计算一次家族键，若期间发生合并则释放后按新键重试。
+ *
+ * 本地：固定数量的分段 ReentrantLock（按家族键取模），同一线程可重入。
+ * 多节点：app.family-lock.distributed=true 时在本地锁之上再取 Redis 租约
+ *   （SET NX EX，释放时 Lua 比对 token 后删除），租约到期自动失效，避免宕机死锁。
+ *   持锁期间看门狗每 renew-interval-ms 比对 token 后续期，长任务（全量重推）不会因租约到期被其他节点闯入；
+ *   续期时发现租约已丢失（Redis 故障切换、长时间 GC 停顿等）记错误日志与 rootlink.family.lock.lease.lost 指标。
+ *
+ * 指标：rootlink.family.lock.wait（outcome=acquired|timeout|busy）
+ */
+@Slf4j
+@Component
+public class FamilyLockManager {
+
+    private static final String LEASE_PREFIX = "rootlink:family-lock:";
+    private static final int MAX_REKEY = 3;
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('expire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+
+    @Autowired private FamilyGraphIndex graphIndex;
+    @Autowired private StringRedisTemplate stringRedisTemplate;
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${app.family-lock.stripes:64}")
+    private int stripeCount;
+
+    @Value("${app.family-lock.wait-seconds:30}")
+    private long waitSeconds;
+
+    @Value("${app.family-lock.distributed:false}")
+    private boolean distributed;
+
+    @Value("${app.family-lock.lease-seconds:300}")
+    private long leaseSeconds;
+
+    private ReentrantLock[] stripes;
+
+    /** 本节点持有中的 Redis 租约（家族键 → token），由看门狗续期 */
+    private final Map<Long, String> leases = new ConcurrentHashMap<>();
+
+    /** 当前线程已持有的家族键（重入时不再重复取锁 / 租约） */
+    private final ThreadLocal<Set<Long>> held = ThreadLocal.withInitial(HashSet::new);
+
+    @PostConstruct
+    public void init() {
+        stripes = new ReentrantLock[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new ReentrantLock();
+    }
+
+    /** 持锁执行，等待超时抛 IllegalStateException */
+    public <T> T withFamilyLock(Long userId, Supplier<T> action) {
+        return execute(userId, action, waitSeconds, true);
+    }
+
+    public void runWithFamilyLock(Long userId, Runnable action) {
+        execute(userId, () -> { action.run(); return null; }, waitSeconds, true);
+    }
+
+    /** 不等待：家族正被其他任务占用时直接返回 busyValue，不执行 action */
+    public <T> T tryWithFamilyLock(Long userId, Supplier<T> action, T busyValue) {
+        Optional<T> result = execute(userId, () -> Optional.ofNullable(action.get()), 0, false);
+        return result == null ? busyValue : result.orElse(null);
+    }
+
+    /** 不等待：家族正被其他任务占用时直接返回 false，不执行 action */
+    public boolean tryRunWithFamilyLock(Long userId, Runnable action) {
+        return tryWithFamilyLock(userId, () -> { action.run(); return Boolean.TRUE; }, Boolean.FALSE);
+    }
+
+    /** 看门狗：续期本节点持有中的租约（间隔须远小于 lease-seconds） */
+    @Scheduled(fixedDelayString = "${app.family-lock.renew-interval-ms:60000}")
+    public void renewLeases() {
+        for (Map.Entry<Long, String> e : leases.entrySet()) {
+            Long key = e.getKey();
+            try {
+                Long ok = stringRedisTemplate.execute(RENEW_SCRIPT, List.of(LEASE_PREFIX + key),
+                        e.getValue(), String.valueOf(leaseSeconds));
+                if (ok == null || ok == 0) {
+                    // 已释放的租约不算丢失
+                    if (!leases.remove(key, e.getValue())) continue;
+                    meterRegistry.counter("rootlink.family.lock.lease.lost").increment();
+                    log.error("[家族锁] Redis 租约已丢失，家族写入可能与其他节点并发: family={}", key);
+                }
+            } catch (Exception ex) {
+                log.warn("[家族锁] Redis 租约续期失败: family={}, err={}", key, ex.getMessage());
+            }
+        }
+    }
+
+    /** 家族键：可达集合中的最小 userId */
+    public Long familyKey(Long userId) {
+        Long min = userId;
+        for (Long id : graphIndex.reachable(userId)) if (id < min) min = id;
+        return min;
+    }
+
+    // ══ 内部实现 ══════════════════════════════════════════
+
+    private <T> T execute(Long userId, Supplier<T> action, long waitSec, boolean failOnTimeout) {
+        Long key = familyKey(userId);
+        if (held.get().contains(key)) return action.get();
+
+        for (int attempt = 0; attempt < MAX_REKEY; attempt++) {
+            long start = System.nanoTime();
+            Long lockedKey = key;
+            ReentrantLock lock = stripe(lockedKey);
+            String token = acquire(lock, lockedKey, waitSec);
+            if (token == null) {
+                timer(waitSec > 0 ? "timeout" : "busy").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (!failOnTimeout) return null;
+                throw new IllegalStateException("等待家族锁超时: userId=" + userId + ", family=" + key);
+            }
+            timer("acquired").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            try {
+                // 等锁期间家族可能因新边合并，键变化后按新键重试
+                Long current = familyKey(userId);
+                if (!current.equals(lockedKey) && !held.get().contains(current)) {
+                    log.debug("[家族锁] 家族已合并 userId={} {} → {}，重新加锁", userId, lockedKey, current);
+                    key = current;
+                    continue;
+                }
+                held.get().add(lockedKey);
+                try {
+                    return action.get();
+                } finally {
+                    held.get().remove(lockedKey);
+                }
+            } finally {
+                release(lock, lockedKey, token);
+            }
+        }
+        throw new IllegalStateException("家族锁重试次数过多: userId=" + userId);
+    }
+
+    /** 取本地锁 + （可选）Redis 租约，成功返回租约 token（非分布式时为空串），超时返回 null */
+    private String acquire(ReentrantLock lock, Long key, long waitSec) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitSec);
+        try {
+            if (!lock.tryLock(waitSec, TimeUnit.SECONDS)) return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (!distributed) return "";
+
+        String token = UUID.randomUUID().toString();
+        long backoffMs = 20;
+        try {
+            while (true) {
+                Boolean ok = stringRedisTemplate.opsForValue()
+                        .setIfAbsent(LEASE_PREFIX + key, token, leaseSeconds, TimeUnit.SECONDS);
+                if (Boolean.TRUE.equals(ok)) {
+                    leases.put(key, token);
+                    return token;
+                }
+                if (System.nanoTime() >= deadline) break;
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, 500);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Redis 不可用时退化为仅本地锁，不阻断推断
+            log.warn("[家族锁] Redis 租约获取失败，仅使用本地锁: family={}, err={}", key, e.getMessage());
+            return "";
+        }
+        lock.unlock();
+        return null;
+    }
+
+    private void release(ReentrantLock lock, Long key, String token) {
+        try {
+            if (!token.isEmpty()) {
+                leases.remove(key, token);
+                stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(LEASE_PREFIX + key), token);
+            }
+        } catch (Exception e) {
+            log.warn("[家族锁] Redis 租约释放失败（到期自动失效）: family={}, err={}", key, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock stripe(Long key) {
+        return stripes[Math.floorMod(Long.hashCode(key) * 0x9E3779B9, stripes.length)];
+    }
+
+    private Timer timer(String outcome) {
+        return Timer.builder("rootlink.family.lock.wait")
+                .description("家族锁等待耗时")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
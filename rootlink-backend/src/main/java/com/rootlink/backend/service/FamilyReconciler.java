@@ -0,0 +1,69 @@
+package com.rootlink.backend.service;
+
+import com.rootlink.backend.config.AsyncConfig;
+import com.rootlink.backend.event.FamilyChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 家族对账：关系变更后在后台修复僵尸 / 单向推断、补全遗漏推断，关系网络接口只读
+ *
+ * 登记：FamilyChangedEvent 提交后记录变更涉及的用户（去重）。
+ * 执行：每隔 app.reconcile.interval-ms 取出全部待对账用户，按家族合并——
+ *   同一轮内一个家族只对账一次，提交到 reconcileExecutor 执行 RelationService#reconcileFamily；
+ *   家族推断进行中（家族锁被占用）时重新登记，下一轮再试。
+ * 突发的多次变更在一个间隔内合并为一次对账；reconcileExecutor 队列满被丢弃的家族待下次变更时再对账。
+ */
+@Slf4j
+@Service
+public class FamilyReconciler {
+
+    @Autowired private RelationService relationService;
+    @Autowired private FamilyGraphIndex graphIndex;
+    @Autowired private ZombieMigrationJob zombieMigration;
+    @Autowired @Qualifier(AsyncConfig.RECONCILE) private Executor reconcileExecutor;
+
+    /** 待对账用户 */
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onFamilyChanged(FamilyChangedEvent event) {
+        markDirty(event.userA());
+        markDirty(event.userB());
+    }
+
+    public void markDirty(Long userId) {
+        if (userId != null) dirty.add(userId);
+    }
+
+    @Scheduled(fixedDelayString = "${app.reconcile.interval-ms:5000}")
+    public void drain() {
+        if (dirty.isEmpty()) return;
+        List<Long> pending = new ArrayList<>(dirty);
+        dirty.removeAll(pending);
+
+        boolean repairStale = !zombieMigration.isDone();   // 全表迁移完成后不再逐家族修复
+        Set<Long> covered = new HashSet<>();
+        int families = 0;
+        for (Long userId : pending) {
+            if (covered.contains(userId)) continue;
+            Set<Long> family = graphIndex.reachable(userId);
+            covered.addAll(family);
+            covered.add(userId);
+            families++;
+            reconcileExecutor.execute(() -> {
+                if (!relationService.reconcileFamily(userId, family, repairStale)) markDirty(userId);
+            });
+        }
+        log.debug("[家族对账] 本轮登记用户 {} 人，合并为 {} 个家族", pending.size(), families);
+    }
+}
@@ -0,0 +1,98 @@
+package com.rootlink.backend.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rootlink.backend.entity.UserProfile;
+import com.rootlink.backend.mapper.UserProfileMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 性别字典：userId → 性别（1-男 2-女），推断路径的高频查询
+ *
+ * 本地近缓存（Caffeine，容量 app.cache.gender.max-size，写入后 ttl-seconds 过期），
+ * 未命中的 id 合并为一次 IN 查询；未知性别（无资料 / 未填写）也缓存，避免反复回源。
+ * 修改性别后 evict：当前事务提交后再清一次，防止提交前被并发读回填旧值；
+ * 其他节点由 UserCacheService 的资料失效广播清除（invalidateLocal），广播丢失时依赖 ttl 收敛。
+ */
+@Slf4j
+@Service
+public class GenderService {
+
+    /** 缓存中表示未知性别 */
+    private static final int UNKNOWN = 0;
+
+    @Autowired private UserProfileMapper userProfileMapper;
+
+    @Value("${app.cache.gender.max-size:100000}")
+    private long maxSize;
+
+    @Value("${app.cache.gender.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private Cache<Long, Integer> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    /** 单个用户的性别，未知返回 null */
+    public Integer get(Long userId) {
+        if (userId == null) return null;
+        return getAll(List.of(userId)).get(userId);
+    }
+
+    /** 批量查询，结果只含已知性别的用户（未命中部分一次查询） */
+    public Map<Long, Integer> getAll(Collection<Long> userIds) {
+        if (userIds == null || userIds.isEmpty()) return new HashMap<>();
+        Map<Long, Integer> cached = cache.getAll(new HashSet<>(userIds), this::load);
+        Map<Long, Integer> result = new HashMap<>(cached.size() * 2);
+        for (Map.Entry<Long, Integer> e : cached.entrySet()) {
+            if (e.getValue() != UNKNOWN) result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /** 性别变更后调用（须在写入所在事务内或提交后） */
+    public void evict(Long userId) {
+        cache.invalidate(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidate(userId);
+                }
+            });
+        }
+    }
+
+    /** 只清本节点缓存（资料失效广播） */
+    public void invalidateLocal(Long userId) {
+        cache.invalidate(userId);
+    }
+
+    private Map<Long, Integer> load(Set<? extends Long> userIds) {
+        Map<Long, Integer> loaded = new HashMap<>(userIds.size() * 2);
+        for (Long id : userIds) loaded.put(id, UNKNOWN);
+        for (UserProfile p : userProfileMapper.selectList(new LambdaQueryWrapper<UserProfile>()
+                .select(UserProfile::getUserId, UserProfile::getGender)
+                .in(UserProfile::getUserId, userIds))) {
+            if (p.getGender() != null) loaded.put(p.getUserId(), p.getGender());
+        }
+        log.debug("[性别字典] 回源 {} 人", userIds.size());
+        return loaded;
+    }
+}
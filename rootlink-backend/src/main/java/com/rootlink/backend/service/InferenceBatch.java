@@ -0,0 +1,79 @@
+package com.rootlink.backend.service;
+
+import com.rootlink.backend.entity.UserRelation;
+
+import java.util.*;
+
+/**
+ * 推断结果收集器：一次推断任务内的写入先在内存去重累积，再由
+ * UserRelationMapper#upsertInferred 分批写入（多行 INSERT … ON DUPLICATE KEY UPDATE）
+ *
+ * 同一 (from, to) 以先加入者为准，与逐条写入时「已存在则跳过」的语义一致。
+ * 非线程安全，只在单个推断线程内使用。
+ *
+ * 暂存批次（全量重推）：写入 infer_status=3 并记录 reinfer_job_id，转正前对读方不可见；
+ * 批次记住已写入暂存区的亲属对，供推断过程判断「是否已有关系」（旧推断即将被替换，不算已有）。
+ */
+public class InferenceBatch {
+
+    private final Map<String, UserRelation> pending = new LinkedHashMap<>();
+    private final Long reInferJobId;
+    private final Set<String> staged = new HashSet<>();
+
+    public InferenceBatch() {
+        this.reInferJobId = null;
+    }
+
+    private InferenceBatch(Long reInferJobId) {
+        this.reInferJobId = reInferJobId;
+    }
+
+    /** 全量重推的暂存批次，alreadyStaged 为续跑前已写入暂存区的记录 */
+    public static InferenceBatch staging(Long reInferJobId, Collection<UserRelation> alreadyStaged) {
+        InferenceBatch batch = new InferenceBatch(reInferJobId);
+        for (UserRelation r : alreadyStaged) batch.staged.add(key(r.getUserId(), r.getRelatedUserId()));
+        return batch;
+    }
+
+    public boolean isStaging() {
+        return reInferJobId != null;
+    }
+
+    public Long reInferJobId() {
+        return reInferJobId;
+    }
+
+    /** 暂存批次中是否已有 from → to（待写入或已写入暂存区） */
+    public boolean contains(Long fromUser, Long toUser) {
+        String key = key(fromUser, toUser);
+        return pending.containsKey(key) || staged.contains(key);
+    }
+
+    /** 加入一条推断关系，同一对人已在批次中时返回 false */
+    public boolean add(Long fromUser, Long toUser, String kinship) {
+        String key = key(fromUser, toUser);
+        if (pending.containsKey(key) || staged.contains(key)) return false;
+        UserRelation rel = new UserRelation();
+        rel.setUserId(fromUser);
+        rel.setRelatedUserId(toUser);
+        rel.setRelationDesc(kinship);
+        pending.put(key, rel);
+        return true;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /** 取出全部待写入记录并清空批次 */
+    public List<UserRelation> drain() {
+        List<UserRelation> rows = new ArrayList<>(pending.values());
+        if (isStaging()) staged.addAll(pending.keySet());
+        pending.clear();
+        return rows;
+    }
+
+    private static String key(Long fromUser, Long toUser) {
+        return fromUser + "_" + toUser;
+    }
+}
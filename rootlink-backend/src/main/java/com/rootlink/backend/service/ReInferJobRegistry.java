@@ -0,0 +1,322 @@
+package com.rootlink.backend.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.rootlink.backend.entity.ReInferJob;
+import com.rootlink.backend.mapper.ReInferJobMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 全量重推任务登记：进度推送（内存） + 任务持久化（reinfer_job 表）
+ *
+ * 持久化：任务行记录检查点（已完成的最大手动边 id）、执行节点与心跳，
+ *   节点重启后由其他节点（或自身）接管心跳过期的任务，从检查点继续；
+ *   心跳除检查点外由本节点定时续期（heartbeat-interval-ms），图边重建、单边扩散耗时再长也不会被误接管；
+ *   取消请求写入 cancel_requested，执行方在下一个检查点感知。
+ *
+ * 进度以不可变 Progress 整体替换发布，读方（轮询 / SSE 推送）拿到的永远是一致快照。
+ * 订阅方通过 SseEmitter 接收 progress 事件，任务结束后推送最终状态并关闭连接。
+ *
+ * 内存上界：
+ *   结束（done / error / cancelled）的任务保留 finished-ttl-seconds 后清除；
+ *   登记总数超过 max-jobs 时，先淘汰最早结束的任务。
+ *   运行中的任务数由 reInferExecutor 的线程数 + 队列长度限制。
+ */
+@Slf4j
+@Component
+public class ReInferJobRegistry {
+
+    public static final String RUNNING = "running";
+    public static final String DONE    = "done";
+    public static final String ERROR   = "error";
+    public static final String CANCELLED = "cancelled";
+
+    /** reinfer_job.status */
+    public static final int JOB_RUNNING = 0, JOB_DONE = 1, JOB_FAILED = 2, JOB_CANCELLED = 3;
+
+    /** 任务进度快照 */
+    public record Progress(String jobId, String status, int progress, int total,
+                           String message, Map<String, Object> result, long updatedAt) {
+
+        public boolean finished() {
+            return !RUNNING.equals(status);
+        }
+
+        /** 接口返回格式：{ jobId, status, progress, total, message, result?, updatedAt } */
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new HashMap<>();
+            m.put("jobId", jobId);
+            m.put("status", status);
+            m.put("progress", progress);
+            m.put("total", total);
+            m.put("message", message);
+            if (result != null) m.put("result", result);
+            m.put("updatedAt", updatedAt);
+            return m;
+        }
+    }
+
+    @Autowired private ReInferJobMapper jobMapper;
+
+    @Value("${app.reinfer.heartbeat-timeout-seconds:300}")
+    private long heartbeatTimeoutSeconds;
+
+    @Value("${app.reinfer.finished-ttl-seconds:600}")
+    private long finishedTtlSeconds;
+
+    @Value("${app.reinfer.max-jobs:1000}")
+    private int maxJobs;
+
+    @Value("${app.reinfer.sse-timeout-seconds:600}")
+    private long sseTimeoutSeconds;
+
+    private final Map<String, Progress> jobs = new ConcurrentHashMap<>();
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    /** 本节点正在执行的任务（id → jobId），定时续心跳 */
+    private final Map<Long, String> executing = new ConcurrentHashMap<>();
+
+    /** 本节点标识：主机名 + 进程号 */
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+    /** 当前进度；本节点内存中没有时（任务在其他节点执行或已重启）从任务表还原 */
+    public Progress get(String jobId) {
+        Progress p = jobs.get(jobId);
+        if (p != null) return p;
+        ReInferJob job = load(jobId);
+        return job == null ? null : fromJob(job);
+    }
+
+    // ── 任务持久化 ───────────────────────────────────
+
+    /** 登记新任务，执行节点为本节点 */
+    public ReInferJob create(String jobId, Long originUserId) {
+        ReInferJob job = new ReInferJob();
+        job.setJobId(jobId);
+        job.setOriginUserId(originUserId);
+        job.setStatus(JOB_RUNNING);
+        job.setTotalEdges(0);
+        job.setDoneEdges(0);
+        job.setLastEdgeId(0L);
+        job.setGraphRebuilt(0);
+        job.setOwnerNode(nodeId);
+        job.setHeartbeatTime(LocalDateTime.now());
+        job.setCancelRequested(0);
+        jobMapper.insert(job);
+        return job;
+    }
+
+    public ReInferJob load(String jobId) {
+        return jobMapper.selectOne(new LambdaQueryWrapper<ReInferJob>()
+                .eq(ReInferJob::getJobId, jobId)
+                .last("LIMIT 1"));
+    }
+
+    /** 本节点开始执行任务：此后定时续心跳，直到 detach */
+    public void attach(ReInferJob job) {
+        executing.put(job.getId(), job.getJobId());
+    }
+
+    /** 本节点结束执行（完成 / 失败 / 取消 / 被接管） */
+    public void detach(ReInferJob job) {
+        executing.remove(job.getId());
+    }
+
+    /** 记录手动边总数与 Nebula 重建完成 */
+    public void markPrepared(ReInferJob job, int totalEdges) {
+        ReInferJob patch = new ReInferJob();
+        patch.setId(job.getId());
+        patch.setTotalEdges(totalEdges);
+        patch.setGraphRebuilt(1);
+        patch.setHeartbeatTime(LocalDateTime.now());
+        jobMapper.updateById(patch);
+        job.setTotalEdges(totalEdges);
+        job.setGraphRebuilt(1);
+    }
+
+    /** 推进检查点；返回 false 表示已请求取消或任务已被其他节点接管，应停止执行 */
+    public boolean checkpoint(ReInferJob job, int doneEdges, Long lastEdgeId) {
+        if (jobMapper.checkpoint(job.getId(), nodeId, doneEdges, lastEdgeId) == 0) return false;
+        job.setDoneEdges(doneEdges);
+        job.setLastEdgeId(lastEdgeId);
+        return true;
+    }
+
+    /**
+     * 本节点仍持有且未请求取消时将任务标记为完成，返回是否成功
+     * 须在暂存区转正的事务内调用：行锁持有到提交，期间的取消请求等待后落空
+     */
+    public boolean markDone(ReInferJob job) {
+        return jobMapper.markDone(job.getId(), nodeId) == 1;
+    }
+
+    /** 检查点失败后判断是否为用户取消（否则为被接管） */
+    public boolean isCancelRequested(ReInferJob job) {
+        ReInferJob current = jobMapper.selectById(job.getId());
+        return current != null && current.getCancelRequested() != null && current.getCancelRequested() == 1;
+    }
+
+    /** 结束任务（完成 / 失败 / 已取消） */
+    public void finish(ReInferJob job, int status, String message) {
+        ReInferJob patch = new ReInferJob();
+        patch.setId(job.getId());
+        patch.setStatus(status);
+        patch.setMessage(message != null && message.length() > 255 ? message.substring(0, 255) : message);
+        jobMapper.updateById(patch);
+    }
+
+    /** 请求取消运行中的任务，返回是否成功登记 */
+    public boolean requestCancel(String jobId) {
+        ReInferJob patch = new ReInferJob();
+        patch.setCancelRequested(1);
+        return jobMapper.update(patch, new LambdaQueryWrapper<ReInferJob>()
+                .eq(ReInferJob::getJobId, jobId)
+                .eq(ReInferJob::getStatus, JOB_RUNNING)) > 0;
+    }
+
+    /** 抢占心跳过期的运行中任务（含本节点重启前遗留的任务），返回抢到的任务 */
+    public List<ReInferJob> claimStale() {
+        LocalDateTime staleBefore = LocalDateTime.now().minusSeconds(heartbeatTimeoutSeconds);
+        List<ReInferJob> stale = jobMapper.selectList(new LambdaQueryWrapper<ReInferJob>()
+                .eq(ReInferJob::getStatus, JOB_RUNNING)
+                .lt(ReInferJob::getHeartbeatTime, staleBefore));
+        List<ReInferJob> claimed = new ArrayList<>();
+        for (ReInferJob job : stale) {
+            if (jobMapper.claimStale(job.getId(), nodeId, staleBefore) == 1) {
+                log.info("[全量重推] 接管任务 jobId={} 原节点={} 检查点={}/{}",
+                        job.getJobId(), job.getOwnerNode(), job.getDoneEdges(), job.getTotalEdges());
+                job.setOwnerNode(nodeId);
+                claimed.add(job);
+            }
+        }
+        return claimed;
+    }
+
+    /** 更新运行中 / 失败状态 */
+    public void update(String jobId, String status, int progress, int total, String message) {
+        publish(new Progress(jobId, status, progress, total, message, null, System.currentTimeMillis()));
+    }
+
+    /** 标记完成 */
+    public void complete(String jobId, String message, Map<String, Object> result) {
+        publish(new Progress(jobId, DONE, 100, 100, message,
+                Collections.unmodifiableMap(new HashMap<>(result)), System.currentTimeMillis()));
+    }
+
+    /**
+     * 订阅任务进度：立即推送当前快照，之后每次更新推送一次，任务结束后关闭
+     * 任务不存在时返回 null；任务不在本节点执行时只推送一次任务表中的快照
+     */
+    public SseEmitter subscribe(String jobId) {
+        Progress current = jobs.get(jobId);
+        if (current == null) {
+            ReInferJob job = load(jobId);
+            if (job == null) return null;
+            SseEmitter emitter = new SseEmitter(sseTimeoutSeconds * 1000);
+            Progress snapshot = fromJob(job);
+            send(emitter, snapshot);
+            emitter.complete();
+            return emitter;
+        }
+
+        SseEmitter emitter = new SseEmitter(sseTimeoutSeconds * 1000);
+        List<SseEmitter> list = subscribers.computeIfAbsent(jobId, k -> new CopyOnWriteArrayList<>());
+        list.add(emitter);
+        Runnable remove = () -> list.remove(emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        // 订阅前已发布的最新状态（可能在登记订阅之后又有更新，重复推送无害）
+        send(emitter, jobs.getOrDefault(jobId, current));
+        return emitter;
+    }
+
+    /** 定时续期本节点执行中任务的心跳；续期失败说明任务已结束或已被接管，停止续期 */
+    @Scheduled(fixedDelayString = "${app.reinfer.heartbeat-interval-ms:30000}")
+    public void renewHeartbeats() {
+        for (Map.Entry<Long, String> e : executing.entrySet()) {
+            try {
+                if (jobMapper.heartbeat(e.getKey(), nodeId) == 0) {
+                    executing.remove(e.getKey());
+                    log.warn("[全量重推] 心跳续期失败，任务已结束或已被其他节点接管 jobId={}", e.getValue());
+                }
+            } catch (Exception ex) {
+                log.warn("[全量重推] 心跳续期异常 jobId={}: {}", e.getValue(), ex.getMessage());
+            }
+        }
+    }
+
+    /** 定时清理过期的已结束任务 */
+    @Scheduled(fixedDelayString = "${app.reinfer.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        long expireBefore = System.currentTimeMillis() - finishedTtlSeconds * 1000;
+        int before = jobs.size();
+        jobs.values().removeIf(p -> p.finished() && p.updatedAt() < expireBefore);
+        subscribers.keySet().removeIf(id -> !jobs.containsKey(id));
+        if (jobs.size() < before) log.debug("[全量重推] 清理过期任务 {} 个", before - jobs.size());
+    }
+
+    // ══ 内部实现 ══════════════════════════════════════════
+
+    private static Progress fromJob(ReInferJob job) {
+        int total = job.getTotalEdges() == null ? 0 : job.getTotalEdges();
+        int done  = job.getDoneEdges() == null ? 0 : job.getDoneEdges();
+        String status = switch (job.getStatus()) {
+            case JOB_DONE      -> DONE;
+            case JOB_FAILED    -> ERROR;
+            case JOB_CANCELLED -> CANCELLED;
+            default            -> RUNNING;
+        };
+        int pct = RUNNING.equals(status) ? 40 + (int) (done * 55.0 / Math.max(total, 1)) : 100;
+        String message = job.getMessage() != null ? job.getMessage() : "推断进度 " + done + "/" + total;
+        long updatedAt = job.getUpdateTime() == null ? System.currentTimeMillis()
+                : job.getUpdateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new Progress(job.getJobId(), status, pct, 100, message, null, updatedAt);
+    }
+
+    private void publish(Progress p) {
+        if (!jobs.containsKey(p.jobId())) evictIfFull();
+        jobs.put(p.jobId(), p);
+        List<SseEmitter> list = subscribers.get(p.jobId());
+        if (list == null) return;
+        for (SseEmitter emitter : list) send(emitter, p);
+        if (p.finished()) subscribers.remove(p.jobId());
+    }
+
+    private void send(SseEmitter emitter, Progress p) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(p.toMap(), MediaType.APPLICATION_JSON));
+            if (p.finished()) emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            emitter.completeWithError(e);
+        }
+    }
+
+    /** 登记数达到上限时淘汰最早结束的任务 */
+    private void evictIfFull() {
+        int excess = jobs.size() - maxJobs + 1;
+        if (excess <= 0) return;
+        jobs.values().stream()
+                .filter(Progress::finished)
+                .sorted(Comparator.comparingLong(Progress::updatedAt))
+                .limit(excess)
+                .map(Progress::jobId)
+                .toList()
+                .forEach(jobs::remove);
+    }
+}
@@ -1,28 +1,44 @@
 package com.rootlink.backend.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.rootlink.backend.config.AsyncConfig;
+import com.rootlink.backend.entity.ReInferJob;
 import com.rootlink.backend.entity.User;
-import com.rootlink.backend.entity.UserProfile;
 import com.rootlink.backend.entity.UserRelation;
 import com.rootlink.backend.entity.UserRelationApply;
+import com.rootlink.backend.event.FamilyChangedEvent;
+import com.rootlink.backend.event.GenderChangedEvent;
+import com.rootlink.backend.event.RelationConfirmedEvent;
 import com.rootlink.backend.exception.BusinessException;
 import com.rootlink.backend.mapper.UserMapper;
-import com.rootlink.backend.mapper.UserProfileMapper;
 import com.rootlink.backend.mapper.UserRelationApplyMapper;
 import com.rootlink.backend.mapper.UserRelationMapper;
+import com.rootlink.backend.utils.IncrementalInferenceEngine;
 import com.rootlink.backend.utils.NebulaRelationResolver;
-import com.rootlink.backend.utils.NebulaUtil;
+import com.rootlink.backend.utils.GraphEdge;
+import com.rootlink.backend.utils.GraphStore;
 import com.rootlink.backend.utils.RelationInferenceUtil;
 import com.rootlink.backend.utils.SecurityUtil;
-import com.vesoft.nebula.client.graph.data.PathWrapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /**
@@ -30,14 +46,14 @@ import java.util.stream.Collectors;
  *
  * 架构：
  *   MySQL  → 存储用户、确认关系、申请记录（source of truth）
- *   Nebula → 存储图结构，用于多跳推断
+ *   GraphStore → 存储图结构，用于多跳推断（NebulaGraph；未启用时为进程内图，见 GraphStoreConfig）
  *
  * 流程：
  *   1. 申请 → MySQL 存 apply
- *   2. 同意 → MySQL 存 user_relation（confirmed）+ Nebula 写边
- *   3. 推断 → Nebula FIND ALL PATH → NebulaRelationResolver 解析称谓
+ *   2. 同意 → MySQL 存 user_relation（confirmed）+ 同事务写 graph_outbox，发布 RelationConfirmedEvent
+ *   3. 提交后异步 → 等待 outbox 投递到 Nebula → FIND ALL PATH → NebulaRelationResolver 解析称谓
  *            → MySQL 存 user_relation（infer_status=1 待确认）
- *   4. Nebula 不可用时，自动 fallback 到旧 Java 链式推断逻辑
+ *   4. 图存储均不可用时，自动 fallback 到旧 Java 链式推断逻辑
  */
 @Slf4j
 @Service
@@ -46,11 +62,32 @@ public class RelationService {
     @Autowired private UserMapper userMapper;
     @Autowired private UserRelationMapper relationMapper;
     @Autowired private UserRelationApplyMapper applyMapper;
-    @Autowired private UserProfileMapper userProfileMapper;
     @Autowired private SecurityUtil securityUtil;
     @Autowired private RelationInferenceUtil inferUtil;   // 保留，用于 fallback 及链解析
-    @Autowired private NebulaUtil nebulaUtil;
+    @Autowired private GraphStore graphStore;           // Nebula 或进程内图（见 GraphStoreConfig）
     @Autowired private NebulaRelationResolver nebulaResolver;
+    @Autowired private FamilyGraphIndex graphIndex;
+    @Autowired private IncrementalInferenceEngine inferenceEngine;
+    @Autowired private ApplicationEventPublisher eventPublisher;
+    @Autowired private FamilyLockManager familyLock;
+    @Autowired private ReInferJobRegistry reInferJobs;
+    @Autowired private GenderService genderService;
+    @Autowired private UserCacheService userCache;
+
+    /** 推断结果单条 SQL 最多写入的行数 */
+    private static final int INFER_FLUSH_SIZE = 500;
+
+    /** 最短路径只能解析为「亲属」时，单次推断最多再查 FIND ALL PATH 的目标数 */
+    private static final int ALL_PATH_FALLBACK_LIMIT = 20;
+
+    /** 当前线程正在进行的推断批次 */
+    private final ThreadLocal<InferenceBatch> currentBatch = new ThreadLocal<>();
+    @Lazy @Autowired private RelationService self;   // 经代理调用，使 @Async / @Transactional 生效
+    @Autowired @Qualifier(AsyncConfig.INFERENCE) private Executor inferenceExecutor;
+    @Lazy @Autowired private FamilyReconciler familyReconciler;   // 循环依赖：对账器回调 reconcileFamily
+
+    @Value("${app.reconcile.fill-max-nodes:30}")
+    private int fillMaxNodes;
 
     // ═══════════════════════════════════════════════════
     // 搜索用户
@@ -85,7 +122,7 @@ public class RelationService {
 
     @Transactional(rollbackFor = Exception.class)
     public void applyRelation(Long applicantId, Long targetUserId, String relationChainJson, String reason) {
-        User target = userMapper.selectById(targetUserId);
+        User target = userCache.getUser(targetUserId);
         if (target == null || target.getDeleted() == 1)
             throw new BusinessException(404, "目标用户不存在");
         if (applicantId.equals(targetUserId))
@@ -128,14 +165,15 @@ public class RelationService {
             apply.setApplyStatus(1);
             applyMapper.updateById(apply);
 
-            // 1. MySQL 存双向确认关系
+            // 1. MySQL 存双向确认关系，同事务写 Nebula 边的 outbox 记录
             createBidirectionalRelation(apply);
+            String chainJson = extractChainFromApply(apply);
+            List<String> chain = chainJson != null ? inferUtil.jsonToChain(chainJson) : null;
+            syncToNebula(apply.getApplicantUserId(), apply.getTargetUserId(), chain);
 
-            // 2. Nebula 写边（不影响主流程，异常只记日志）
-            syncToNebula(apply);
-
-            // 3. 异步触发推断（优先 Nebula，fallback Java）
-            triggerInference(apply.getApplicantUserId(), apply.getTargetUserId());
+            // 2. 提交后异步：推断扩散（优先 Nebula，fallback Java）
+            eventPublisher.publishEvent(new RelationConfirmedEvent(
+                    apply.getApplicantUserId(), apply.getTargetUserId(), chain));
 
         } else {
             // ─── 拒绝 ───────────────────────────────────
@@ -145,29 +183,57 @@ public class RelationService {
         }
     }
 
-    /** 同步关系边到 Nebula */
-    private void syncToNebula(UserRelationApply apply) {
-        if (!nebulaUtil.isAvailable()) return;
+    /**
+     * 关系确认事件：事务提交后投递到推断线程池执行，不占用请求线程与数据库连接
+     * fallbackExecution：无事务调用（如确认推断）时发布即执行
+     * 线程池队列满被拒绝、或等待家族锁超时（如全量重推断占锁）时不丢弃：交给 FamilyReconciler 对账时补全推断
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onRelationConfirmed(RelationConfirmedEvent event) {
+        submitInference(() -> inferAfterConfirm(event), () -> {
+            log.warn("[推断] 推断线程池已满，转交家族对账: A={}, B={}", event.userA(), event.userB());
+            familyReconciler.markDirty(event.userA());
+            familyReconciler.markDirty(event.userB());
+        });
+    }
+
+    private void inferAfterConfirm(RelationConfirmedEvent event) {
         try {
-            String chainJson = extractChainFromApply(apply);
-            if (chainJson == null) return;
-            List<String> chain = inferUtil.jsonToChain(chainJson);
-            Integer gA = getGender(apply.getApplicantUserId());
-            Integer gB = getGender(apply.getTargetUserId());
-            nebulaUtil.syncRelationToGraph(chain, apply.getApplicantUserId(),
-                    apply.getTargetUserId(), gA, gB);
-        } catch (Exception e) {
-            log.error("Nebula 同步关系失败（不影响主流程）: {}", e.getMessage());
+            graphStore.flush();   // 推断需读到刚写入的边
+            familyLock.runWithFamilyLock(event.userA(),
+                    () -> runInBatch(() -> triggerInference(event.userA(), event.userB())));
+        } catch (IllegalStateException e) {
+            log.warn("[推断] 家族锁不可用，转交家族对账: A={}, B={}, err={}",
+                    event.userA(), event.userB(), e.getMessage());
+            familyReconciler.markDirty(event.userA());
+            familyReconciler.markDirty(event.userB());
+        } finally {
+            eventPublisher.publishEvent(new FamilyChangedEvent(event.userA(), event.userB()));
         }
     }
 
+    /** 提交到推断线程池；队列满被拒绝时执行 onRejected，不回退到调用线程执行 */
+    private void submitInference(Runnable task, Runnable onRejected) {
+        try {
+            inferenceExecutor.execute(task);
+        } catch (TaskRejectedException e) {
+            onRejected.run();
+        }
+    }
+
+    /** 关系边写入 graph_outbox（须在业务事务内调用，与 user_relation 同时提交 / 回滚；Nebula 熔断期间照常入队） */
+    private void syncToNebula(Long userA, Long userB, List<String> chain) {
+        if (chain == null) return;
+        Map<Long, Integer> genderMap = genderService.getAll(List.of(userA, userB));
+        graphStore.syncRelation(chain, userA, userB, genderMap.get(userA), genderMap.get(userB));
+    }
+
     // ═══════════════════════════════════════════════════
     // 推断核心（Nebula 图遍历 + Java fallback）
     // ═══════════════════════════════════════════════════
 
-    @Async
-    public void triggerInference(Long userA, Long userB) {
-        if (nebulaUtil.isAvailable()) {
+    private void triggerInference(Long userA, Long userB) {
+        if (graphStore.isAvailable()) {
             propagateNewEdge(userA, userB);
         } else {
             triggerInferenceFallback(userA, userB);
@@ -175,20 +241,44 @@ public class RelationService {
     }
 
     /**
-     * 新增边 A-B 后，全网络级推断扩散
+     * 新增边 A-B 后，全网络级推断扩散（增量）
+     * 只推导经过新边的亲属对：X(A侧) …→ A — B →… Y(B侧)，
+     * 一次子图查询 + 内存拼接路径，失败时退回逐节点图遍历
+     */
+    private void propagateNewEdge(Long userA, Long userB) {
+        try {
+            IncrementalInferenceEngine.LocalGraph graph = inferenceEngine.load(userA, userB);
+            Map<Long, Integer> genderMap = batchGetGender(graph.nodes());
+            int saved = 0;
+            for (IncrementalInferenceEngine.Derived d : inferenceEngine.derive(graph, userA, userB, genderMap)) {
+                // 双向都已有关系（手动或已确认推断）则跳过
+                if (hasRelation(d.from(), d.to()) && hasRelation(d.to(), d.from())) continue;
+                boolean ok1 = saveInferredRelation(d.from(), d.to(), d.kinship());
+                boolean ok2 = saveInferredRelation(d.to(), d.from(), d.reverseKinship());
+                if (ok1 || ok2) saved++;
+            }
+            log.info("[增量推断] 完成: A={}, B={}, 共推断 {} 组新关系", userA, userB, saved);
+        } catch (Exception e) {
+            log.warn("[增量推断] 失败，退回邻域遍历: A={}, B={}, err={}", userA, userB, e.getMessage());
+            propagateByNeighborhood(userA, userB);
+        }
+    }
+
+    /**
+     * 【降级】新增边 A-B 后按邻域逐节点扩散
      * 1. A视角：遍历B邻居，推断A与各人关系
      * 2. B视角：遍历A邻居，推断B与各人关系
      * 3. B的已有亲属C视角：推断C与A网络的关系（B-C已存在时A-B新建的扩散）
      * 4. A的已有亲属D视角：推断D与B网络的关系
      */
-    private void propagateNewEdge(Long userA, Long userB) {
+    private void propagateByNeighborhood(Long userA, Long userB) {
         try {
             // 双向推断
             triggerInferenceByGraph(userA, userB);
             triggerInferenceByGraph(userB, userA);
 
             // B 的 2 跳邻居对 A 网络推断
-            Set<Long> bNeighbors = nebulaUtil.findNeighbors(userB, 2);
+            Set<Long> bNeighbors = graphStore.findNeighbors(userB, 2);
             bNeighbors.remove(userA);
             bNeighbors.remove(userB);
             for (Long c : bNeighbors) {
@@ -197,7 +287,7 @@ public class RelationService {
             }
 
             // A 的 2 跳邻居对 B 网络推断
-            Set<Long> aNeighbors = nebulaUtil.findNeighbors(userA, 2);
+            Set<Long> aNeighbors = graphStore.findNeighbors(userA, 2);
             aNeighbors.remove(userA);
             aNeighbors.remove(userB);
             for (Long d : aNeighbors) {
@@ -214,7 +304,8 @@ public class RelationService {
      * 【主逻辑】用 Nebula 图遍历推断 userA 与其他人的关系
      * 1. 以新确认的 userB 为起点，在 Nebula 中找 4 跳以内的所有邻居
      * 2. 排除已有直接关系的节点
-     * 3. 对每个候选节点，FIND ALL PATH，用 NebulaRelationResolver 解析称谓
+     * 3. 对候选节点批量 FIND SHORTEST PATH，用 NebulaRelationResolver 解析称谓；
+     *    最短路径只能解析为「亲属」的候选（至多 ALL_PATH_FALLBACK_LIMIT 个）再查 FIND ALL PATH 重新解析
      * 4. 将推断结果写入 MySQL（infer_status=1 待用户确认）
      */
     private void triggerInferenceByGraph(Long userA, Long userB) {
@@ -222,7 +313,7 @@ public class RelationService {
             log.info("[Nebula推断] 开始: userA={}, userB={}", userA, userB);
 
             // 以 userB 为起点找 4 跳邻居（包含 userA 的亲属网络）
-            Set<Long> candidates = nebulaUtil.findNeighbors(userB, 4);
+            Set<Long> candidates = graphStore.findNeighbors(userB, 4);
             candidates.remove(userA);
             candidates.remove(userB);
             if (candidates.isEmpty()) {
@@ -236,30 +327,36 @@ public class RelationService {
             allIds.add(userB);   // 修复：userB 是路径中间节点，其性别必须在 genderMap 中
             Map<Long, Integer> genderMap = batchGetGender(allIds);
 
-            int saved = 0;
-            for (Long candidateId : candidates) {
-                // 已有关系（手动或已确认推断）则跳过
-                if (hasRelation(userA, candidateId)) continue;
+            // 已有关系（手动或已确认推断）则跳过
+            candidates.removeIf(c -> hasRelation(userA, c));
+            if (candidates.isEmpty()) return;
 
-                // 用 Nebula 找 userA → candidate 的所有路径（最多 4 跳）
-                List<PathWrapper> paths = nebulaUtil.findPaths(userA, candidateId, 4);
-                if (paths.isEmpty()) continue;
+            // 批量最短路径：userA → 各候选，按 50 个一批
+            Map<Long, List<List<GraphEdge>>> forwardPaths = graphStore.findShortestPaths(userA, candidates, 4);
 
-                // 解析为最佳称谓
-                String kinship = nebulaResolver.resolveBest(paths, userA, genderMap);
-                if (kinship == null || "亲属".equals(kinship)) continue;
-
-                // 计算逆向称谓（candidate 称呼 userA）
-                List<PathWrapper> reversePaths = nebulaUtil.findPaths(candidateId, userA, 4);
-                String reverseKinship = nebulaResolver.resolveBest(reversePaths, candidateId, genderMap);
-                if (reverseKinship == null) reverseKinship = "亲属";
+            int saved = 0, fallbacks = 0;
+            for (Long candidateId : candidates) {
+                List<List<GraphEdge>> paths = forwardPaths.get(candidateId);
+                if (paths == null || paths.isEmpty()) continue;
+
+                // 解析为最佳称谓；逆向称谓（candidate 称呼 userA）由同一路径反转得到
+                NebulaRelationResolver.Kinship best = nebulaResolver.resolveBestBoth(paths, userA, genderMap);
+                // 最短路径可能只有称谓表覆盖不到的走法（如经配偶的兄弟姐妹），更长的路径才能解析
+                if ("亲属".equals(best.forward()) && fallbacks < ALL_PATH_FALLBACK_LIMIT) {
+                    fallbacks++;
+                    List<List<GraphEdge>> allPaths = graphStore.findPaths(userA, candidateId, 4);
+                    if (!allPaths.isEmpty()) best = nebulaResolver.resolveBestBoth(allPaths, userA, genderMap);
+                }
+                String kinship = best.forward();
+                if ("亲属".equals(kinship)) continue;
+                String reverseKinship = best.reverse();
 
                 // 写入 MySQL（双向）
                 boolean ok1 = saveInferredRelation(userA, candidateId, kinship);
                 boolean ok2 = saveInferredRelation(candidateId, userA, reverseKinship);
                 if (ok1 || ok2) saved++;
             }
-            log.info("[Nebula推断] 完成: userA={}, 共推断 {} 组新关系", userA, saved);
+            log.info("[Nebula推断] 完成: userA={}, 共推断 {} 组新关系，全路径回退 {} 次", userA, saved, fallbacks);
 
         } catch (Exception e) {
             log.error("[Nebula推断] 异常: userA={}, userB={}", userA, userB, e);
@@ -281,17 +378,25 @@ public class RelationService {
             List<String> chainB2A = b2aRel != null
                     ? inferUtil.jsonToChain(b2aRel.getRelationChain()) : new ArrayList<>();
 
+            // 两侧邻居的性别一次取齐
+            List<UserRelation> bRels = getConfirmedRelations(userB);
+            List<UserRelation> aRels = chainB2A.isEmpty() ? List.of() : getConfirmedRelations(userA);
+            Set<Long> involved = new HashSet<>(List.of(userA, userB));
+            for (UserRelation r : bRels) involved.add(r.getRelatedUserId());
+            for (UserRelation r : aRels) involved.add(r.getRelatedUserId());
+            Map<Long, Integer> genderMap = genderService.getAll(involved);
+
             // A 视角：遍历 B 的关系推断 A-C
-            for (UserRelation bRel : getConfirmedRelations(userB)) {
+            for (UserRelation bRel : bRels) {
                 Long c = bRel.getRelatedUserId();
                 if (c.equals(userA)) continue;
                 List<String> chainB2C = inferUtil.jsonToChain(bRel.getRelationChain());
                 List<String> inferred = inferUtil.inferChain(chainA2B, chainB2C);
                 if (inferred != null && !inferred.isEmpty()) {
-                    Integer genderC = getGender(c);
+                    Integer genderC = genderMap.get(c);
                     List<String> corrected = correctSiblingGender(inferred, genderC);
                     List<String> reversed  = inferUtil.reverseChainWithGender(
-                            corrected, getGender(userA), genderC);
+                            corrected, genderMap.get(userA), genderC);
                     if (!hasRelation(userA, c)) {
                         saveInferredRelation(userA, c, inferUtil.resolveChain(corrected));
                         saveInferredRelation(c, userA, inferUtil.resolveChain(reversed));
@@ -300,16 +405,16 @@ public class RelationService {
             }
             // B 视角：遍历 A 的关系推断 B-X
             if (!chainB2A.isEmpty()) {
-                for (UserRelation aRel : getConfirmedRelations(userA)) {
+                for (UserRelation aRel : aRels) {
                     Long x = aRel.getRelatedUserId();
                     if (x.equals(userB)) continue;
                     List<String> chainA2X = inferUtil.jsonToChain(aRel.getRelationChain());
                     List<String> inferred = inferUtil.inferChain(chainB2A, chainA2X);
                     if (inferred != null && !inferred.isEmpty()) {
-                        Integer genderX = getGender(x);
+                        Integer genderX = genderMap.get(x);
                         List<String> corrected = correctSiblingGender(inferred, genderX);
                         List<String> reversed  = inferUtil.reverseChainWithGender(
-                                corrected, getGender(userB), genderX);
+                                corrected, genderMap.get(userB), genderX);
                         if (!hasRelation(userB, x)) {
                             saveInferredRelation(userB, x, inferUtil.resolveChain(corrected));
                             saveInferredRelation(x, userB, inferUtil.resolveChain(reversed));
@@ -326,20 +431,8 @@ public class RelationService {
     // 全量重推任务进度追踪
     // ═══════════════════════════════════════════════════
 
-    /** 任务进度 Map：jobId → { status, progress, total, message, result } */
-    private final java.util.concurrent.ConcurrentHashMap<String, Map<String,Object>> reInferJobs
-            = new java.util.concurrent.ConcurrentHashMap<>();
-
-    /** 查询重推进度（前端轮询） */
+    /** 查询重推进度（轮询；推荐改用 subscribeReInfer 的 SSE 推送） */
     public Map<String, Object> getReInferStatus(Long userId, String jobId) {
-        Map<String, Object> job = reInferJobs.get(jobId);
-        if (job == null) {
-            Map<String, Object> notFound = new HashMap<>();
-            notFound.put("jobId", jobId);
-            notFound.put("status", "not_found");
-            notFound.put("message", "任务不存在或已过期");
-            return notFound;
-        }
         // 仅任务所有者可查询
         if (!jobId.startsWith(userId + "_")) {
             Map<String, Object> denied = new HashMap<>();
@@ -347,17 +440,27 @@ public class RelationService {
             denied.put("message", "无权查询此任务");
             return denied;
         }
-        return new HashMap<>(job);
+        ReInferJobRegistry.Progress job = reInferJobs.get(jobId);
+        if (job == null) {
+            Map<String, Object> notFound = new HashMap<>();
+            notFound.put("jobId", jobId);
+            notFound.put("status", "not_found");
+            notFound.put("message", "任务不存在或已过期");
+            return notFound;
+        }
+        return job.toMap();
+    }
+
+    /** 订阅重推进度（SSE），任务不存在或已过期时抛 404 */
+    public SseEmitter subscribeReInfer(Long userId, String jobId) {
+        if (!jobId.startsWith(userId + "_")) throw new BusinessException(403, "无权查询此任务");
+        SseEmitter emitter = reInferJobs.subscribe(jobId);
+        if (emitter == null) throw new BusinessException(404, "任务不存在或已过期");
+        return emitter;
     }
 
     private void updateJobStatus(String jobId, String status, int progress, int total, String message) {
-        Map<String, Object> job = reInferJobs.computeIfAbsent(jobId, k -> new HashMap<>());
-        job.put("jobId", jobId);
-        job.put("status", status);
-        job.put("progress", progress);
-        job.put("total", total);
-        job.put("message", message);
-        job.put("updatedAt", System.currentTimeMillis());
+        reInferJobs.update(jobId, status, progress, total, message);
     }
 
     // ═══════════════════════════════════════════════════
@@ -367,168 +470,288 @@ public class RelationService {
     /**
      * 以 originUserId 为起点，BFS 遍历整个可达亲属网络：
      * 1. 收集网络内所有【手动确认】的关系边（infer_status=0, confirmStatus=1）
-     * 2. 删除网络内所有【推断生成】的关系（infer_status=2），避免错误累积
-     * 3. 把所有确认边重新同步到 Nebula（强制刷新 parent_gender / child_gender 属性）
-     * 4. 对网络内每条确认边触发 propagateNewEdge，全量重新推断
+     * 2. 把所有确认边重新同步到 Nebula（强制刷新 parent_gender / child_gender 属性）
+     * 3. 对网络内每条确认边触发 propagateNewEdge，推断结果写入暂存区（infer_status=3）
+     * 4. 全部完成后在一个事务内删除旧推断（infer_status=2）并把暂存区转正，避免错误累积
+     *
+     * 任务持久化在 reinfer_job 表：每完成一条边推进一次检查点，
+     * 节点重启后心跳过期的任务由 resumeStaleReInferJobs 接管续跑；支持取消。
+     * 转正前旧推断始终保留，中途失败或取消不会让家族丢失推断关系。
      *
      * 效果：修复历史错误的性别推断（母子→父子），补全缺失关系，应用到所有可见成员。
+     *
+     * 任务记录与初始进度在提交前同步登记，排队期间即可查询 / 订阅 / 取消；
+     * 重推线程池队列满时任务标记失败，TaskRejectedException 抛给调用方。
      */
-    @Async
-    public void fullReInfer(Long originUserId, String jobId) {
-        log.info("[全量重推] 开始，起点 userId={}, jobId={}", originUserId, jobId);
-        updateJobStatus(jobId, "running", 0, 100, "正在收集亲属网络...");
+    public void startReInfer(Long originUserId, String jobId) {
+        ReInferJob job = reInferJobs.create(jobId, originUserId);
+        reInferJobs.attach(job);   // 排队期间也续心跳，避免被当作遗留任务接管
+        updateJobStatus(jobId, "running", 0, 100, "等待同一家族的其他推断任务完成...");
         try {
-            // ── Step1: BFS 收集可达用户集合 ──────────────────────────
-            Set<Long> visited = new LinkedHashSet<>();
-            Queue<Long> queue = new LinkedList<>();
-            queue.add(originUserId);
-            visited.add(originUserId);
-
-            while (!queue.isEmpty()) {
-                Long uid = queue.poll();
-                LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-                w.eq(UserRelation::getUserId, uid)
-                 .eq(UserRelation::getConfirmStatus, 1)
-                 .eq(UserRelation::getDeleted, 0);
-                for (UserRelation r : relationMapper.selectList(w)) {
-                    if (!visited.contains(r.getRelatedUserId())) {
-                        visited.add(r.getRelatedUserId());
-                        queue.add(r.getRelatedUserId());
-                    }
-                }
+            self.fullReInfer(job);
+        } catch (TaskRejectedException e) {
+            reInferJobs.detach(job);
+            reInferJobs.finish(job, ReInferJobRegistry.JOB_FAILED, "重新推断任务排队已满，请稍后再试");
+            updateJobStatus(jobId, "error", 0, 100, "重新推断任务排队已满，请稍后再试");
+            throw e;
+        }
+    }
+
+    @Async(AsyncConfig.RE_INFER)
+    public void fullReInfer(ReInferJob job) {
+        runReInferJob(job, false);
+    }
+
+    /** 续跑已接管的任务（从检查点继续） */
+    @Async(AsyncConfig.RE_INFER)
+    public void resumeReInfer(ReInferJob job) {
+        updateJobStatus(job.getJobId(), "running", 40, 100, "节点切换，从检查点继续推断...");
+        runReInferJob(job, true);
+    }
+
+    /** 取消运行中的重推任务（在下一个检查点生效） */
+    public void cancelReInfer(Long userId, String jobId) {
+        if (!jobId.startsWith(userId + "_")) throw new BusinessException(403, "无权操作此任务");
+        if (!reInferJobs.requestCancel(jobId)) throw new BusinessException(400, "任务不存在或已结束");
+    }
+
+    /** 定时接管心跳过期的重推任务（节点宕机 / 重启遗留） */
+    @Scheduled(fixedDelayString = "${app.reinfer.resume-interval-ms:60000}", initialDelay = 30000)
+    public void resumeStaleReInferJobs() {
+        for (ReInferJob job : reInferJobs.claimStale()) {
+            try {
+                self.resumeReInfer(job);
+            } catch (TaskRejectedException e) {
+                // 本节点重推队列已满，心跳不再更新，稍后由本节点或其他节点再次接管
+                log.warn("[全量重推] 队列已满，暂缓续跑 jobId={}", job.getJobId());
+            }
+        }
+    }
+
+    private void runReInferJob(ReInferJob job, boolean resumed) {
+        String jobId = job.getJobId();
+        // 等锁、图边重建、单边扩散都可能超过心跳超时，执行期间由登记表定时续心跳
+        reInferJobs.attach(job);
+        try {
+            familyLock.runWithFamilyLock(job.getOriginUserId(), () -> executeReInferJob(job, resumed));
+        } catch (IllegalStateException e) {
+            log.warn("[全量重推] 获取家族锁失败 jobId={}: {}", jobId, e.getMessage());
+            if (!resumed) {
+                reInferJobs.finish(job, ReInferJobRegistry.JOB_FAILED, "家族关系正在更新中，请稍后再试");
+                updateJobStatus(jobId, "error", 0, 100, "家族关系正在更新中，请稍后再试");
             }
+        } finally {
+            reInferJobs.detach(job);
+        }
+    }
+
+    private void executeReInferJob(ReInferJob job, boolean resumed) {
+        String jobId = job.getJobId();
+        Long originUserId = job.getOriginUserId();
+        if (reInferJobs.isCancelRequested(job)) {   // 排队 / 等锁期间已取消
+            stopReInferJob(job);
+            return;
+        }
+        log.info("[全量重推] {}，起点 userId={}, jobId={}, 检查点 edgeId={}",
+                resumed ? "续跑" : "开始", originUserId, jobId, job.getLastEdgeId());
+        updateJobStatus(jobId, "running", 0, 100, "正在收集亲属网络...");
+        try {
+            // ── Step1: 内存索引 BFS 收集可达用户集合 ─────────────────
+            Set<Long> visited = graphIndex.reachable(originUserId);
             log.info("[全量重推] 可达用户 {} 人: {}", visited.size(), visited);
             updateJobStatus(jobId, "running", 10, 100,
                     "发现 " + visited.size() + " 位亲属成员，正在收集确认关系...");
 
-            // ── Step2: 收集手动确认边（infer_status=0，去重） ──────────
+            // ── Step2: 收集手动确认边（infer_status=0，去重，按 id 升序作为检查点顺序） ──
             List<UserRelation> manualEdges = new ArrayList<>();
             Set<String> edgeSeen = new HashSet<>();
-            for (Long uid : visited) {
-                LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-                w.eq(UserRelation::getUserId, uid)
-                 .eq(UserRelation::getInferStatus, 0)
-                 .eq(UserRelation::getConfirmStatus, 1)
-                 .eq(UserRelation::getDeleted, 0);
-                for (UserRelation r : relationMapper.selectList(w)) {
-                    Long a = r.getUserId(), b = r.getRelatedUserId();
-                    String key = Math.min(a, b) + "_" + Math.max(a, b);
-                    if (edgeSeen.add(key)) manualEdges.add(r);
-                }
+            LambdaQueryWrapper<UserRelation> manualW = new LambdaQueryWrapper<>();
+            manualW.in(UserRelation::getUserId, visited)
+                   .eq(UserRelation::getInferStatus, 0)
+                   .eq(UserRelation::getConfirmStatus, 1)
+                   .eq(UserRelation::getDeleted, 0)
+                   .orderByAsc(UserRelation::getId);
+            for (UserRelation r : relationMapper.selectList(manualW)) {
+                Long a = r.getUserId(), b = r.getRelatedUserId();
+                String key = Math.min(a, b) + "_" + Math.max(a, b);
+                if (edgeSeen.add(key)) manualEdges.add(r);
             }
             log.info("[全量重推] 手动确认边 {} 条", manualEdges.size());
             updateJobStatus(jobId, "running", 20, 100,
-                    "找到 " + manualEdges.size() + " 条原始关系，正在清理旧推断...");
-
-            // ── Step3: 清除旧推断关系（infer_status=2 的全部删掉重来） ──
-            int deleted = 0;
-            for (Long uid : visited) {
-                LambdaQueryWrapper<UserRelation> del = new LambdaQueryWrapper<>();
-                del.eq(UserRelation::getUserId, uid)
-                   .eq(UserRelation::getInferStatus, 2)
-                   .in(UserRelation::getRelatedUserId, visited)
-                   .eq(UserRelation::getDeleted, 0);
-                deleted += relationMapper.delete(del);
-            }
-            log.info("[全量重推] 已清除旧推断 {} 条", deleted);
-            updateJobStatus(jobId, "running", 30, 100,
-                    "清除了 " + deleted + " 条旧推断，正在修正性别数据...");
+                    "找到 " + manualEdges.size() + " 条原始关系，正在修正性别数据...");
 
-            // ── Step4: 批量加载全网性别 ──────────────────────────────
+            // ── Step3: 批量加载全网性别 ──────────────────────────────
             Map<Long, Integer> genderMap = batchGetGender(visited);
 
-            // ── Step5: 重建 Nebula 边（强制刷新 gender 属性，解决母子推断成父子问题） ──
-            if (nebulaUtil.isAvailable()) {
+            // ── Step4: 重建图存储的边（强制刷新 gender 属性，解决母子推断成父子问题；续跑时跳过） ──
+            if (job.getGraphRebuilt() == null || job.getGraphRebuilt() == 0) {
                 updateJobStatus(jobId, "running", 35, 100,
                         "正在重建关系图数据库（修正性别属性）...");
-                // 先删除网络内所有边（绕过 IF NOT EXISTS，强制刷新 gender 属性）
-                for (Long uid : visited) {
-                    for (Long other : visited) {
-                        if (!uid.equals(other)) nebulaUtil.removeRelationFromGraph(uid, other);
-                    }
-                }
-                // 重新写入，携带最新 gender
+                // 批量删除网络内所有边再写回（绕过 IF NOT EXISTS，强制刷新 gender 属性）
+                List<GraphStore.RelationSpec> specs = new ArrayList<>();
                 for (UserRelation r : manualEdges) {
                     String chainJson = r.getRelationChain();
                     if (chainJson == null || chainJson.isBlank() || "[]".equals(chainJson)) continue;
-                    List<String> chain = inferUtil.jsonToChain(chainJson);
-                    nebulaUtil.syncRelationToGraph(chain, r.getUserId(), r.getRelatedUserId(),
-                            genderMap.get(r.getUserId()), genderMap.get(r.getRelatedUserId()));
+                    specs.add(new GraphStore.RelationSpec(inferUtil.jsonToChain(chainJson),
+                            r.getUserId(), r.getRelatedUserId(),
+                            genderMap.get(r.getUserId()), genderMap.get(r.getRelatedUserId())));
                 }
-                log.info("[全量重推] Nebula 边重建完成");
+                // 有存储被跳过（Nebula 熔断）时不记 graphRebuilt，任务失败，恢复后重新发起
+                if (!graphStore.rebuildFamilyEdges(visited, specs)) {
+                    throw new IllegalStateException("关系图数据库暂不可用，图边未重建，请稍后重试");
+                }
+                log.info("[全量重推] 图边重建完成");
+                reInferJobs.markPrepared(job, manualEdges.size());
             }
 
-            // ── Step6: 逐条触发推断扩散 ────────────────────────────────
+            // ── Step5: 逐条触发推断扩散，结果写入暂存区，每条边一个检查点 ──
             int total = manualEdges.size();
             int done  = 0;
-            for (UserRelation r : manualEdges) {
-                try {
-                    if (nebulaUtil.isAvailable()) {
-                        propagateNewEdge(r.getUserId(), r.getRelatedUserId());
-                    } else {
-                        triggerInferenceFallback(r.getUserId(), r.getRelatedUserId());
+            long lastEdgeId = job.getLastEdgeId() == null ? 0L : job.getLastEdgeId();
+            InferenceBatch batch = InferenceBatch.staging(job.getId(), selectStaged(job.getId()));
+            currentBatch.set(batch);
+            try {
+                for (UserRelation r : manualEdges) {
+                    done++;
+                    if (r.getId() <= lastEdgeId) continue;
+                    try {
+                        if (graphStore.isAvailable()) {
+                            propagateNewEdge(r.getUserId(), r.getRelatedUserId());
+                        } else {
+                            triggerInferenceFallback(r.getUserId(), r.getRelatedUserId());
+                        }
+                    } catch (Exception ex) {
+                        log.warn("[全量重推] 单边失败 A={} B={}: {}", r.getUserId(), r.getRelatedUserId(), ex.getMessage());
                     }
-                } catch (Exception ex) {
-                    log.warn("[全量重推] 单边失败 A={} B={}: {}", r.getUserId(), r.getRelatedUserId(), ex.getMessage());
+                    flushInferred(batch);
+                    if (!reInferJobs.checkpoint(job, done, r.getId())) {
+                        stopReInferJob(job);
+                        return;
+                    }
+                    int pct = 40 + (int)(done * 55.0 / Math.max(total, 1));
+                    updateJobStatus(jobId, "running", pct, 100,
+                            "推断进度 " + done + "/" + total);
                 }
-                done++;
-                int pct = 40 + (int)(done * 55.0 / Math.max(total, 1));
-                updateJobStatus(jobId, "running", pct, 100,
-                        "推断进度 " + done + "/" + total);
+            } finally {
+                currentBatch.remove();
             }
 
-            // ── Step7: 统计推断结果 ──────────────────────────────────
-            int newInferred = 0;
-            for (Long uid : visited) {
-                LambdaQueryWrapper<UserRelation> cntW = new LambdaQueryWrapper<>();
-                cntW.eq(UserRelation::getUserId, uid)
-                    .eq(UserRelation::getInferStatus, 2)
-                    .in(UserRelation::getRelatedUserId, visited)
-                    .eq(UserRelation::getDeleted, 0);
-                newInferred += relationMapper.selectCount(cntW);
+            // ── Step6: 原子替换：删除旧推断，暂存区转正 ──────────────────
+            int[] swapped = self.swapStagedInferred(job, visited);
+            if (swapped == null) {
+                stopReInferJob(job);
+                return;
             }
 
             Map<String, Object> result = new HashMap<>();
             result.put("networkSize", visited.size());
             result.put("manualEdges", total);
-            result.put("deletedOld", deleted);
-            result.put("newInferred", newInferred);
-
-            Map<String, Object> job = reInferJobs.computeIfAbsent(jobId, k -> new HashMap<>());
-            job.put("jobId", jobId);
-            job.put("status", "done");
-            job.put("progress", 100);
-            job.put("total", 100);
-            job.put("message", String.format("完成！共处理 %d 位成员，%d 条原始关系，新推断 %d 条",
-                    visited.size(), total, newInferred));
-            job.put("result", result);
-            job.put("updatedAt", System.currentTimeMillis());
+            result.put("deletedOld", swapped[0]);
+            result.put("newInferred", swapped[1]);
+
+            String message = String.format("完成！共处理 %d 位成员，%d 条原始关系，新推断 %d 条",
+                    visited.size(), total, swapped[1]);
+            reInferJobs.finish(job, ReInferJobRegistry.JOB_DONE, message);
+            reInferJobs.complete(jobId, message, result);
             log.info("[全量重推] 完成 jobId={} result={}", jobId, result);
 
         } catch (Exception e) {
             log.error("[全量重推] 异常 jobId={}: {}", jobId, e.getMessage(), e);
+            discardStaged(job.getId());
+            reInferJobs.finish(job, ReInferJobRegistry.JOB_FAILED, "推断失败：" + e.getMessage());
             updateJobStatus(jobId, "error", 0, 100, "推断失败：" + e.getMessage());
         }
     }
 
+    /** 检查点推进失败：用户取消则清理暂存区，否则任务已被其他节点接管，本节点直接退出 */
+    private void stopReInferJob(ReInferJob job) {
+        if (reInferJobs.isCancelRequested(job)) {
+            discardStaged(job.getId());
+            reInferJobs.finish(job, ReInferJobRegistry.JOB_CANCELLED, "已取消");
+            updateJobStatus(job.getJobId(), ReInferJobRegistry.CANCELLED, 100, 100, "已取消，原有推断关系保持不变");
+            log.info("[全量重推] 已取消 jobId={}", job.getJobId());
+        } else {
+            log.warn("[全量重推] 任务已被其他节点接管，本节点停止 jobId={}", job.getJobId());
+        }
+    }
+
+    /**
+     * 暂存区转正：删除网络内旧推断（infer_status=2），把本任务暂存的推断（infer_status=3）改为 2
+     * 同一事务内完成，读方要么看到完整的旧推断，要么看到完整的新推断
+     * 事务内先以本节点持有、未请求取消为条件把任务标记完成，不满足时不做任何修改并返回 null
+     * 返回 {删除旧推断数, 转正新推断数}
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int[] swapStagedInferred(ReInferJob job, Set<Long> visited) {
+        if (!reInferJobs.markDone(job)) return null;
+        Long reInferJobId = job.getId();
+
+        LambdaQueryWrapper<UserRelation> del = new LambdaQueryWrapper<>();
+        del.in(UserRelation::getUserId, visited)
+           .eq(UserRelation::getInferStatus, 2)
+           .in(UserRelation::getRelatedUserId, visited)
+           .eq(UserRelation::getDeleted, 0);
+        int deleted = relationMapper.delete(del);
+
+        List<UserRelation> staged = selectStaged(reInferJobId);
+        LambdaUpdateWrapper<UserRelation> promote = new LambdaUpdateWrapper<>();
+        promote.set(UserRelation::getInferStatus, 2)
+               .eq(UserRelation::getReinferJobId, reInferJobId)
+               .eq(UserRelation::getInferStatus, 3);
+        int promoted = relationMapper.update(null, promote);
+
+        graphIndex.onInferredCleared(visited);
+        for (UserRelation r : staged) graphIndex.onSaved(r.getUserId(), r.getRelatedUserId(), 2);
+        log.info("[全量重推] 替换推断：删除旧推断 {} 条，转正 {} 条", deleted, promoted);
+        return new int[]{deleted, promoted};
+    }
+
+    /** 任务暂存区中的推断（仅 user_id / related_user_id） */
+    private List<UserRelation> selectStaged(Long reInferJobId) {
+        LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
+        w.select(UserRelation::getUserId, UserRelation::getRelatedUserId)
+         .eq(UserRelation::getReinferJobId, reInferJobId)
+         .eq(UserRelation::getInferStatus, 3)
+         .eq(UserRelation::getDeleted, 0);
+        return relationMapper.selectList(w);
+    }
+
+    private void discardStaged(Long reInferJobId) {
+        LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
+        w.eq(UserRelation::getReinferJobId, reInferJobId)
+         .eq(UserRelation::getInferStatus, 3);
+        relationMapper.delete(w);
+    }
+
     // ═══════════════════════════════════════════════════
     // 确认 / 拒绝推断关系
     // ═══════════════════════════════════════════════════
 
+    @Transactional(rollbackFor = Exception.class)
     public void confirmInferred(Long userId, Long relationId) {
         UserRelation rel = relationMapper.selectById(relationId);
         if (rel == null || !rel.getUserId().equals(userId)) throw new BusinessException(403, "无权操作");
+        if (rel.getInferStatus() == null || rel.getInferStatus() != 1)
+            throw new BusinessException(400, "该关系不是待确认的推断关系");
+        // 两人之间已有手动关系或已确认推断：待确认记录已被覆盖，直接逻辑删除（升级会与存活记录唯一键冲突）
+        boolean covered = relationMapper.selectCount(new LambdaQueryWrapper<UserRelation>()
+                .eq(UserRelation::getUserId, userId)
+                .eq(UserRelation::getRelatedUserId, rel.getRelatedUserId())
+                .in(UserRelation::getInferStatus, 0, 2)
+                .eq(UserRelation::getDeleted, 0)) > 0;
+        if (covered) {
+            relationMapper.deleteById(relationId);
+            return;
+        }
         rel.setInferStatus(2);
         rel.setConfirmStatus(1);
         rel.setConfirmTime(LocalDateTime.now());
         relationMapper.updateById(rel);
-        // 确认后同步边到 Nebula，并继续扩散推断
-        if (nebulaUtil.isAvailable()) {
-            List<String> chain = inferUtil.jsonToChain(rel.getRelationChain());
-            nebulaUtil.syncRelationToGraph(chain, userId, rel.getRelatedUserId(),
-                    getGender(userId), getGender(rel.getRelatedUserId()));
-        }
-        triggerInference(userId, rel.getRelatedUserId());
+        graphIndex.onSaved(userId, rel.getRelatedUserId(), 2);
+        // 确认后同事务写 Nebula 边的 outbox 记录，提交后继续扩散推断（异步）
+        List<String> chain = inferUtil.jsonToChain(rel.getRelationChain());
+        syncToNebula(userId, rel.getRelatedUserId(), chain);
+        eventPublisher.publishEvent(new RelationConfirmedEvent(userId, rel.getRelatedUserId(), chain));
     }
 
     public void rejectInferred(Long userId, Long relationId) {
@@ -536,6 +759,9 @@ public class RelationService {
         if (rel == null || !rel.getUserId().equals(userId)) throw new BusinessException(403, "无权操作");
         rel.setDeleted(1);
         relationMapper.updateById(rel);
+        if (rel.getConfirmStatus() != null && rel.getConfirmStatus() == 1)
+            graphIndex.onRemoved(userId, rel.getRelatedUserId(), rel.getInferStatus());
+        eventPublisher.publishEvent(new FamilyChangedEvent(userId, rel.getRelatedUserId()));
     }
 
     // ═══════════════════════════════════════════════════
@@ -569,9 +795,12 @@ public class RelationService {
                 .eq(UserRelation::getRelatedUserId, userId))
                 .eq(UserRelation::getInferStatus, 2);  // 只删推断
         relationMapper.delete(inferred);
+        graphIndex.onRemoved(userId, rel.getRelatedUserId(), null);
+        graphIndex.onRemoved(rel.getRelatedUserId(), userId, null);
 
-        // 删 Nebula 边
-        nebulaUtil.removeRelationFromGraph(userId, rel.getRelatedUserId());
+        // 删 Nebula 边（同事务写 outbox，提交后投递）
+        graphStore.removeRelation(userId, rel.getRelatedUserId());
+        eventPublisher.publishEvent(new FamilyChangedEvent(userId, rel.getRelatedUserId()));
         log.info("[解除关系] userId={}, relatedId={}, 删除手动{}条", userId, rel.getRelatedUserId(), manualDeleted);
     }
 
@@ -605,53 +834,47 @@ public class RelationService {
      *   edges：所有已确认关系边（fromUserId, toUserId, relationDesc, inferStatus）
      *
      * 前端凭此数据驱动连线，不再依赖硬编码规则。
+     * 纯读取：僵尸修复与推断补全在关系变更后由 FamilyReconciler 后台执行。
      */
     public Map<String, Object> getRelationNetwork(Long currentUserId) {
-        // ── Step1: BFS 收集可达用户 ──────────────────────
-        Set<Long> visited = new LinkedHashSet<>();
-        Queue<Long> queue = new LinkedList<>();
-        queue.add(currentUserId);
-        visited.add(currentUserId);
-
-        while (!queue.isEmpty()) {
-            Long uid = queue.poll();
+        // ── Step1: 收集可达用户 + Step2: 查所有边（不去重，前端两方向都要用） ──
+        Set<Long> visited;
+        List<UserRelation> networkEdges;
+        if (graphIndex.isEnabled()) {
+            // 内存索引 BFS，再一次批量查询边
+            visited = graphIndex.reachable(currentUserId);
             LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-            w.eq(UserRelation::getUserId, uid)
+            w.in(UserRelation::getUserId, visited)
              .eq(UserRelation::getConfirmStatus, 1)
              .in(UserRelation::getInferStatus, 0, 2)
+             .in(UserRelation::getRelatedUserId, visited)
              .eq(UserRelation::getDeleted, 0);
-            for (UserRelation r : relationMapper.selectList(w)) {
-                if (!visited.contains(r.getRelatedUserId())) {
-                    visited.add(r.getRelatedUserId());
-                    queue.add(r.getRelatedUserId());
-                }
+            networkEdges = relationMapper.selectList(w);
+        } else {
+            // 递归 CTE 一次往返：节点集 = origin ∪ 边端点
+            networkEdges = relationMapper.selectNetworkEdges(currentUserId, FamilyGraphIndex.MAX_WALK_DEPTH);
+            visited = new LinkedHashSet<>();
+            visited.add(currentUserId);
+            for (UserRelation r : networkEdges) {
+                visited.add(r.getUserId());
+                visited.add(r.getRelatedUserId());
             }
         }
 
-        // ── Step2: 查所有边（不去重，前端两方向都要用） ──
         List<Map<String, Object>> edges = new ArrayList<>();
-        for (Long uid : visited) {
-            LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-            w.eq(UserRelation::getUserId, uid)
-             .eq(UserRelation::getConfirmStatus, 1)
-             .in(UserRelation::getInferStatus, 0, 2)
-             .in(UserRelation::getRelatedUserId, visited)
-             .eq(UserRelation::getDeleted, 0);
-            for (UserRelation r : relationMapper.selectList(w)) {
-                Map<String, Object> edge = new HashMap<>();
-                edge.put("fromUserId", uid);
-                edge.put("toUserId", r.getRelatedUserId());
-                edge.put("relationDesc", r.getRelationDesc());
-                edge.put("inferStatus", r.getInferStatus());
-                edges.add(edge);
-            }
+        for (UserRelation r : networkEdges) {
+            Map<String, Object> edge = new HashMap<>();
+            edge.put("fromUserId", r.getUserId());
+            edge.put("toUserId", r.getRelatedUserId());
+            edge.put("relationDesc", r.getRelationDesc());
+            edge.put("inferStatus", r.getInferStatus());
+            edges.add(edge);
         }
 
         // ── Step3: 节点基本信息 ────────────────────────────
         List<Map<String, Object>> nodes = new ArrayList<>();
         if (!visited.isEmpty()) {
-            Map<Long, User> userMap = userMapper.selectBatchIds(visited).stream()
-                    .collect(Collectors.toMap(User::getId, u -> u));
+            Map<Long, User> userMap = userCache.getUsers(visited);
             for (Long uid : visited) {
                 User u = userMap.get(uid);
                 Map<String, Object> node = new HashMap<>();
@@ -666,48 +889,36 @@ public class RelationService {
         Map<String, Object> result = new HashMap<>();
         result.put("nodes", nodes);
         result.put("edges", edges);
-
-        // ── Step4: 修复僵尸推断记录（异步，不阻塞返回） ──
-        fixStaleInferredRelations(currentUserId);
-
-        // ── Step5: 静默自动补全遗漏的推断关系 ──
-        // 仅在网络规模适中时触发（避免大网络每次加载都跑推断）
-        if (visited.size() <= 30 && nebulaUtil.isAvailable()) {
-            autoFillMissingInference(currentUserId, visited);
-        }
-
         return result;
     }
 
     /**
-     * 自动补全遗漏的推断关系
-     * 策略：遍历网络内每条手动确认边，检查其对端节点之间是否已有关系，
-     * 若没有则触发推断（异步，不阻塞接口返回）
+     * 家族对账（FamilyReconciler 在关系变更后调度，每个家族合并执行一次）：
+     *   1. repairStale 时修复僵尸 / 单向推断（全表迁移完成后由调度方关闭）
+     *   2. 网络规模适中时补全遗漏的推断关系（避免大网络每次变更都跑推断）
+     * 家族推断进行中（全量重推 / 新边扩散）时不执行，返回 false 由调度方稍后重试
      */
-    @Async
-    public void autoFillMissingInference(Long originUserId, Set<Long> networkNodes) {
+    public boolean reconcileFamily(Long originUserId, Set<Long> family, boolean repairStale) {
+        return familyLock.tryRunWithFamilyLock(originUserId, () -> {
+            if (repairStale) self.fixStaleInferredRelations(originUserId);   // 经代理开启事务，家族锁可重入
+            if (family.size() <= fillMaxNodes && graphStore.isAvailable())
+                runInBatch(() -> fillMissingInference(originUserId, family));
+        });
+    }
+
+    /**
+     * 补全遗漏的推断关系
+     * 策略：遍历网络内每条手动确认边，检查其对端节点之间是否已有关系，若没有则触发推断
+     */
+    private void fillMissingInference(Long originUserId, Set<Long> networkNodes) {
         try {
-            // 收集手动确认边（去重无方向）
-            Set<String> seenEdges = new HashSet<>();
-            List<Long[]> manualPairs = new ArrayList<>();
-            for (Long uid : networkNodes) {
-                LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-                w.eq(UserRelation::getUserId, uid)
-                 .eq(UserRelation::getInferStatus, 0)   // 仅手动确认边
-                 .eq(UserRelation::getConfirmStatus, 1)
-                 .in(UserRelation::getRelatedUserId, networkNodes)
-                 .eq(UserRelation::getDeleted, 0);
-                for (UserRelation r : relationMapper.selectList(w)) {
-                    Long a = uid, b = r.getRelatedUserId();
-                    String key = Math.min(a, b) + "_" + Math.max(a, b);
-                    if (seenEdges.add(key)) manualPairs.add(new Long[]{a, b});
-                }
-            }
+            // 收集手动确认边（去重无方向，内存索引）
+            List<Long[]> manualPairs = graphIndex.manualEdges(networkNodes);
             // 对每条手动边，检查其邻居对之间是否有遗漏的推断
             for (Long[] pair : manualPairs) {
                 Long a = pair[0], b = pair[1];
                 // A的所有邻居 与 B 之间
-                Set<Long> aNeighbors = nebulaUtil.findNeighbors(a, 1);
+                Set<Long> aNeighbors = graphStore.findNeighbors(a, 1);
                 aNeighbors.remove(b); aNeighbors.remove(a);
                 for (Long c : aNeighbors) {
                     if (!hasRelation(c, b)) {
@@ -716,7 +927,7 @@ public class RelationService {
                     }
                 }
                 // B的所有邻居 与 A 之间
-                Set<Long> bNeighbors = nebulaUtil.findNeighbors(b, 1);
+                Set<Long> bNeighbors = graphStore.findNeighbors(b, 1);
                 bNeighbors.remove(a); bNeighbors.remove(b);
                 for (Long c : bNeighbors) {
                     if (!hasRelation(c, a)) {
@@ -741,8 +952,10 @@ public class RelationService {
         List<UserRelationApply> applies = applyMapper.selectList(w);
         if (applies.isEmpty()) return new ArrayList<>();
         List<Long> ids = applies.stream().map(UserRelationApply::getApplicantUserId).collect(Collectors.toList());
-        Map<Long, User> userMap = userMapper.selectBatchIds(ids).stream()
-                .collect(Collectors.toMap(User::getId, u -> u));
+        Map<Long, User> userMap = userCache.getUsers(ids);
+        Set<Long> genderIds = new HashSet<>(ids);
+        genderIds.add(userId);
+        Map<Long, Integer> genderMap = genderService.getAll(genderIds);
         return applies.stream().map(a -> {
             Map<String, Object> item = new HashMap<>();
             item.put("applyId", a.getId());
@@ -755,8 +968,8 @@ public class RelationService {
                 String chainJson = extractChainFromApply(a);
                 if (chainJson != null) {
                     List<String> fwdChain = inferUtil.jsonToChain(chainJson);
-                    Integer gApplicant = getGender(a.getApplicantUserId());
-                    Integer gTarget = getGender(userId); // userId = 当前用户(target)
+                    Integer gApplicant = genderMap.get(a.getApplicantUserId());
+                    Integer gTarget = genderMap.get(userId); // userId = 当前用户(target)
                     List<String> revChain = inferUtil.reverseChainWithGender(fwdChain, gApplicant, gTarget);
                     String myRoleDesc = inferUtil.resolveChain(revChain);
                     item.put("myRoleDesc", myRoleDesc); // 申请人将成为我的 myRoleDesc
@@ -779,6 +992,115 @@ public class RelationService {
         }).collect(Collectors.toList());
     }
 
+    // ═══════════════════════════════════════════════════
+    // 性别变更传播
+    // ═══════════════════════════════════════════════════
+
+    /**
+     * 用户性别变更（须在资料更新所在事务内调用）
+     * 同事务写 graph_outbox：顶点 gender，以及该用户手动关系对应的 PARENT_OF 边（重写 parent_gender / child_gender）；
+     * 提交后由 onGenderChanged 重算经过该用户的推断称谓，无需全量重推
+     */
+    public void propagateGenderChange(Long userId, Integer gender) {
+        graphStore.updatePersonGender(userId, gender);
+
+        List<UserRelation> manual = relationMapper.selectList(new LambdaQueryWrapper<UserRelation>()
+                .select(UserRelation::getRelatedUserId, UserRelation::getRelationChain)
+                .eq(UserRelation::getUserId, userId)
+                .eq(UserRelation::getInferStatus, 0)
+                .eq(UserRelation::getConfirmStatus, 1)
+                .eq(UserRelation::getDeleted, 0));
+        Map<Long, Integer> genderMap = batchGetGender(
+                manual.stream().map(UserRelation::getRelatedUserId).collect(Collectors.toSet()));
+        int parentEdges = 0;
+        for (UserRelation r : manual) {
+            String chainJson = r.getRelationChain();
+            if (chainJson == null || chainJson.isBlank()) continue;
+            List<String> chain = inferUtil.jsonToChain(chainJson);
+            Long other = r.getRelatedUserId();
+            // 只有 PARENT_OF 携带性别属性，配偶 / 同辈边无需重写
+            boolean parentEdge = GraphEdge.fromChain(chain, userId, other, gender, genderMap.get(other)).stream()
+                    .anyMatch(e -> "PARENT_OF".equals(e.type()));
+            if (!parentEdge) continue;
+            graphStore.syncRelation(chain, userId, other, gender, genderMap.get(other));
+            parentEdges++;
+        }
+        eventPublisher.publishEvent(new GenderChangedEvent(userId));
+        log.info("[性别变更] userId={} gender={}，重写 PARENT_OF 边 {} 条", userId, gender, parentEdges);
+    }
+
+    /**
+     * 性别变更事件：提交后投递到推断线程池执行，持家族锁重算经过该用户的推断称谓
+     * 候选为 hops(X) + hops(Y) ≤ MAX_HOPS 的已确认推断 X→Y；
+     * 其最短路径不经过该用户时称谓与其性别无关，保持不变
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onGenderChanged(GenderChangedEvent event) {
+        submitInference(() -> relabelAfterGenderChange(event), () ->
+                log.warn("[性别变更] 推断线程池已满，跳过称谓重算（可发起全量重推修复）: userId={}", event.userId()));
+    }
+
+    private void relabelAfterGenderChange(GenderChangedEvent event) {
+        if (!graphStore.isAvailable()) {
+            log.warn("[性别变更] 图存储不可用，跳过称谓重算（可发起全量重推修复）: userId={}", event.userId());
+            return;
+        }
+        graphStore.flush();   // 路径解析需读到刚重写的边属性
+        familyLock.runWithFamilyLock(event.userId(), () -> relabelThrough(event.userId()));
+    }
+
+    private void relabelThrough(Long userId) {
+        long start = System.currentTimeMillis();
+        Map<Long, Integer> hops = inferenceEngine.hopsFrom(userId);
+        if (hops.size() <= 1) return;
+
+        List<UserRelation> candidates = relationMapper.selectList(new LambdaQueryWrapper<UserRelation>()
+                .select(UserRelation::getId, UserRelation::getUserId,
+                        UserRelation::getRelatedUserId, UserRelation::getRelationDesc)
+                .in(UserRelation::getUserId, hops.keySet())
+                .in(UserRelation::getRelatedUserId, hops.keySet())
+                .eq(UserRelation::getInferStatus, 2)
+                .eq(UserRelation::getDeleted, 0));
+        candidates.removeIf(r -> hops.get(r.getUserId()) + hops.get(r.getRelatedUserId())
+                > IncrementalInferenceEngine.MAX_HOPS);
+        if (candidates.isEmpty()) return;
+
+        Map<Long, Integer> genderMap = batchGetGender(hops.keySet());
+        List<UserRelation> changed = new ArrayList<>();
+        Map<Long, List<UserRelation>> byViewer = candidates.stream()
+                .collect(Collectors.groupingBy(UserRelation::getUserId));
+        for (Map.Entry<Long, List<UserRelation>> entry : byViewer.entrySet()) {
+            Long viewer = entry.getKey();
+            Set<Long> targets = entry.getValue().stream()
+                    .map(UserRelation::getRelatedUserId).collect(Collectors.toSet());
+            Map<Long, List<List<GraphEdge>>> paths = graphStore.findShortestPaths(
+                    viewer, targets, IncrementalInferenceEngine.MAX_HOPS);
+            for (UserRelation r : entry.getValue()) {
+                List<List<GraphEdge>> ps = paths.get(r.getRelatedUserId());
+                if (ps == null || ps.stream().noneMatch(p -> passesThrough(p, userId))) continue;
+                String kinship = nebulaResolver.resolveBestBoth(ps, viewer, genderMap).forward();
+                if ("亲属".equals(kinship) || kinship.equals(r.getRelationDesc())) continue;
+                r.setRelationDesc(kinship);
+                changed.add(r);
+            }
+        }
+
+        int updated = 0;
+        for (int i = 0; i < changed.size(); i += INFER_FLUSH_SIZE) {
+            updated += relationMapper.updateInferredDesc(
+                    changed.subList(i, Math.min(i + INFER_FLUSH_SIZE, changed.size())));
+        }
+        log.info("[性别变更] userId={} 候选推断 {} 条，改写称谓 {} 条，耗时 {}ms",
+                userId, candidates.size(), updated, System.currentTimeMillis() - start);
+    }
+
+    private static boolean passesThrough(List<GraphEdge> path, Long userId) {
+        for (GraphEdge e : path) {
+            if (e.src() == userId || e.dst() == userId) return true;
+        }
+        return false;
+    }
+
     // ═══════════════════════════════════════════════════
     // 私有辅助方法
     // ═══════════════════════════════════════════════════
@@ -786,8 +1108,10 @@ public class RelationService {
     private void createBidirectionalRelation(UserRelationApply apply) {
         String chainJson = extractChainFromApply(apply);
         List<String> chain = chainJson != null ? inferUtil.jsonToChain(chainJson) : new ArrayList<>();
-        Integer gA = getGender(apply.getApplicantUserId());
-        Integer gB = getGender(apply.getTargetUserId());
+        Map<Long, Integer> genderMap = genderService.getAll(
+                List.of(apply.getApplicantUserId(), apply.getTargetUserId()));
+        Integer gA = genderMap.get(apply.getApplicantUserId());
+        Integer gB = genderMap.get(apply.getTargetUserId());
 
         List<String> correctedChain   = correctChainGender(chain, gA);
         List<String> reverseChain     = inferUtil.reverseChainWithGender(correctedChain, gA, gB);
@@ -804,8 +1128,15 @@ public class RelationService {
             apply.getRelationType(), reverseName,
             inferUtil.chainToJson(reverseChain), 0, 1
         );
-        relationMapper.insert(r1);
-        relationMapper.insert(r2);
+        try {
+            relationMapper.insert(r1);
+            relationMapper.insert(r2);
+        } catch (DuplicateKeyException e) {
+            // 双方互相申请并先后同意时，唯一键 uk_relation_alive 拦截重复的手动关系
+            throw new BusinessException(400, "已存在亲属关系");
+        }
+        graphIndex.onSaved(r1.getUserId(), r1.getRelatedUserId(), 0);
+        graphIndex.onSaved(r2.getUserId(), r2.getRelatedUserId(), 0);
     }
 
     private UserRelation buildRelation(Long userId, Long relatedUserId, Integer relType,
@@ -822,159 +1153,192 @@ public class RelationService {
         return r;
     }
 
-    /** 保存推断关系，返回是否新建成功（已存在返回 false）*/
+    /**
+     * 保存推断关系，返回是否新写入（已存在返回 false）
+     * 处于推断批次内时只入队，由 endBatch 统一 upsert；否则立即写入单条
+     */
     private boolean saveInferredRelation(Long fromUser, Long toUser, String kinship) {
         if (kinship == null || "亲属".equals(kinship)) return false;
 
-        // 优先检查手动确认的关系（inferStatus=0）：有手动关系则绝不用推断覆盖
-        LambdaQueryWrapper<UserRelation> manualCheck = new LambdaQueryWrapper<>();
-        manualCheck.eq(UserRelation::getUserId, fromUser)
-                   .eq(UserRelation::getRelatedUserId, toUser)
-                   .eq(UserRelation::getInferStatus, 0)
-                   .eq(UserRelation::getConfirmStatus, 1)
-                   .eq(UserRelation::getDeleted, 0);
-        if (relationMapper.selectCount(manualCheck) > 0) {
-            log.debug("[推断跳过] 已有手动关系: from={}, to={}", fromUser, toUser);
+        // 已有确认关系：手动关系绝不用推断覆盖，已确认推断不重复写（SQL 中另有手动关系兜底校验）
+        if (hasRelation(fromUser, toUser)) {
+            log.debug("[推断跳过] 已有确认关系: from={}, to={}", fromUser, toUser);
             return false;
         }
 
-        // 检查是否已有推断记录（避免重复插入）
-        LambdaQueryWrapper<UserRelation> inferCheck = new LambdaQueryWrapper<>();
-        inferCheck.eq(UserRelation::getUserId, fromUser)
-                  .eq(UserRelation::getRelatedUserId, toUser)
-                  .eq(UserRelation::getInferStatus, 2)
-                  .eq(UserRelation::getConfirmStatus, 1)
-                  .eq(UserRelation::getDeleted, 0);
-        if (relationMapper.selectCount(inferCheck) > 0) return false;
-
-        // 检查是否存在僵尸推断记录（confirmStatus=0）→ 直接升级，不重复插入
-        LambdaQueryWrapper<UserRelation> zombie = new LambdaQueryWrapper<>();
-        zombie.eq(UserRelation::getUserId, fromUser)
-              .eq(UserRelation::getRelatedUserId, toUser)
-              .eq(UserRelation::getInferStatus, 2)   // 只找推断类型的僵尸
-              .eq(UserRelation::getConfirmStatus, 0)
-              .eq(UserRelation::getDeleted, 0)
-              .last("LIMIT 1");
-        UserRelation existing = relationMapper.selectOne(zombie);
-        if (existing != null) {
-            existing.setInferStatus(2);
-            existing.setConfirmStatus(1);
-            existing.setRelationDesc(kinship);
-            existing.setConfirmTime(LocalDateTime.now());
-            relationMapper.updateById(existing);
-            log.info("[推断] 升级僵尸推断记录: from={}, to={}, kinship={}", fromUser, toUser, kinship);
-            return true;
+        InferenceBatch batch = currentBatch.get();
+        if (batch == null) {
+            batch = new InferenceBatch();
+            batch.add(fromUser, toUser, kinship);
+            return flushInferred(batch) > 0;
         }
-
-        UserRelation rel = new UserRelation();
-        rel.setUserId(fromUser);
-        rel.setRelatedUserId(toUser);
-        rel.setRelationType(99);
-        rel.setRelationDesc(kinship);
-        rel.setRelationChain("[]");
-        rel.setInferStatus(2);
-        rel.setConfirmStatus(1);
-        rel.setConfirmTime(LocalDateTime.now());
-        relationMapper.insert(rel);
-        log.info("[推断] 新增自动确认关系: from={}, to={}, kinship={}", fromUser, toUser, kinship);
+        if (!batch.add(fromUser, toUser, kinship)) return false;
+        if (batch.size() >= INFER_FLUSH_SIZE) flushInferred(batch);
         return true;
     }
 
+    /** 开启推断批次（已在批次内时返回 null，由外层负责写入） */
+    private InferenceBatch beginBatch() {
+        if (currentBatch.get() != null) return null;
+        InferenceBatch batch = new InferenceBatch();
+        currentBatch.set(batch);
+        return batch;
+    }
+
+    /** 结束推断批次并写入剩余记录 */
+    private void endBatch(InferenceBatch batch) {
+        if (batch == null) return;
+        currentBatch.remove();
+        flushInferred(batch);
+    }
+
+    /** 在一个推断批次内执行 work */
+    private void runInBatch(Runnable work) {
+        InferenceBatch batch = beginBatch();
+        try {
+            work.run();
+        } finally {
+            endBatch(batch);
+        }
+    }
+
+    /** 分批 upsert 批次内全部记录，返回影响行数 */
+    private int flushInferred(InferenceBatch batch) {
+        List<UserRelation> rows = batch.drain();
+        int affected = 0;
+        for (int i = 0; i < rows.size(); i += INFER_FLUSH_SIZE) {
+            List<UserRelation> chunk = rows.subList(i, Math.min(i + INFER_FLUSH_SIZE, rows.size()));
+            if (batch.isStaging()) {
+                // 暂存区转正前对读方不可见，不进内存索引
+                affected += relationMapper.upsertInferred(chunk, 3, batch.reInferJobId());
+            } else {
+                affected += relationMapper.upsertInferred(chunk, 2, null);
+                for (UserRelation r : chunk) graphIndex.onSaved(r.getUserId(), r.getRelatedUserId(), 2);
+            }
+        }
+        if (!rows.isEmpty()) log.info("[推断] 批量写入 {} 条推断关系，影响 {} 行", rows.size(), affected);
+        return affected;
+    }
+
+    /**
+     * 是否已有已确认关系（手动或推断），走内存索引
+     * 全量重推暂存期间旧推断即将被替换，只认手动关系与本任务已暂存的推断
+     */
     private boolean hasRelation(Long userId, Long relatedUserId) {
-        LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-        w.eq(UserRelation::getUserId, userId)
-         .eq(UserRelation::getRelatedUserId, relatedUserId)
-         .eq(UserRelation::getConfirmStatus, 1)   // 只算已确认的关系
-         .eq(UserRelation::getDeleted, 0);
-        return relationMapper.selectCount(w) > 0;
+        InferenceBatch batch = currentBatch.get();
+        if (batch != null && batch.isStaging()) {
+            Integer status = graphIndex.inferStatus(userId, relatedUserId);
+            return (status != null && status == 0) || batch.contains(userId, relatedUserId);
+        }
+        return graphIndex.hasEdge(userId, relatedUserId);
     }
 
     /**
      * 修复历史遗留问题：
      * 1. 升级僵尸记录（infer_status=1, confirmStatus=0 → infer_status=2, confirmStatus=1）
      * 2. 补全单向推断（A→B 有但 B→A 没有时，推算 B→A 的称谓并补存）
+     * 逐家族的兜底修复；全表迁移任务（ZombieMigrationJob）完成后家族对账不再调用
      */
     @Transactional(rollbackFor = Exception.class)
     public int fixStaleInferredRelations(Long userId) {
-        // 找当前用户网络内所有僵尸记录
-        Set<Long> networkNodes = new LinkedHashSet<>();
-        networkNodes.add(userId);
-        Queue<Long> q = new LinkedList<>();
-        q.add(userId);
-        while (!q.isEmpty()) {
-            Long uid = q.poll();
-            LambdaQueryWrapper<UserRelation> w = new LambdaQueryWrapper<>();
-            w.eq(UserRelation::getUserId, uid)
-             .eq(UserRelation::getConfirmStatus, 1)
-             .eq(UserRelation::getDeleted, 0);
-            for (UserRelation r : relationMapper.selectList(w)) {
-                if (networkNodes.add(r.getRelatedUserId())) q.add(r.getRelatedUserId());
-            }
-        }
+        // 家族正在推断时跳过，由家族对账稍后重试
+        return familyLock.tryWithFamilyLock(userId, () -> fixStaleInFamily(userId), 0);
+    }
+
+    private int fixStaleInFamily(Long userId) {
+        // 找当前用户网络内所有僵尸记录（内存索引 BFS）
+        Set<Long> networkNodes = graphIndex.reachable(userId);
         if (networkNodes.size() <= 1) return 0;
 
-        // 查找网络内所有僵尸记录（infer_status=1 or confirmStatus=0 的推断记录）
+        // 网络内僵尸记录（infer_status=1, confirmStatus=0）：已有同向确认关系的先逻辑删除，
+        // 其余整体升级，避免与已有记录冲突 uk_relation_alive 导致整个修复回滚
+        List<Long> zombieIds = relationMapper.selectObjs(new LambdaQueryWrapper<UserRelation>()
+                .select(UserRelation::getId)
+                .in(UserRelation::getUserId, networkNodes)
+                .eq(UserRelation::getInferStatus, 1)      // 旧式待确认推断
+                .eq(UserRelation::getConfirmStatus, 0)
+                .eq(UserRelation::getDeleted, 0))
+                .stream().map(o -> ((Number) o).longValue()).toList();
         int fixed = 0;
-        for (Long uid : networkNodes) {
-            LambdaQueryWrapper<UserRelation> stale = new LambdaQueryWrapper<>();
-            stale.eq(UserRelation::getUserId, uid)
-                 .eq(UserRelation::getInferStatus, 1)      // 旧式待确认推断
-                 .eq(UserRelation::getConfirmStatus, 0)
-                 .eq(UserRelation::getDeleted, 0);
-            List<UserRelation> staleList = relationMapper.selectList(stale);
-            for (UserRelation r : staleList) {
-                r.setInferStatus(2);
-                r.setConfirmStatus(1);
-                r.setConfirmTime(LocalDateTime.now());
-                relationMapper.updateById(r);
-                fixed++;
+        if (!zombieIds.isEmpty()) {
+            int dropped = relationMapper.dropShadowedZombies(null, null, networkNodes);
+            fixed = relationMapper.upgradeZombies(null, null, networkNodes);
+            for (UserRelation r : relationMapper.selectList(new LambdaQueryWrapper<UserRelation>()
+                    .select(UserRelation::getUserId, UserRelation::getRelatedUserId)
+                    .in(UserRelation::getId, zombieIds)
+                    .eq(UserRelation::getInferStatus, 2))) {
+                graphIndex.onSaved(r.getUserId(), r.getRelatedUserId(), 2);
             }
+            if (dropped > 0) log.info("[修复僵尸推断] 删除 {} 条与已有确认关系重复的僵尸记录", dropped);
         }
         if (fixed > 0) log.info("[修复僵尸推断] 升级 {} 条僵尸记录为自动确认", fixed);
 
         // ── Step2: 补全单向推断（有A→B但B→A缺失）──────────────────────
-        // 遍历网络内所有已确认推断关系，若反向缺失则推算并补存
+        // 遍历网络内所有已确认推断关系，若反向缺失则推算并补存（网络内性别一次取齐）
+        Map<Long, Integer> genderMap = batchGetGender(networkNodes);
         int fillCount = 0;
-        for (Long uid : networkNodes) {
+        InferenceBatch batch = beginBatch();
+        try {
             LambdaQueryWrapper<UserRelation> inferQuery = new LambdaQueryWrapper<>();
-            inferQuery.eq(UserRelation::getUserId, uid)
-                     .eq(UserRelation::getInferStatus, 2)
-                     .eq(UserRelation::getConfirmStatus, 1)
-                     .eq(UserRelation::getDeleted, 0);
+            inferQuery.in(UserRelation::getUserId, networkNodes)
+                      .eq(UserRelation::getInferStatus, 2)
+                      .eq(UserRelation::getConfirmStatus, 1)
+                      .eq(UserRelation::getDeleted, 0);
             for (UserRelation r : relationMapper.selectList(inferQuery)) {
+                Long uid = r.getUserId();
                 Long otherUid = r.getRelatedUserId();
-                // 检查反向是否存在
-                if (!hasRelation(otherUid, uid)) {
-                    // 推算反向称谓
-                    try {
-                        String fwdDesc = r.getRelationDesc();
-                        String fwdChain = r.getRelationChain();
-                        Integer gUid   = getGender(uid);
-                        Integer gOther = getGender(otherUid);
-                        List<String> chain = inferUtil.jsonToChain(fwdChain);
-                        List<String> revChain = inferUtil.reverseChainWithGender(chain, gUid, gOther);
-                        String revDesc = inferUtil.resolveChain(revChain);
-                        if (revDesc != null && !revDesc.isEmpty() && !"亲属".equals(revDesc)) {
-                            boolean ok = saveInferredRelation(otherUid, uid, revDesc);
-                            if (ok) fillCount++;
-                        } else {
-                            // chain 为空或无法解析，用简单逆向 Map 推算
-                            String guessed = guessReverseDesc(fwdDesc, gUid);
-                            if (guessed != null) {
-                                boolean ok = saveInferredRelation(otherUid, uid, guessed);
-                                if (ok) fillCount++;
-                            }
-                        }
-                    } catch (Exception ex) {
-                        log.warn("[补全推断] 异常: from={}, to={}, err={}", uid, otherUid, ex.getMessage());
-                    }
-                }
+                // 检查反向是否存在，缺失则推算反向称谓并补存
+                if (!hasRelation(otherUid, uid) && saveReverse(r, genderMap.get(uid), genderMap.get(otherUid)))
+                    fillCount++;
             }
+        } finally {
+            endBatch(batch);
         }
         if (fillCount > 0) log.info("[补全推断] 补全单向推断 {} 条", fillCount);
         return fixed + fillCount;
     }
 
+    /**
+     * 为反向缺失的已确认推断批量补存反向推断（僵尸迁移任务按主键区间调用，在调用方事务内写入）
+     * 返回补存条数
+     */
+    public int fillReverseInferred(List<UserRelation> forward) {
+        if (forward.isEmpty()) return 0;
+        Set<Long> users = new HashSet<>();
+        for (UserRelation r : forward) {
+            users.add(r.getUserId());
+            users.add(r.getRelatedUserId());
+        }
+        Map<Long, Integer> genderMap = batchGetGender(users);
+        int[] filled = {0};
+        runInBatch(() -> {
+            for (UserRelation r : forward) {
+                if (saveReverse(r, genderMap.get(r.getUserId()), genderMap.get(r.getRelatedUserId())))
+                    filled[0]++;
+            }
+        });
+        return filled[0];
+    }
+
+    /** 由 A→B 推断推算 B→A 称谓并写入（chain 无法解析时按称谓逆向表推算） */
+    private boolean saveReverse(UserRelation r, Integer gUid, Integer gOther) {
+        Long uid = r.getUserId();
+        Long otherUid = r.getRelatedUserId();
+        try {
+            List<String> chain = inferUtil.jsonToChain(r.getRelationChain());
+            List<String> revChain = inferUtil.reverseChainWithGender(chain, gUid, gOther);
+            String revDesc = inferUtil.resolveChain(revChain);
+            if (revDesc != null && !revDesc.isEmpty() && !"亲属".equals(revDesc))
+                return saveInferredRelation(otherUid, uid, revDesc);
+            // chain 为空或无法解析，用简单逆向 Map 推算
+            String guessed = guessReverseDesc(r.getRelationDesc(), gUid);
+            return guessed != null && saveInferredRelation(otherUid, uid, guessed);
+        } catch (Exception ex) {
+            log.warn("[补全推断] 异常: from={}, to={}, err={}", uid, otherUid, ex.getMessage());
+            return false;
+        }
+    }
+
     /**
      * 简单逆向称谓推算（用于 chain 为空时的降级方案）
      */
@@ -1050,22 +1414,9 @@ public class RelationService {
 
     // ── 性别相关 ──────────────────────────────────────
 
-    private Integer getGender(Long userId) {
-        LambdaQueryWrapper<UserProfile> w = new LambdaQueryWrapper<>();
-        w.eq(UserProfile::getUserId, userId).last("LIMIT 1");
-        UserProfile p = userProfileMapper.selectOne(w);
-        return p != null ? p.getGender() : null;
-    }
-
+    /** 批量性别（只含已知性别的用户，未知按 0 处理） */
     private Map<Long, Integer> batchGetGender(Set<Long> userIds) {
-        if (userIds == null || userIds.isEmpty()) return new HashMap<>();
-        LambdaQueryWrapper<UserProfile> w = new LambdaQueryWrapper<>();
-        w.in(UserProfile::getUserId, userIds);
-        Map<Long, Integer> result = new HashMap<>();
-        for (UserProfile p : userProfileMapper.selectList(w)) {
-            result.put(p.getUserId(), p.getGender() != null ? p.getGender() : 0);
-        }
-        return result;
+        return genderService.getAll(userIds);
     }
 
     // ── 链辅助 ───────────────────────────────────────
@@ -1128,8 +1479,7 @@ public class RelationService {
         List<UserRelation> rels = relationMapper.selectList(w);
         if (rels.isEmpty()) return new ArrayList<>();
         List<Long> ids = rels.stream().map(UserRelation::getRelatedUserId).collect(Collectors.toList());
-        Map<Long, User> userMap = userMapper.selectBatchIds(ids).stream()
-                .collect(Collectors.toMap(User::getId, u -> u));
+        Map<Long, User> userMap = userCache.getUsers(ids);
         return rels.stream().map(r -> {
             Map<String, Object> item = new HashMap<>();
             item.put("relationId", r.getId());
@@ -0,0 +1,320 @@
+package com.rootlink.backend.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rootlink.backend.entity.User;
+import com.rootlink.backend.entity.UserProfile;
+import com.rootlink.backend.mapper.UserMapper;
+import com.rootlink.backend.mapper.UserProfileMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 用户读模型缓存：user / user_profile 两级读穿透缓存（个人资料、亲属资料、关系列表等读接口）
+ *
+ * L1  本地 Caffeine（app.cache.user.local-max-size，写入后 local-ttl-seconds 过期），每节点独立
+ * L2  Redis（rootlink:cache:user:{id} / rootlink:cache:profile:{userId}，JSON，redis-ttl-seconds 过期）
+ * 批量读取：L1 未命中的 id 一次 MGET，仍未命中的一次 IN 查询，回填 Redis 走 pipeline。
+ * 无资料的用户也缓存（空标记），避免反复回源；用户不存在不缓存。
+ *
+ * 缓存的 User 是只读读模型：不含密码、盐值、身份证密文 / 哈希，登录、实名等写路径仍直接查表。
+ *
+ * 失效：写入方调用 evictUser / evictProfile，立即清本地与 Redis，
+ *   当前事务提交后再清一次并广播到 rootlink:cache:user-evict 频道，各节点清除本地缓存
+ *   （资料失效同时清 GenderService 的性别字典）。
+ * 回填防旧值：每个键有版本号（{prefix}ver:{id}），每次清除 Redis 时递增；
+ *   读方在 MGET 时一并取版本号，回源后用 Lua 比对版本未变才写入，
+ *   回源期间有写入方提交（版本已变）时放弃回填，不会把提交前读到的旧值写回 Redis；
+ *   本地缓存同理，回源期间本节点发生过失效则不回填 L1。
+ * Redis 不可用时读路径退化为 L1 + MySQL，不影响业务。
+ */
+@Slf4j
+@Service
+public class UserCacheService {
+
+    private static final String USER_PREFIX = "rootlink:cache:user:";
+    private static final String PROFILE_PREFIX = "rootlink:cache:profile:";
+    private static final String EVICT_CHANNEL = "rootlink:cache:user-evict";
+    private static final String NULL_JSON = "null";
+    private static final String VERSION_SEGMENT = "ver:";
+
+    /** 版本号递增并删除缓存：KEYS[1] 缓存键，KEYS[2] 版本键，ARGV[1] 版本键过期秒数 */
+    private static final DefaultRedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('incr', KEYS[2]) redis.call('expire', KEYS[2], ARGV[1]) return redis.call('del', KEYS[1])",
+            Long.class);
+
+    /** 版本未变才回填：KEYS[1] 缓存键，KEYS[2] 版本键，ARGV[1] 读取时的版本，ARGV[2] 值，ARGV[3] 过期秒数 */
+    private static final String FILL_SCRIPT =
+            "if (redis.call('get', KEYS[2]) or '0') == ARGV[1] then "
+            + "redis.call('setex', KEYS[1], ARGV[3], ARGV[2]) return 1 else return 0 end";
+
+    /** 本地缓存中表示「用户无资料」 */
+    private static final UserProfile NO_PROFILE = new UserProfile();
+
+    @Autowired private UserMapper userMapper;
+    @Autowired private UserProfileMapper userProfileMapper;
+    @Autowired private StringRedisTemplate stringRedisTemplate;
+    @Autowired private RedisMessageListenerContainer listenerContainer;
+    @Autowired private ObjectMapper objectMapper;
+    @Autowired private GenderService genderService;
+
+    @Value("${app.cache.user.local-max-size:10000}")
+    private long localMaxSize;
+
+    @Value("${app.cache.user.local-ttl-seconds:60}")
+    private long localTtlSeconds;
+
+    @Value("${app.cache.user.redis-ttl-seconds:1800}")
+    private long redisTtlSeconds;
+
+    private Cache<Long, User> users;
+    private Cache<Long, UserProfile> profiles;
+
+    /** 本节点本地失效次数：回源期间有失效则回源结果不进 L1 */
+    private final AtomicLong localEvictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        users = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(localTtlSeconds))
+                .build();
+        profiles = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(localTtlSeconds))
+                .build();
+        listenerContainer.addMessageListener(this::onEvictMessage, new ChannelTopic(EVICT_CHANNEL));
+    }
+
+    // ── 读取 ─────────────────────────────────────────
+
+    /** 用户读模型，不存在（含已注销）返回 null */
+    public User getUser(Long userId) {
+        if (userId == null) return null;
+        return getUsers(List.of(userId)).get(userId);
+    }
+
+    /** 批量用户读模型，结果只含存在的用户 */
+    public Map<Long, User> getUsers(Collection<Long> userIds) {
+        return load(userIds, users, USER_PREFIX, User.class, this::queryUsers);
+    }
+
+    /** 用户资料，无资料返回 null */
+    public UserProfile getProfile(Long userId) {
+        if (userId == null) return null;
+        UserProfile p = load(List.of(userId), profiles, PROFILE_PREFIX, UserProfile.class, this::queryProfiles)
+                .get(userId);
+        return p == NO_PROFILE ? null : p;
+    }
+
+    // ── 失效 ─────────────────────────────────────────
+
+    /** user 行修改 / 删除后调用（须在写入所在事务内或提交后） */
+    public void evictUser(Long userId) {
+        evict(USER_PREFIX, userId);
+    }
+
+    /** user_profile 行新增 / 修改 / 删除后调用（须在写入所在事务内或提交后） */
+    public void evictProfile(Long userId) {
+        evict(PROFILE_PREFIX, userId);
+    }
+
+    private void evict(String prefix, Long userId) {
+        evictLocal(prefix, userId);
+        deleteRemote(prefix, userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    // 提交前可能已被并发读回填旧值，提交后再清一次
+                    evictLocal(prefix, userId);
+                    deleteRemote(prefix, userId);
+                    broadcast(prefix, userId);
+                }
+            });
+        } else {
+            broadcast(prefix, userId);
+        }
+    }
+
+    private void evictLocal(String prefix, Long userId) {
+        localEvictions.incrementAndGet();
+        if (USER_PREFIX.equals(prefix)) {
+            users.invalidate(userId);
+        } else {
+            profiles.invalidate(userId);
+            genderService.invalidateLocal(userId);
+        }
+    }
+
+    private void deleteRemote(String prefix, Long userId) {
+        try {
+            // 版本号比缓存多保留一个 TTL，覆盖仍在回源中的读方
+            stringRedisTemplate.execute(INVALIDATE_SCRIPT, List.of(prefix + userId, versionKey(prefix, userId)),
+                    String.valueOf(redisTtlSeconds * 2));
+        } catch (Exception e) {
+            log.warn("[用户缓存] Redis 删除失败（到期自动失效）: key={}{}, err={}", prefix, userId, e.getMessage());
+        }
+    }
+
+    private void broadcast(String prefix, Long userId) {
+        try {
+            stringRedisTemplate.convertAndSend(EVICT_CHANNEL, prefix + userId);
+        } catch (Exception e) {
+            log.warn("[用户缓存] 失效广播失败，其他节点本地缓存 {}s 内过期: key={}{}, err={}",
+                    localTtlSeconds, prefix, userId, e.getMessage());
+        }
+    }
+
+    /** 其他节点（含本节点）的失效广播：只清本地缓存 */
+    private void onEvictMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (key.startsWith(USER_PREFIX)) {
+                evictLocal(USER_PREFIX, Long.valueOf(key.substring(USER_PREFIX.length())));
+            } else if (key.startsWith(PROFILE_PREFIX)) {
+                evictLocal(PROFILE_PREFIX, Long.valueOf(key.substring(PROFILE_PREFIX.length())));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("[用户缓存] 无法识别的失效消息: {}", key);
+        }
+    }
+
+    // ── 读穿透 ───────────────────────────────────────
+
+    /** L1 → Redis MGET → MySQL 批量查询，逐级回填；loader 对不存在的 id 不返回 */
+    private <T> Map<Long, T> load(Collection<Long> ids, Cache<Long, T> local, String prefix, Class<T> type,
+                                  Function<Set<Long>, Map<Long, T>> loader) {
+        Map<Long, T> result = new HashMap<>();
+        if (ids == null || ids.isEmpty()) return result;
+        Set<Long> idSet = new LinkedHashSet<>(ids);
+        idSet.remove(null);
+        result.putAll(local.getAllPresent(idSet));
+
+        List<Long> misses = idSet.stream().filter(id -> !result.containsKey(id)).toList();
+        if (misses.isEmpty()) return result;
+
+        long evictions = localEvictions.get();
+        Set<Long> dbMisses = new LinkedHashSet<>(misses);
+        // 前半为缓存值，后半为版本号；Redis 不可用时为 null，此时不回填
+        List<String> cached = readRemote(prefix, misses);
+        Map<Long, String> versions = new HashMap<>();
+        for (int i = 0; cached != null && i < misses.size(); i++) {
+            String v = cached.get(misses.size() + i);
+            versions.put(misses.get(i), v != null ? v : "0");
+        }
+        for (int i = 0; cached != null && i < misses.size(); i++) {
+            String json = cached.get(i);
+            if (json == null) continue;
+            T value = parse(json, type, PROFILE_PREFIX.equals(prefix));
+            if (value == null) continue;
+            Long id = misses.get(i);
+            local.put(id, value);
+            result.put(id, value);
+            dbMisses.remove(id);
+        }
+        if (dbMisses.isEmpty()) return result;
+
+        Map<Long, T> loaded = loader.apply(dbMisses);
+        if (localEvictions.get() == evictions) local.putAll(loaded);
+        result.putAll(loaded);
+        if (cached != null) writeRemote(prefix, loaded, versions);
+        log.debug("[用户缓存] {} 回源 {} 条", prefix, dbMisses.size());
+        return result;
+    }
+
+    private Map<Long, User> queryUsers(Set<Long> ids) {
+        Map<Long, User> map = new HashMap<>();
+        for (User u : userMapper.selectBatchIds(ids)) {
+            // 读模型不保留凭据字段
+            u.setPassword(null);
+            u.setSalt(null);
+            u.setIdCardEncrypted(null);
+            u.setIdCardHash(null);
+            map.put(u.getId(), u);
+        }
+        return map;
+    }
+
+    private Map<Long, UserProfile> queryProfiles(Set<Long> userIds) {
+        Map<Long, UserProfile> map = new HashMap<>();
+        for (Long id : userIds) map.put(id, NO_PROFILE);
+        for (UserProfile p : userProfileMapper.selectList(new LambdaQueryWrapper<UserProfile>()
+                .in(UserProfile::getUserId, userIds))) {
+            map.put(p.getUserId(), p);
+        }
+        return map;
+    }
+
+    // ── Redis ────────────────────────────────────────
+
+    /** 一次 MGET 取缓存值与版本号：[值 × n, 版本 × n] */
+    private List<String> readRemote(String prefix, List<Long> ids) {
+        List<String> keys = new ArrayList<>(ids.size() * 2);
+        for (Long id : ids) keys.add(prefix + id);
+        for (Long id : ids) keys.add(versionKey(prefix, id));
+        try {
+            return stringRedisTemplate.opsForValue().multiGet(keys);
+        } catch (Exception e) {
+            log.warn("[用户缓存] Redis 读取失败，直接回源: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /** pipeline 回填，每个键比对读取时的版本号，期间被清除过的键不写入 */
+    private <T> void writeRemote(String prefix, Map<Long, T> values, Map<Long, String> versions) {
+        if (values.isEmpty()) return;
+        Map<Long, String> entries = new HashMap<>();
+        try {
+            for (Map.Entry<Long, T> e : values.entrySet()) {
+                entries.put(e.getKey(),
+                        e.getValue() == NO_PROFILE ? NULL_JSON : objectMapper.writeValueAsString(e.getValue()));
+            }
+            String ttl = String.valueOf(redisTtlSeconds);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                entries.forEach((id, v) -> conn.eval(FILL_SCRIPT, ReturnType.INTEGER, 2,
+                        prefix + id, versionKey(prefix, id), versions.getOrDefault(id, "0"), v, ttl));
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("[用户缓存] Redis 回填失败: {}", e.getMessage());
+        }
+    }
+
+    private static String versionKey(String prefix, Long id) {
+        return prefix + VERSION_SEGMENT + id;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T parse(String json, Class<T> type, boolean isProfile) {
+        if (NULL_JSON.equals(json)) return isProfile ? (T) NO_PROFILE : null;
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (Exception e) {
+            log.warn("[用户缓存] 缓存内容无法解析，回源: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -2,12 +2,13 @@ package com.rootlink.backend.service;
 
 import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.rootlink.backend.common.ErrorCode;
 import com.rootlink.backend.exception.BusinessException;
 import com.rootlink.backend.dto.RealNameDTO;
 import com.rootlink.backend.entity.*;
 import com.rootlink.backend.mapper.*;
-import com.rootlink.backend.utils.NebulaUtil;
+import com.rootlink.backend.utils.GraphStore;
 import com.rootlink.backend.utils.SecurityUtil;
 import com.rootlink.backend.vo.UserInfoVO;
 import lombok.extern.slf4j.Slf4j;
@@ -38,10 +39,14 @@ public class UserService {
     @Autowired private DeathStatusLogMapper     deathStatusLogMapper;
     @Autowired private SecurityUtil securityUtil;
     @Autowired private RealNameVerifyService realNameVerifyService;
-    @Autowired(required = false) private NebulaUtil nebulaUtil;
+    @Autowired private FamilyGraphIndex graphIndex;
+    @Autowired private GraphStore graphStore;
+    @Autowired private GenderService genderService;
+    @Autowired private UserCacheService userCache;
+    @Autowired private RelationService relationService;
 
     public UserInfoVO getCurrentUserInfo(Long userId) {
-        User user = userMapper.selectById(userId);
+        User user = userCache.getUser(userId);
         if (user == null) throw new BusinessException(ErrorCode.USER_NOT_FOUND);
         UserInfoVO vo = new UserInfoVO();
         BeanUtil.copyProperties(user, vo);
@@ -50,9 +55,9 @@ public class UserService {
     }
 
     public Map<String, Object> getFullProfile(Long userId) {
-        User user = userMapper.selectById(userId);
+        User user = userCache.getUser(userId);
         if (user == null) throw new BusinessException(ErrorCode.USER_NOT_FOUND);
-        UserProfile profile = queryProfile(userId);
+        UserProfile profile = userCache.getProfile(userId);
         Map<String, Object> result = new HashMap<>();
         result.put("userId", user.getId());
         result.put("uuid", user.getUuid());
@@ -95,6 +100,7 @@ public class UserService {
         // email 已移到 updateDetailProfile 处理
         if (body.containsKey("allowSearch")) user.setAllowSearch(Boolean.parseBoolean(body.get("allowSearch").toString()));
         userMapper.updateById(user);
+        userCache.evictUser(userId);
     }
 
     @Transactional(rollbackFor = Exception.class)
@@ -102,6 +108,7 @@ public class UserService {
         UserProfile profile = queryProfile(userId);
         boolean isNew = profile == null;
         if (isNew) { profile = new UserProfile(); profile.setUserId(userId); }
+        int oldGender = profile.getGender() != null ? profile.getGender() : 0;
         if (body.containsKey("gender")) profile.setGender(intOrNull(body, "gender"));
         if (body.containsKey("nation")) profile.setNation(strOrNull(body, "nation"));
         if (body.containsKey("birthDate")) {
@@ -117,10 +124,12 @@ public class UserService {
         if (body.containsKey("education")) profile.setEducation(strOrNull(body, "education"));
         if (body.containsKey("maritalStatus")) profile.setMaritalStatus(intOrNull(body, "maritalStatus"));
         if (body.containsKey("bio")) profile.setBio(strOrNull(body, "bio"));
-        // email 存在 user 表，但从 profile 接口统一更新
+        // email 存在 user 表，但从 profile 接口统一更新（按主键直接更新单列）
         if (body.containsKey("email")) {
-            User u = userMapper.selectById(userId);
-            if (u != null) { u.setEmail(strOrNull(body, "email")); userMapper.updateById(u); }
+            userMapper.update(null, new LambdaUpdateWrapper<User>()
+                    .set(User::getEmail, strOrNull(body, "email"))
+                    .eq(User::getId, userId));
+            userCache.evictUser(userId);
         }
         if (body.containsKey("province")) profile.setProvince(strOrNull(body, "province"));
         if (body.containsKey("city")) profile.setCity(strOrNull(body, "city"));
@@ -129,6 +138,13 @@ public class UserService {
         if (body.containsKey("avatarUrl")) profile.setAvatarUrl(strOrNull(body, "avatarUrl"));
         if (isNew) userProfileMapper.insert(profile);
         else userProfileMapper.updateById(profile);
+        userCache.evictProfile(userId);
+        if (body.containsKey("gender")) {
+            genderService.evict(userId);
+            // 未知（null / 0）之间的变化不影响称谓
+            int newGender = profile.getGender() != null ? profile.getGender() : 0;
+            if (newGender != oldGender) relationService.propagateGenderChange(userId, profile.getGender());
+        }
     }
 
     @Transactional(rollbackFor = Exception.class)
@@ -144,6 +160,7 @@ public class UserService {
         if (!verified) {
             user.setRealNameStatus(3);
             userMapper.updateById(user);
+            userCache.evictUser(userId);
             throw new BusinessException(ErrorCode.REAL_NAME_VERIFY_FAILED);
         }
         user.setRealName(dto.getRealName());
@@ -152,11 +169,12 @@ public class UserService {
         user.setRealNameStatus(2);
         user.setRealNameTime(LocalDateTime.now());
         userMapper.updateById(user);
+        userCache.evictUser(userId);
         log.info("实名认证成功: userId={}", userId);
     }
 
     public Map<String, Object> getRealNameStatus(Long userId) {
-        User user = userMapper.selectById(userId);
+        User user = userCache.getUser(userId);
         if (user == null) throw new BusinessException(ErrorCode.USER_NOT_FOUND);
         Map<String, Object> r = new HashMap<>();
         r.put("realNameStatus", user.getRealNameStatus());
@@ -275,23 +293,21 @@ public class UserService {
                 new LambdaQueryWrapper<UserRelation>().and(w ->
                         w.eq(UserRelation::getUserId, userId)
                          .or().eq(UserRelation::getRelatedUserId, userId)));
+        graphIndex.onUserRemoved(userId);
 
         // ── 10. UserProfile（硬删，无 deleted 字段）────────────────
         userProfileMapper.delete(
                 new LambdaQueryWrapper<UserProfile>().eq(UserProfile::getUserId, userId));
 
         // ── 11. Nebula 图（删顶点及所有边）────────────────────────
-        try {
-            if (nebulaUtil != null && nebulaUtil.isAvailable()) {
-                nebulaUtil.deletePersonVertex(userId);
-            }
-        } catch (Exception e) {
-            log.warn("[注销] Nebula 删除失败 userId={}: {}", userId, e.getMessage());
-        }
+        // 同事务写 outbox（Nebula 熔断期间照常入队），按序排在该用户此前的变更之后投递
+        graphStore.removePerson(userId);
 
         // ── 12. User（软删）───────────────────────────────────────
         user.setDeleted(1);
         userMapper.updateById(user);
+        userCache.evictUser(userId);
+        userCache.evictProfile(userId);
         log.info("[注销] userId={} realName={} 账号注销完成", userId, user.getRealName());
     }
 
@@ -317,11 +333,11 @@ public class UserService {
     public Map<String, Object> getRelativeProfile(Long currentUserId, Long relativeUserId) {
         if (currentUserId.equals(relativeUserId)) return getFullProfile(currentUserId);
 
-        User user = userMapper.selectById(relativeUserId);
+        User user = userCache.getUser(relativeUserId);
         if (user == null || user.getDeleted() == 1)
             throw new BusinessException(ErrorCode.USER_NOT_FOUND);
 
-        UserProfile profile = queryProfile(relativeUserId);
+        UserProfile profile = userCache.getProfile(relativeUserId);
 
         Map<String, Object> result = new HashMap<>();
         // 基本信息：均可见
@@ -0,0 +1,169 @@
+package com.rootlink.backend.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.rootlink.backend.entity.JobCheckpoint;
+import com.rootlink.backend.entity.UserRelation;
+import com.rootlink.backend.mapper.JobCheckpointMapper;
+import com.rootlink.backend.mapper.UserRelationMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 僵尸推断一次性迁移：全表升级旧式待确认推断（infer_status=1, confirm_status=0）并补全单向推断
+ *
+ * 按主键区间分块扫描 user_relation（app.zombie-migration.chunk-size），每块一个事务：
+ *   1. 水位 CAS 推进（job_checkpoint 行锁，多节点同一块只有一个节点执行）
+ *   2. 已有同向有效确认关系的僵尸记录逻辑删除，其余 UPDATE … WHERE id BETWEEN 整块升级
+ *   3. 反向缺失的已确认推断一次查出，推算反向称谓后批量 upsert
+ * 水位与数据修改同事务提交，中断后从水位续跑；处理到任务开始时的最大主键即完成，
+ * 之后新写入的推断均为已确认状态，不再产生僵尸记录。
+ *
+ * 完成后 FamilyReconciler 关闭逐家族的僵尸修复（RelationService#fixStaleInferredRelations）。
+ */
+@Slf4j
+@Service
+public class ZombieMigrationJob {
+
+    static final String JOB_NAME = "zombie-inferred-v1";
+
+    @Autowired private JobCheckpointMapper checkpointMapper;
+    @Autowired private UserRelationMapper relationMapper;
+    @Autowired private RelationService relationService;
+    @Autowired private FamilyGraphIndex graphIndex;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    @Value("${app.zombie-migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.zombie-migration.chunk-size:5000}")
+    private long chunkSize;
+
+    @Value("${app.zombie-migration.retry-interval-ms:600000}")
+    private long retryIntervalMs;
+
+    private volatile boolean done;
+
+    /** 迁移已完成（本节点或其他节点），逐家族修复可关闭 */
+    public boolean isDone() {
+        return done;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        Thread worker = new Thread(this::runUntilDone, "zombie-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void runUntilDone() {
+        while (!done) {
+            try {
+                migrate();
+            } catch (Exception e) {
+                log.error("[僵尸迁移] 中断，{}ms 后从水位续跑", retryIntervalMs, e);
+                try {
+                    Thread.sleep(retryIntervalMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void migrate() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        JobCheckpoint cp = loadOrCreate();
+        if (cp.getStatus() == 0)
+            log.info("[僵尸迁移] 开始: 水位 {} / {}", cp.getWatermark(), cp.getTargetId());
+
+        long start = System.currentTimeMillis();
+        while (cp.getStatus() == 0) {
+            long expected = cp.getWatermark();
+            long fromId = expected + 1;
+            long toId = Math.min(expected + chunkSize, cp.getTargetId());
+            Integer changed = tx.execute(status -> migrateChunk(expected, fromId, toId));
+            if (changed == null) {
+                // 其他节点已推进水位
+                cp = checkpointMapper.selectById(JOB_NAME);
+                continue;
+            }
+            cp.setWatermark(toId);
+            cp.setProcessed(cp.getProcessed() + changed);
+            if (toId >= cp.getTargetId()) cp.setStatus(1);
+            log.debug("[僵尸迁移] 区间 [{}, {}] 修改 {} 行", fromId, toId, changed);
+        }
+        done = true;
+        log.info("[僵尸迁移] 已完成: 累计修改 {} 行，本次耗时 {}ms",
+                cp.getProcessed(), System.currentTimeMillis() - start);
+    }
+
+    /** 处理一个主键区间，水位已被其他节点推进时返回 null（不做任何修改） */
+    private Integer migrateChunk(long expected, long fromId, long toId) {
+        if (checkpointMapper.advance(JOB_NAME, expected, toId, 0) == 0) return null;
+
+        List<Long> zombieIds = relationMapper.selectObjs(new LambdaQueryWrapper<UserRelation>()
+                .select(UserRelation::getId)
+                .between(UserRelation::getId, fromId, toId)
+                .eq(UserRelation::getInferStatus, 1)
+                .eq(UserRelation::getConfirmStatus, 0))
+                .stream().map(o -> ((Number) o).longValue()).toList();
+
+        int changed = 0;
+        if (!zombieIds.isEmpty()) {
+            changed += relationMapper.dropShadowedZombies(fromId, toId, null);
+            changed += relationMapper.upgradeZombies(fromId, toId, null);
+            for (UserRelation r : relationMapper.selectList(new LambdaQueryWrapper<UserRelation>()
+                    .select(UserRelation::getUserId, UserRelation::getRelatedUserId)
+                    .in(UserRelation::getId, zombieIds)
+                    .eq(UserRelation::getInferStatus, 2))) {
+                graphIndex.onSaved(r.getUserId(), r.getRelatedUserId(), 2);
+            }
+        }
+        changed += relationService.fillReverseInferred(relationMapper.selectMissingReverse(fromId, toId));
+
+        if (changed > 0) {
+            checkpointMapper.update(null, new LambdaUpdateWrapper<JobCheckpoint>()
+                    .setSql("processed = processed + " + changed)
+                    .eq(JobCheckpoint::getJobName, JOB_NAME));
+        }
+        return changed;
+    }
+
+    /** 读取检查点，首次运行时以当前最大主键为终点创建（多节点并发创建时以先写入者为准） */
+    private JobCheckpoint loadOrCreate() {
+        JobCheckpoint cp = checkpointMapper.selectById(JOB_NAME);
+        if (cp != null) return cp;
+
+        List<Map<String, Object>> max = relationMapper.selectMaps(
+                new QueryWrapper<UserRelation>().select("MAX(id) AS max_id"));
+        Object maxId = max.isEmpty() || max.get(0) == null ? null : max.get(0).get("max_id");
+        long target = maxId == null ? 0 : ((Number) maxId).longValue();
+
+        cp = new JobCheckpoint();
+        cp.setJobName(JOB_NAME);
+        cp.setWatermark(0L);
+        cp.setTargetId(target);
+        cp.setStatus(target == 0 ? 1 : 0);
+        cp.setProcessed(0L);
+        try {
+            checkpointMapper.insert(cp);
+            return cp;
+        } catch (DuplicateKeyException e) {
+            return checkpointMapper.selectById(JOB_NAME);
+        }
+    }
+}
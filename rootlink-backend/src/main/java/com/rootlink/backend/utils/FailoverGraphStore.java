@@ -0,0 +1,109 @@
+package com.rootlink.backend.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按 Nebula 熔断状态逐次路由的图存储（由 GraphStoreConfig 创建为 @Primary）
+ *
+ * 遍历：Nebula 可用时走 Nebula，否则走进程内图（embedded 关闭时仍返回 Nebula，isAvailable=false）。
+ * 写入：两边都写。Nebula 侧经 outbox 入队，熔断期间暂存、恢复后续投；
+ *   进程内图的写入只使涉及的家族失效，切换过来时按家族重新加载。
+ */
+@Slf4j
+public class FailoverGraphStore implements GraphStore {
+
+    private final NebulaGraphStore nebula;
+    private final InMemoryGraphStore embedded;
+    private final boolean embeddedEnabled;
+
+    public FailoverGraphStore(NebulaGraphStore nebula, InMemoryGraphStore embedded, boolean embeddedEnabled) {
+        this.nebula = nebula;
+        this.embedded = embedded;
+        this.embeddedEnabled = embeddedEnabled;
+    }
+
+    private GraphStore reader() {
+        return nebula.isAvailable() || !embeddedEnabled ? nebula : embedded;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return reader().isAvailable();
+    }
+
+    // ── 遍历 ─────────────────────────────────────────
+
+    @Override
+    public Set<Long> findNeighbors(Long userId, int maxSteps) {
+        return reader().findNeighbors(userId, maxSteps);
+    }
+
+    @Override
+    public List<List<GraphEdge>> findPaths(Long fromId, Long toId, int maxSteps) {
+        return reader().findPaths(fromId, toId, maxSteps);
+    }
+
+    @Override
+    public Map<Long, List<List<GraphEdge>>> findShortestPaths(Long fromId, Collection<Long> toIds, int maxSteps) {
+        return reader().findShortestPaths(fromId, toIds, maxSteps);
+    }
+
+    @Override
+    public List<GraphEdge> fetchSubgraphEdges(Collection<Long> seeds, int steps) {
+        return reader().fetchSubgraphEdges(seeds, steps);
+    }
+
+    // ── 写入 ─────────────────────────────────────────
+
+    @Override
+    public void insertPerson(Long userId, String name, Integer gender) {
+        nebula.insertPerson(userId, name, gender);
+        if (embeddedEnabled) embedded.insertPerson(userId, name, gender);
+    }
+
+    @Override
+    public void updatePersonGender(Long userId, Integer gender) {
+        nebula.updatePersonGender(userId, gender);
+        if (embeddedEnabled) embedded.updatePersonGender(userId, gender);
+    }
+
+    @Override
+    public void removePerson(Long userId) {
+        nebula.removePerson(userId);
+        if (embeddedEnabled) embedded.removePerson(userId);
+    }
+
+    @Override
+    public void syncRelation(List<String> chain, Long userAId, Long userBId, Integer userAGender, Integer userBGender) {
+        nebula.syncRelation(chain, userAId, userBId, userAGender, userBGender);
+        if (embeddedEnabled) embedded.syncRelation(chain, userAId, userBId, userAGender, userBGender);
+    }
+
+    @Override
+    public void removeRelation(Long aId, Long bId) {
+        nebula.removeRelation(aId, bId);
+        if (embeddedEnabled) embedded.removeRelation(aId, bId);
+    }
+
+    /**
+     * 立即生效的重建无法经 outbox 暂存：Nebula 熔断时仍重建进程内图，但返回 false，
+     * 由调用方保留「未重建」状态，待 Nebula 恢复后重试
+     */
+    @Override
+    public boolean rebuildFamilyEdges(Collection<Long> members, List<RelationSpec> relations) {
+        boolean rebuilt = nebula.rebuildFamilyEdges(members, relations);
+        if (!rebuilt) log.warn("[图存储] Nebula 不可用，跳过 Nebula 家族边重建（成员 {} 人）", members.size());
+        if (embeddedEnabled) embedded.rebuildFamilyEdges(members, relations);
+        return rebuilt;
+    }
+
+    @Override
+    public boolean flush() {
+        return reader().flush();
+    }
+}
@@ -0,0 +1,115 @@
+package com.rootlink.backend.utils;
+
+import com.vesoft.nebula.client.graph.data.PathWrapper;
+import com.vesoft.nebula.client.graph.data.Relationship;
+import com.vesoft.nebula.client.graph.data.ValueWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 图中的一条亲属边（与 Nebula 客户端对象解耦，便于在内存中组合路径）
+ *
+ * type：PARENT_OF / SPOUSE_OF / SIBLING_OF
+ * PARENT_OF  ：src=父/母，dst=子/女，带 parentGender / childGender
+ * SIBLING_OF ：seniority 1=src比dst年长，2=src比dst年幼，0=未知
+ */
+public record GraphEdge(String type, long src, long dst,
+                        int parentGender, int childGender, int seniority) {
+
+    /** 从 Nebula Relationship 转换，属性缺失时取 0 */
+    public static GraphEdge of(Relationship rel) {
+        int pg = 0, cg = 0, sen = 0;
+        try {
+            Map<String, ValueWrapper> props = rel.properties();
+            pg  = intProp(props, "parent_gender");
+            cg  = intProp(props, "child_gender");
+            sen = intProp(props, "seniority");
+        } catch (Exception ignored) {}
+        return new GraphEdge(rel.edgeName(), rel.srcId().asLong(), rel.dstId().asLong(), pg, cg, sen);
+    }
+
+    /** Nebula 路径转为首尾相接的边序列 */
+    public static List<GraphEdge> pathOf(PathWrapper path) {
+        List<GraphEdge> edges = new ArrayList<>();
+        for (Relationship rel : path.getRelationships()) edges.add(of(rel));
+        return edges;
+    }
+
+    /**
+     * 已确认关系对应的图边，chain 为 A 视角（A 称呼 B），首元素决定边类型与方向：
+     *   ["父"] / ["母"]   → B 是 A 的父母 → B PARENT_OF A
+     *   ["子"] / ["女"]   → B 是 A 的子女 → A PARENT_OF B
+     *   ["配偶"]          → 双向 SPOUSE_OF
+     *   ["哥"] … ["妹"]   → 双向 SIBLING_OF（兼容旧格式 ["同辈", …, "哥"]）
+     * 无法识别时返回空列表
+     */
+    public static List<GraphEdge> fromChain(List<String> chain, long userAId, long userBId,
+                                            Integer userAGender, Integer userBGender) {
+        if (chain == null || chain.isEmpty()) return List.of();
+        String first = chain.get(0);
+        int gA = userAGender != null ? userAGender : 0;
+        int gB = userBGender != null ? userBGender : 0;
+
+        if ("父".equals(first) || "母".equals(first)) {
+            // B 是 A 的父/母 → B PARENT_OF A（B是父母，src=B, dst=A）
+            return List.of(new GraphEdge("PARENT_OF", userBId, userAId, gB, gA, 0));
+
+        } else if ("子".equals(first) || "女".equals(first)) {
+            // B 是 A 的子/女 → A PARENT_OF B（A是父母，src=A, dst=B）
+            return List.of(new GraphEdge("PARENT_OF", userAId, userBId, gA, gB, 0));
+
+        } else if ("配偶".equals(first)) {
+            return List.of(
+                new GraphEdge("SPOUSE_OF", userAId, userBId, 0, 0, 0),
+                new GraphEdge("SPOUSE_OF", userBId, userAId, 0, 0, 0));
+
+        } else if ("哥".equals(first) || "姐".equals(first)) {
+            // B 是 A 的哥/姐（B比A年长）
+            // A->B: A是年幼的(seniority=2), B->A: B是年长的(seniority=1)
+            return siblings(userAId, userBId, 2, 1);
+
+        } else if ("弟".equals(first) || "妹".equals(first)) {
+            // B 是 A 的弟/妹（A比B年长）
+            // A->B: A是年长的(seniority=1), B->A: B是年幼的(seniority=2)
+            return siblings(userAId, userBId, 1, 2);
+
+        } else if ("同辈".equals(first)) {
+            // 兼容旧的"同辈"前缀格式，从chain[2]判断B的辈分
+            String senType = chain.size() >= 3 ? chain.get(2) : "";
+            if ("哥".equals(senType) || "姐".equals(senType)) return siblings(userAId, userBId, 2, 1);
+            if ("弟".equals(senType) || "妹".equals(senType)) return siblings(userAId, userBId, 1, 2);
+            return siblings(userAId, userBId, 0, 0);
+        }
+        return List.of();
+    }
+
+    private static List<GraphEdge> siblings(long userAId, long userBId, int seniorityAB, int seniorityBA) {
+        return List.of(
+            new GraphEdge("SIBLING_OF", userAId, userBId, 0, 0, seniorityAB),
+            new GraphEdge("SIBLING_OF", userBId, userAId, 0, 0, seniorityBA));
+    }
+
+    /** 有向键：同类型同方向的边在图中只有一条（写入时覆盖） */
+    public String key() {
+        return type + ":" + src + "->" + dst;
+    }
+
+    /** 边的另一端；node 不在边上时返回 -1 */
+    public long other(long node) {
+        return node == src ? dst : (node == dst ? src : -1);
+    }
+
+    /**
+     * 无方向去重键：SPOUSE_OF / SIBLING_OF 在图中双向各存一条，视为同一条边
+     */
+    public String undirectedKey() {
+        return type + ":" + Math.min(src, dst) + "-" + Math.max(src, dst);
+    }
+
+    private static int intProp(Map<String, ValueWrapper> props, String name) {
+        ValueWrapper v = props.get(name);
+        return v == null || v.isNull() ? 0 : (int) v.asLong();
+    }
+}
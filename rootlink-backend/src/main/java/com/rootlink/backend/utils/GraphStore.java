@@ -0,0 +1,69 @@
+package com.rootlink.backend.utils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 亲属图存储：推断所需的图遍历与图写入
+ *
+ * 实现：
+ *   NebulaGraphStore    NebulaGraph（写入经 graph_outbox 投递）
+ *   InMemoryGraphStore  进程内邻接图（成员取自 FamilyGraphIndex，按家族从 user_relation 加载），nebula 未启用 / 不可用时使用
+ * 由 GraphStoreConfig 组合为 FailoverGraphStore（@Primary），按 Nebula 熔断状态逐次路由。
+ *
+ * 边语义与 Nebula Schema 一致（见 GraphEdge）：SPOUSE_OF / SIBLING_OF 双向各存一条。
+ * 写入方法须在业务事务内调用，事务提交后生效、回滚后撤销。
+ */
+public interface GraphStore {
+
+    /** 一条待写入的已确认关系（chain 为 A 视角） */
+    record RelationSpec(List<String> chain, Long userAId, Long userBId,
+                        Integer userAGender, Integer userBGender) {}
+
+    boolean isAvailable();
+
+    // ── 遍历 ─────────────────────────────────────────
+
+    /** maxSteps 跳以内的邻居（双向，不含自身） */
+    Set<Long> findNeighbors(Long userId, int maxSteps);
+
+    /** fromId 到 toId 的全部路径（最多 maxSteps 跳），每条路径为从 fromId 出发首尾相接的边序列 */
+    List<List<GraphEdge>> findPaths(Long fromId, Long toId, int maxSteps);
+
+    /** fromId 到各目标的最短路径（最多 maxSteps 跳），按目标分组；不可达的目标不在结果中 */
+    Map<Long, List<List<GraphEdge>>> findShortestPaths(Long fromId, Collection<Long> toIds, int maxSteps);
+
+    /**
+     * seeds 周围 steps 跳以内的子图边，双向存储的边按无方向去重
+     * 保证包含从 seeds 出发、长度 ≤ steps 的全部简单路径上的边；
+     * 两端与 seeds 的距离都恰为 steps 的边可能缺失（GET SUBGRAPH 语义），调用方不得依赖
+     */
+    List<GraphEdge> fetchSubgraphEdges(Collection<Long> seeds, int steps);
+
+    // ── 写入 ─────────────────────────────────────────
+
+    void insertPerson(Long userId, String name, Integer gender);
+
+    /** 更新顶点性别（关联 PARENT_OF 边的性别属性由调用方经 syncRelation 重写） */
+    void updatePersonGender(Long userId, Integer gender);
+
+    /** 删除顶点及其所有边（账号注销） */
+    void removePerson(Long userId);
+
+    /** 已确认关系写边（chain 为 A 视角） */
+    void syncRelation(List<String> chain, Long userAId, Long userBId, Integer userAGender, Integer userBGender);
+
+    /** 删除两人之间所有类型的边 */
+    void removeRelation(Long aId, Long bId);
+
+    /**
+     * 重建 members 之间的全部边为 relations（全量重推用，立即生效，失败抛异常）
+     * 返回 false 表示有已启用的存储被跳过（如 Nebula 熔断），调用方不得视为重建完成
+     */
+    boolean rebuildFamilyEdges(Collection<Long> members, List<RelationSpec> relations);
+
+    /** 等待此前提交的写入对遍历可见，超时返回 false */
+    boolean flush();
+}
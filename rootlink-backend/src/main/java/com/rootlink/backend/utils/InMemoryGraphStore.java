@@ -0,0 +1,345 @@
+package com.rootlink.backend.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rootlink.backend.entity.UserProfile;
+import com.rootlink.backend.entity.UserRelation;
+import com.rootlink.backend.mapper.UserProfileMapper;
+import com.rootlink.backend.mapper.UserRelationMapper;
+import com.rootlink.backend.service.FamilyGraphIndex;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内图存储：NebulaGraph 未启用时提供同等的多跳遍历（单节点部署 / 本地开发）
+ *
+ * 不单独整表加载：家族成员取自 FamilyGraphIndex（可达网络），按家族惰性加载带类型的边，
+ *   家族内手动确认的关系（infer_status=0）按 relation_chain 转为 Nebula 同构的边
+ *   （GraphEdge.fromChain），PARENT_OF 携带 user_profile 中的性别。
+ *   每个家族一份不可变快照，登记在每个成员名下（app.graph-store.embedded.max-members 个成员为上限）。
+ *
+ * 边：每条边同时登记在两端。SPOUSE_OF / SIBLING_OF 在库中双向各一条，这里按无方向键只保留一条
+ *   （与 NebulaUtil.fetchSubgraphEdges 的去重一致），遍历不会因为同一对人的两条边产生重复路径。
+ *
+ * 维护方式：
+ *   1. 写入方法在所在事务提交后使涉及的家族失效（无事务时立即失效），回滚则不影响
+ *   2. 失效后下次访问重新加载；加载期间发生失效的结果不入缓存，避免回填旧快照
+ *   3. 超过 app.graph-store.embedded.refresh-seconds 后自动过期，兜底多实例部署时其他节点的写入
+ */
+@Slf4j
+@Component
+public class InMemoryGraphStore implements GraphStore {
+
+    /** 最短路径每个目标最多返回的路径数 */
+    private static final int MAX_PATHS_PER_TARGET = 32;
+
+    /** 全部路径查询的路径数上限 */
+    private static final int MAX_ALL_PATHS = 1000;
+
+    /** 家族快照：成员集合 + 成员 → { 边键 → 边 } */
+    private record Family(Set<Long> members, Map<Long, Map<String, GraphEdge>> adjacency) {}
+
+    @Autowired private FamilyGraphIndex graphIndex;
+    @Autowired private UserRelationMapper relationMapper;
+    @Autowired private UserProfileMapper userProfileMapper;
+    @Autowired private RelationInferenceUtil inferUtil;
+
+    @Value("${app.graph-store.embedded.refresh-seconds:300}")
+    private long refreshSeconds;
+
+    @Value("${app.graph-store.embedded.max-members:100000}")
+    private long maxMembers;
+
+    /** 成员 userId → 所在家族快照 */
+    private Cache<Long, Family> families;
+
+    /** 失效计数：加载开始后有失效发生，则加载结果不入缓存 */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maxMembers);
+        if (refreshSeconds > 0) builder.expireAfterWrite(Duration.ofSeconds(refreshSeconds));
+        families = builder.build();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    // ═══════════════════════════════════════════════════
+    // 遍历
+    // ═══════════════════════════════════════════════════
+
+    @Override
+    public Set<Long> findNeighbors(Long userId, int maxSteps) {
+        Set<Long> result = new HashSet<>(bfs(List.of(userId), maxSteps).keySet());
+        result.remove(userId);
+        return result;
+    }
+
+    @Override
+    public List<List<GraphEdge>> findPaths(Long fromId, Long toId, int maxSteps) {
+        List<List<GraphEdge>> paths = new ArrayList<>();
+        Set<Long> onPath = new HashSet<>();
+        onPath.add(fromId);
+        allPaths(fromId, toId, maxSteps, new ArrayDeque<>(), onPath, paths);
+        return paths;
+    }
+
+    /**
+     * 一次 BFS 同时求到全部目标的最短路径：逐层扩展并记录每个节点的全部前驱边，
+     * 目标全部到达或达到 maxSteps 后停止，再从各目标沿前驱回溯出所有最短路径
+     */
+    @Override
+    public Map<Long, List<List<GraphEdge>>> findShortestPaths(Long fromId, Collection<Long> toIds, int maxSteps) {
+        Map<Long, List<List<GraphEdge>>> grouped = new HashMap<>();
+        Set<Long> remaining = new HashSet<>(toIds);
+        remaining.remove(fromId);
+        if (remaining.isEmpty()) return grouped;
+
+        Map<Long, Integer> depth = new HashMap<>();
+        Map<Long, List<GraphEdge>> preds = new HashMap<>();
+        depth.put(fromId, 0);
+        List<Long> frontier = List.of(fromId);
+        for (int d = 1; d <= maxSteps && !frontier.isEmpty() && !remaining.isEmpty(); d++) {
+            List<Long> next = new ArrayList<>();
+            for (Long node : frontier) {
+                for (GraphEdge e : edgesOf(node)) {
+                    Long other = e.other(node);
+                    Integer seen = depth.get(other);
+                    if (seen == null) {
+                        depth.put(other, d);
+                        next.add(other);
+                    } else if (seen != d) {
+                        continue;
+                    }
+                    preds.computeIfAbsent(other, k -> new ArrayList<>()).add(e);
+                }
+            }
+            remaining.removeAll(next);
+            frontier = next;
+        }
+
+        for (Long target : toIds) {
+            if (target.equals(fromId) || !depth.containsKey(target)) continue;
+            List<List<GraphEdge>> paths = new ArrayList<>();
+            backtrack(preds, fromId, target, new ArrayDeque<>(), paths);
+            if (!paths.isEmpty()) grouped.put(target, paths);
+        }
+        return grouped;
+    }
+
+    @Override
+    public List<GraphEdge> fetchSubgraphEdges(Collection<Long> seeds, int steps) {
+        Set<Long> nodes = bfs(seeds, steps).keySet();
+        Map<String, GraphEdge> edges = new LinkedHashMap<>();
+        for (Long node : nodes) {
+            for (GraphEdge e : edgesOf(node)) {
+                if (nodes.contains(e.other(node))) edges.putIfAbsent(e.undirectedKey(), e);
+            }
+        }
+        return new ArrayList<>(edges.values());
+    }
+
+    // ═══════════════════════════════════════════════════
+    // 写入：只使涉及的家族失效，下次访问从 user_relation 重新加载
+    // ═══════════════════════════════════════════════════
+
+    /** 新用户尚无边，所在家族在首次建立关系时加载 */
+    @Override
+    public void insertPerson(Long userId, String name, Integer gender) {
+    }
+
+    /** PARENT_OF 的性别属性随家族重新加载刷新 */
+    @Override
+    public void updatePersonGender(Long userId, Integer gender) {
+        afterCommit(List.of(userId));
+    }
+
+    @Override
+    public void removePerson(Long userId) {
+        afterCommit(List.of(userId));
+    }
+
+    /** 新边可能合并两个家族，两侧都失效 */
+    @Override
+    public void syncRelation(List<String> chain, Long userAId, Long userBId, Integer userAGender, Integer userBGender) {
+        afterCommit(List.of(userAId, userBId));
+    }
+
+    @Override
+    public void removeRelation(Long aId, Long bId) {
+        afterCommit(List.of(aId, bId));
+    }
+
+    /** 重建所用的手动边与性别即 user_relation / user_profile 的当前内容，失效后按库重新加载即为重建结果 */
+    @Override
+    public boolean rebuildFamilyEdges(Collection<Long> members, List<RelationSpec> relations) {
+        invalidate(members);
+        log.info("[进程内图] 家族边重建: 成员 {} 人，下次访问重新加载", members.size());
+        return true;
+    }
+
+    /** 写入在事务提交时已同步生效 */
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    /** 清空全部家族快照，下次访问时重新加载 */
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        families.invalidateAll();
+    }
+
+    // ═══════════════════════════════════════════════════
+    // 内部实现
+    // ═══════════════════════════════════════════════════
+
+    /** 事务提交后使 userIds 所在的家族失效；无事务时立即失效 */
+    private void afterCommit(Collection<Long> userIds) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(userIds);
+                }
+            });
+        } else {
+            invalidate(userIds);
+        }
+    }
+
+    private void invalidate(Collection<Long> userIds) {
+        invalidations.incrementAndGet();
+        for (Long id : userIds) {
+            Family f = families.getIfPresent(id);
+            if (f != null) families.invalidateAll(f.members());
+            families.invalidate(id);
+        }
+    }
+
+    private Collection<GraphEdge> edgesOf(Long node) {
+        Map<String, GraphEdge> edges = family(node).adjacency().get(node);
+        return edges == null ? Collections.emptyList() : edges.values();
+    }
+
+    private Family family(Long userId) {
+        Family f = families.getIfPresent(userId);
+        return f != null ? f : load(userId);
+    }
+
+    /** 加载 userId 所在家族：成员取自 FamilyGraphIndex，边与性别各一次批量查询 */
+    private Family load(Long userId) {
+        long start = System.currentTimeMillis();
+        long generation = invalidations.get();
+        Set<Long> members = graphIndex.reachable(userId);
+
+        Map<Long, Integer> genders = new HashMap<>();
+        for (UserProfile p : userProfileMapper.selectList(new LambdaQueryWrapper<UserProfile>()
+                .select(UserProfile::getUserId, UserProfile::getGender)
+                .in(UserProfile::getUserId, members))) {
+            if (p.getGender() != null) genders.put(p.getUserId(), p.getGender());
+        }
+
+        Map<Long, Map<String, GraphEdge>> adj = new HashMap<>();
+        int relations = 0;
+        for (UserRelation r : relationMapper.selectList(new LambdaQueryWrapper<UserRelation>()
+                .select(UserRelation::getUserId, UserRelation::getRelatedUserId, UserRelation::getRelationChain)
+                .in(UserRelation::getUserId, members)
+                .eq(UserRelation::getInferStatus, 0)
+                .eq(UserRelation::getConfirmStatus, 1)
+                .eq(UserRelation::getDeleted, 0))) {
+            String chainJson = r.getRelationChain();
+            if (chainJson == null || chainJson.isBlank() || "[]".equals(chainJson)) continue;
+            if (!members.contains(r.getRelatedUserId())) continue;
+            for (GraphEdge e : GraphEdge.fromChain(inferUtil.jsonToChain(chainJson),
+                    r.getUserId(), r.getRelatedUserId(),
+                    genders.get(r.getUserId()), genders.get(r.getRelatedUserId()))) {
+                link(adj, e);
+            }
+            relations++;
+        }
+
+        Family family = new Family(Collections.unmodifiableSet(members), adj);
+        if (invalidations.get() == generation) {
+            Map<Long, Family> entries = new HashMap<>();
+            for (Long m : members) entries.put(m, family);
+            families.putAll(entries);
+        }
+        log.debug("[进程内图] 加载家族: userId={}, 成员 {} 人, 手动关系 {} 条, 耗时 {}ms",
+                userId, members.size(), relations, System.currentTimeMillis() - start);
+        return family;
+    }
+
+    /** 同一键的边覆盖写入（与 Nebula INSERT EDGE 一致）；无方向的边两个方向共用一个键 */
+    private static void link(Map<Long, Map<String, GraphEdge>> adj, GraphEdge e) {
+        String key = "PARENT_OF".equals(e.type()) ? e.key() : e.undirectedKey();
+        adj.computeIfAbsent(e.src(), k -> new HashMap<>()).put(key, e);
+        adj.computeIfAbsent(e.dst(), k -> new HashMap<>()).put(key, e);
+    }
+
+    /** 从 seeds 出发 BFS，返回 steps 跳以内的节点 → 跳数 */
+    private Map<Long, Integer> bfs(Collection<Long> seeds, int steps) {
+        Map<Long, Integer> depth = new LinkedHashMap<>();
+        Deque<Long> queue = new ArrayDeque<>();
+        for (Long s : seeds) {
+            if (depth.putIfAbsent(s, 0) == null) queue.add(s);
+        }
+        while (!queue.isEmpty()) {
+            Long node = queue.poll();
+            int d = depth.get(node);
+            if (d >= steps) continue;
+            for (GraphEdge e : edgesOf(node)) {
+                Long other = e.other(node);
+                if (depth.putIfAbsent(other, d + 1) == null) queue.add(other);
+            }
+        }
+        return depth;
+    }
+
+    /** 沿前驱边从 node 回溯到 fromId，path 中的边按 fromId → target 顺序 */
+    private static void backtrack(Map<Long, List<GraphEdge>> preds, Long fromId, Long node,
+                                  Deque<GraphEdge> path, List<List<GraphEdge>> out) {
+        if (out.size() >= MAX_PATHS_PER_TARGET) return;
+        if (node.equals(fromId)) {
+            out.add(new ArrayList<>(path));
+            return;
+        }
+        for (GraphEdge e : preds.getOrDefault(node, Collections.emptyList())) {
+            path.addFirst(e);
+            backtrack(preds, fromId, e.other(node), path, out);
+            path.removeFirst();
+        }
+    }
+
+    private void allPaths(Long current, Long target, int remaining,
+                          Deque<GraphEdge> path, Set<Long> onPath, List<List<GraphEdge>> out) {
+        if (out.size() >= MAX_ALL_PATHS || remaining == 0) return;
+        for (GraphEdge e : edgesOf(current)) {
+            Long next = e.other(current);
+            if (onPath.contains(next)) continue;
+            path.addLast(e);
+            if (next.equals(target)) {
+                out.add(new ArrayList<>(path));
+            } else {
+                onPath.add(next);
+                allPaths(next, target, remaining - 1, path, onPath, out);
+                onPath.remove(next);
+            }
+            path.removeLast();
+        }
+    }
+}
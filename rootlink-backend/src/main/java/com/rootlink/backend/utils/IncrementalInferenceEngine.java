@@ -0,0 +1,188 @@
+package com.rootlink.backend.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 增量推断引擎：只推导「新增一条边 A-B」能产生的新亲属对
+ *
+ * 原理：任何经过新边的路径都形如  X …→ A —(新边)— B →… Y，
+ *   X 侧路径不经过 B，Y 侧路径不经过 A，两侧节点互不相交，
+ *   总跳数 ≤ MAX_HOPS（与 FIND ALL PATH UPTO 4 STEPS 保持一致）。
+ * 因此只需：
+ *   1. 一次子图查询（Nebula 为 GET SUBGRAPH）取 A、B 周围 MAX_HOPS-1 跳的局部图
+ *   2. 内存中分别枚举 A 侧、B 侧的简单路径
+ *   3. 两侧路径经新边拼接，交给 NebulaRelationResolver 解析正反两个方向的称谓
+ * 代价与受影响的亲属对数量成正比，而不是与 4 跳邻域的规模成正比。
+ */
+@Slf4j
+@Component
+public class IncrementalInferenceEngine {
+
+    /** 推断路径最大跳数 */
+    public static final int MAX_HOPS = 4;
+
+    @Autowired private GraphStore graphStore;
+    @Autowired private NebulaRelationResolver resolver;
+
+    /** 新边两端周围的局部图：nodeId → 关联边 */
+    public record LocalGraph(Map<Long, List<GraphEdge>> adjacency) {
+        public Set<Long> nodes() {
+            return adjacency.keySet();
+        }
+    }
+
+    /** 推导结果：from 称呼 to 为 kinship，to 称呼 from 为 reverseKinship（无法解析时为「亲属」） */
+    public record Derived(Long from, Long to, String kinship, String reverseKinship) {}
+
+    /**
+     * 一次图查询取 A、B 周围的局部图
+     * 两侧路径各至多 MAX_HOPS-1 跳，子图取 MAX_HOPS-1 步已含路径上的全部边（见 GraphStore.fetchSubgraphEdges），
+     * 局部图中缺少的只是两端都在最外一圈的边，枚举路径用不到
+     */
+    public LocalGraph load(Long userA, Long userB) {
+        Map<Long, List<GraphEdge>> adj = new HashMap<>();
+        adj.put(userA, new ArrayList<>());
+        adj.put(userB, new ArrayList<>());
+        for (GraphEdge e : graphStore.fetchSubgraphEdges(List.of(userA, userB), MAX_HOPS - 1)) {
+            adj.computeIfAbsent(e.src(), k -> new ArrayList<>()).add(e);
+            adj.computeIfAbsent(e.dst(), k -> new ArrayList<>()).add(e);
+        }
+        return new LocalGraph(adj);
+    }
+
+    /**
+     * 推导经过新边 A-B 的全部新亲属对（不含 A-B 本身）
+     * 同一对人有多条路径时，取最短且能解析出具体称谓的一条（与 resolveBest 一致）
+     */
+    public List<Derived> derive(LocalGraph graph, Long userA, Long userB, Map<Long, Integer> genderMap) {
+        GraphEdge bridge = null;
+        for (GraphEdge e : graph.adjacency().get(userA)) {
+            if (e.other(userA) == userB) { bridge = e; break; }
+        }
+        if (bridge == null)
+            throw new IllegalStateException("新边未写入图数据库: A=" + userA + " B=" + userB);
+
+        List<List<GraphEdge>> sideA = simplePaths(graph, userA, userB, MAX_HOPS - 1);
+        List<List<GraphEdge>> sideB = simplePaths(graph, userB, userA, MAX_HOPS - 1);
+
+        // key = "X_Y"（X 在 A 侧，Y 在 B 侧）
+        Map<String, Best> bestByPair = new LinkedHashMap<>();
+        for (List<GraphEdge> pa : sideA) {
+            Set<Long> nodesA = nodesOf(pa, userA);
+            Long x = last(pa, userA);
+            for (List<GraphEdge> pb : sideB) {
+                int hops = pa.size() + 1 + pb.size();
+                if (hops > MAX_HOPS || (pa.isEmpty() && pb.isEmpty())) continue;
+                Long y = last(pb, userB);
+                if (!Collections.disjoint(nodesA, nodesOf(pb, userB))) continue;
+
+                // X → … → A → B → … → Y
+                List<GraphEdge> path = new ArrayList<>(hops);
+                for (int i = pa.size() - 1; i >= 0; i--) path.add(pa.get(i));
+                path.add(bridge);
+                path.addAll(pb);
+
+                Best best = bestByPair.computeIfAbsent(x + "_" + y, k -> new Best(x, y));
+                best.offer(path, resolver, genderMap);
+            }
+        }
+
+        List<Derived> result = new ArrayList<>();
+        for (Best best : bestByPair.values()) {
+            if (best.forward == null && best.reverse == null) continue;
+            result.add(new Derived(best.x, best.y,
+                    best.forward != null ? best.forward : "亲属",
+                    best.reverse != null ? best.reverse : "亲属"));
+        }
+        log.info("[增量推断] A={} B={} 局部图 {} 人，A侧路径 {} 条，B侧路径 {} 条，推导 {} 对",
+                userA, userB, graph.nodes().size(), sideA.size(), sideB.size(), result.size());
+        return result;
+    }
+
+    /**
+     * userId 周围 MAX_HOPS 跳以内各节点 → 跳数（含自身，跳数 0）
+     * 经过 userId 的路径只可能连接 hops(X) + hops(Y) ≤ MAX_HOPS 的亲属对（性别变更后的称谓重算用）
+     */
+    public Map<Long, Integer> hopsFrom(Long userId) {
+        Map<Long, List<GraphEdge>> adj = new HashMap<>();
+        for (GraphEdge e : graphStore.fetchSubgraphEdges(List.of(userId), MAX_HOPS)) {
+            adj.computeIfAbsent(e.src(), k -> new ArrayList<>()).add(e);
+            adj.computeIfAbsent(e.dst(), k -> new ArrayList<>()).add(e);
+        }
+        Map<Long, Integer> hops = new HashMap<>();
+        hops.put(userId, 0);
+        Deque<Long> queue = new ArrayDeque<>(List.of(userId));
+        while (!queue.isEmpty()) {
+            Long cur = queue.poll();
+            int next = hops.get(cur) + 1;
+            if (next > MAX_HOPS) continue;
+            for (GraphEdge e : adj.getOrDefault(cur, Collections.emptyList())) {
+                if (hops.putIfAbsent(e.other(cur), next) == null) queue.add(e.other(cur));
+            }
+        }
+        return hops;
+    }
+
+    // ══ 内部实现 ══════════════════════════════════════════
+
+    /** 某对人的最佳正反称谓（按路径长度从短到长取第一个非「亲属」结果） */
+    private static class Best {
+        final Long x, y;
+        String forward, reverse;
+        int forwardHops = Integer.MAX_VALUE, reverseHops = Integer.MAX_VALUE;
+
+        Best(Long x, Long y) { this.x = x; this.y = y; }
+
+        void offer(List<GraphEdge> path, NebulaRelationResolver resolver, Map<Long, Integer> genderMap) {
+            int hops = path.size();
+            if (hops >= forwardHops && hops >= reverseHops) return;
+            NebulaRelationResolver.Kinship k = resolver.resolveBoth(path, x, genderMap);
+            if (hops < forwardHops && !"亲属".equals(k.forward())) { forward = k.forward(); forwardHops = hops; }
+            if (hops < reverseHops && !"亲属".equals(k.reverse())) { reverse = k.reverse(); reverseHops = hops; }
+        }
+    }
+
+    /** 从 start 出发、不经过 excluded 的全部简单路径（含空路径），最长 maxHops */
+    private List<List<GraphEdge>> simplePaths(LocalGraph graph, Long start, Long excluded, int maxHops) {
+        List<List<GraphEdge>> result = new ArrayList<>();
+        Set<Long> onPath = new HashSet<>();
+        onPath.add(start);
+        walk(graph, start, excluded, maxHops, new ArrayDeque<>(), onPath, result);
+        return result;
+    }
+
+    private void walk(LocalGraph graph, Long current, Long excluded, int remaining,
+                      Deque<GraphEdge> path, Set<Long> onPath, List<List<GraphEdge>> out) {
+        out.add(new ArrayList<>(path));
+        if (remaining == 0) return;
+        for (GraphEdge e : graph.adjacency().getOrDefault(current, Collections.emptyList())) {
+            Long next = e.other(current);
+            if (next.equals(excluded) || !onPath.add(next)) continue;
+            path.addLast(e);
+            walk(graph, next, excluded, remaining - 1, path, onPath, out);
+            path.removeLast();
+            onPath.remove(next);
+        }
+    }
+
+    private static Set<Long> nodesOf(List<GraphEdge> path, Long start) {
+        Set<Long> nodes = new HashSet<>();
+        nodes.add(start);
+        Long cur = start;
+        for (GraphEdge e : path) {
+            cur = e.other(cur);
+            nodes.add(cur);
+        }
+        return nodes;
+    }
+
+    private static Long last(List<GraphEdge> path, Long start) {
+        Long cur = start;
+        for (GraphEdge e : path) cur = e.other(cur);
+        return cur;
+    }
+}
@@ -0,0 +1,265 @@
+package com.rootlink.backend.utils;
+
+import com.vesoft.nebula.client.graph.NebulaPoolConfig;
+import com.vesoft.nebula.client.graph.SessionPool;
+import com.vesoft.nebula.client.graph.SessionPoolConfig;
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import com.vesoft.nebula.client.graph.net.NebulaPool;
+import com.vesoft.nebula.client.graph.net.Session;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NebulaGraph 连接管理：连接池生命周期、语句超时、熔断与后台重连
+ *
+ * 连接：
+ *   NebulaPool   Meta 语句（建图空间，此时图空间可能尚不存在）
+ *   SessionPool  业务语句，会话已认证并绑定图空间；连接钩子（Schema 初始化）执行后创建
+ *
+ * 超时：单条语句受 nebula.session-pool.timeout-ms 约束（socket 读超时），取会话受 wait-ms 约束；
+ *   超时、连接异常及 graphd 返回的连接类错误码计入熔断失败，nGQL 语法 / 语义错误不计入。
+ *
+ * 熔断：
+ *   CLOSED     正常放行；连续失败 failure-threshold 次 → OPEN
+ *   OPEN       isAvailable()=false，调用方直接走降级路径，execute 立即失败；
+ *              open-seconds 后由重连线程探测
+ *   HALF_OPEN  探测中：必要时重建连接池、执行连接钩子，YIELD 1 成功 → CLOSED，否则 → OPEN
+ * 初始状态为 OPEN（就绪闸门）：首次连接与连接钩子均在重连线程中执行，不阻塞应用启动；
+ *   启动时 graphd 未就绪不再永久禁用，由重连线程持续探测，恢复后自动启用图推断。
+ *
+ * 指标：rootlink.nebula.breaker.state（0 CLOSED / 1 HALF_OPEN / 2 OPEN）
+ *       rootlink.nebula.breaker.trips（熔断次数）
+ */
+@Slf4j
+@Component
+public class NebulaConnectionManager {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    /** 视为 graphd 不可用的错误码：E_DISCONNECTED / E_FAIL_TO_CONNECT / E_RPC_FAILURE / E_SESSION_INVALID / E_SESSION_TIMEOUT */
+    private static final Set<Integer> UNAVAILABLE_CODES = Set.of(-1, -2, -3, -1002, -1003);
+
+    @Autowired(required = false) private NebulaPoolConfig nebulaPoolConfig;
+    @Autowired(required = false) private SessionPoolConfig sessionPoolConfig;
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${nebula.graph.username:root}")
+    private String username;
+
+    @Value("${nebula.graph.password:nebula}")
+    private String password;
+
+    @Value("${nebula.breaker.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${nebula.breaker.open-seconds:30}")
+    private long openSeconds;
+
+    @Value("${nebula.breaker.probe-interval-ms:5000}")
+    private long probeIntervalMs;
+
+    private volatile NebulaPool metaPool;
+    private volatile SessionPool sessionPool;
+
+    private volatile State state = State.OPEN;
+    /** OPEN 状态下允许探测的时间点 */
+    private volatile long retryAt;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Object probeLock = new Object();
+    private final List<Runnable> connectHooks = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService reconnector;
+    private Counter tripCounter;
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) return;
+        Gauge.builder("rootlink.nebula.breaker.state", this, m -> m.state.ordinal())
+                .description("NebulaGraph 熔断状态：0 CLOSED / 1 HALF_OPEN / 2 OPEN").register(meterRegistry);
+        tripCounter = Counter.builder("rootlink.nebula.breaker.trips").register(meterRegistry);
+
+        reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "nebula-reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+        retryAt = Long.MAX_VALUE;   // 由 connectAsync() 在应用就绪后放行首次探测
+        reconnector.scheduleWithFixedDelay(this::probeIfDue, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reconnector != null) reconnector.shutdownNow();
+        closePools();
+    }
+
+    /** nebula.enabled=true（与当前是否连通无关） */
+    public boolean isEnabled() {
+        return nebulaPoolConfig != null && sessionPoolConfig != null;
+    }
+
+    /** 已连接且未熔断，业务可走图查询 */
+    public boolean isAvailable() {
+        return state == State.CLOSED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** 注册连接钩子：每次（重新）建立连接后、恢复放行前执行，抛异常视为探测失败 */
+    public void onConnect(Runnable hook) {
+        connectHooks.add(hook);
+    }
+
+    /** 由重连线程立即探测一次（不阻塞调用方）；失败则按 open-seconds 继续探测 */
+    public void connectAsync() {
+        if (!isEnabled()) return;
+        retryAt = 0;
+        reconnector.execute(this::probeIfDue);
+    }
+
+    // ── 执行 ─────────────────────────────────────────
+
+    /** 业务语句（绑定图空间的会话），熔断期间立即失败 */
+    public ResultSet execute(String nGQL) {
+        if (state == State.OPEN) throw new IllegalStateException("NebulaGraph 熔断中");
+        ResultSet rs;
+        try {
+            rs = sessionPool().execute(nGQL);
+        } catch (Exception e) {
+            onFailure(e.getMessage());
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        if (!rs.isSucceeded() && UNAVAILABLE_CODES.contains(rs.getErrorCode())) {
+            onFailure(rs.getErrorMessage());
+        } else if (failures.get() != 0) {
+            failures.set(0);
+        }
+        return rs;
+    }
+
+    /** Meta 语句（未绑定图空间的一次性会话） */
+    ResultSet executeOnMeta(String nGQL) {
+        NebulaPool pool = metaPool;
+        if (pool == null) throw new IllegalStateException("NebulaGraph 未连接");
+        Session session = null;
+        try {
+            session = pool.getSession(username, password, false);
+            return session.execute(nGQL);
+        } catch (Exception e) {
+            throw new IllegalStateException("Meta 语句执行失败: " + e.getMessage(), e);
+        } finally {
+            if (session != null) session.release();
+        }
+    }
+
+    /** 创建绑定图空间的会话池（图空间不存在时失败，可重复调用） */
+    void openSessionPool() {
+        sessionPool();
+    }
+
+    // ── 熔断 ─────────────────────────────────────────
+
+    private void onFailure(String reason) {
+        if (state != State.CLOSED) return;
+        if (failures.incrementAndGet() < failureThreshold) return;
+        synchronized (this) {
+            if (state != State.CLOSED) return;
+            retryAt = System.currentTimeMillis() + openSeconds * 1000;
+            state = State.OPEN;
+        }
+        tripCounter.increment();
+        log.warn("[Nebula] 连续失败 {} 次，熔断 {}s，图推断降级：{}", failures.get(), openSeconds, reason);
+    }
+
+    private void probeIfDue() {
+        try {
+            if (state == State.OPEN && System.currentTimeMillis() >= retryAt) probe();
+        } catch (Throwable e) {
+            // 定时任务抛出异常后不再调度，这里兜底
+            log.error("[Nebula] 重连探测异常", e);
+        }
+    }
+
+    /** 重建连接池（如需要）→ 执行连接钩子 → YIELD 1，成功后放行 */
+    private void probe() {
+        synchronized (probeLock) {
+            if (state == State.CLOSED) return;
+            state = State.HALF_OPEN;
+            try {
+                openMetaPool();
+                for (Runnable hook : connectHooks) hook.run();
+                ResultSet rs = sessionPool().execute("YIELD 1");
+                if (!rs.isSucceeded()) throw new IllegalStateException(rs.getErrorMessage());
+                failures.set(0);
+                state = State.CLOSED;
+                log.info("[Nebula] 连接可用，图推断已启用，hosts={}", sessionPoolConfig.getGraphAddressList());
+            } catch (Exception e) {
+                closePools();
+                retryAt = System.currentTimeMillis() + openSeconds * 1000;
+                state = State.OPEN;
+                log.warn("[Nebula] 连接不可用，{}s 后重试（期间降级）：{}", openSeconds, e.getMessage());
+            }
+        }
+    }
+
+    // ── 连接池 ───────────────────────────────────────
+
+    private void openMetaPool() throws Exception {
+        if (metaPool != null) return;
+        NebulaPool pool = new NebulaPool();
+        if (!pool.init(sessionPoolConfig.getGraphAddressList(), nebulaPoolConfig)) {
+            pool.close();
+            throw new IllegalStateException("NebulaGraph 连接池初始化失败（服务未启动？）");
+        }
+        metaPool = pool;
+    }
+
+    private SessionPool sessionPool() {
+        SessionPool pool = sessionPool;
+        if (pool != null) return pool;
+        synchronized (this) {
+            if (sessionPool != null) return sessionPool;
+            pool = new SessionPool(sessionPoolConfig);
+            boolean initOk;
+            try {
+                initOk = pool.init();
+            } catch (RuntimeException e) {
+                initOk = false;
+            }
+            if (!initOk) {
+                pool.close();
+                throw new IllegalStateException("NebulaGraph 会话池初始化失败，space=" + sessionPoolConfig.getSpaceName());
+            }
+            log.info("NebulaGraph 会话池初始化成功，space={} size={}~{}", sessionPoolConfig.getSpaceName(),
+                    sessionPoolConfig.getMinSessionSize(), sessionPoolConfig.getMaxSessionSize());
+            sessionPool = pool;
+            return pool;
+        }
+    }
+
+    private synchronized void closePools() {
+        SessionPool sp = sessionPool;
+        NebulaPool mp = metaPool;
+        sessionPool = null;
+        metaPool = null;
+        if (sp != null) sp.close();
+        if (mp != null) mp.close();
+    }
+}
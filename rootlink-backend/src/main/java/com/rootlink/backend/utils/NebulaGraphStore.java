@@ -0,0 +1,93 @@
+package com.rootlink.backend.utils;
+
+import com.vesoft.nebula.client.graph.data.PathWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 基于 NebulaGraph 的图存储：遍历直接查询 NebulaUtil，写入经 NebulaWriteQueue（graph_outbox）投递
+ */
+@Component
+public class NebulaGraphStore implements GraphStore {
+
+    @Autowired private NebulaUtil nebulaUtil;
+    @Autowired private NebulaWriteQueue graphWrites;
+
+    @Override
+    public boolean isAvailable() {
+        return nebulaUtil.isAvailable();
+    }
+
+    // ── 遍历 ─────────────────────────────────────────
+
+    @Override
+    public Set<Long> findNeighbors(Long userId, int maxSteps) {
+        return nebulaUtil.findNeighbors(userId, maxSteps);
+    }
+
+    @Override
+    public List<List<GraphEdge>> findPaths(Long fromId, Long toId, int maxSteps) {
+        List<List<GraphEdge>> paths = new ArrayList<>();
+        for (PathWrapper p : nebulaUtil.findPaths(fromId, toId, maxSteps)) paths.add(GraphEdge.pathOf(p));
+        return paths;
+    }
+
+    @Override
+    public Map<Long, List<List<GraphEdge>>> findShortestPaths(Long fromId, Collection<Long> toIds, int maxSteps) {
+        Map<Long, List<List<GraphEdge>>> grouped = new HashMap<>();
+        for (Map.Entry<Long, List<PathWrapper>> e : nebulaUtil.findShortestPaths(fromId, toIds, maxSteps).entrySet()) {
+            List<List<GraphEdge>> paths = new ArrayList<>(e.getValue().size());
+            for (PathWrapper p : e.getValue()) paths.add(GraphEdge.pathOf(p));
+            grouped.put(e.getKey(), paths);
+        }
+        return grouped;
+    }
+
+    @Override
+    public List<GraphEdge> fetchSubgraphEdges(Collection<Long> seeds, int steps) {
+        return nebulaUtil.fetchSubgraphEdges(seeds, steps);
+    }
+
+    // ── 写入 ─────────────────────────────────────────
+
+    @Override
+    public void insertPerson(Long userId, String name, Integer gender) {
+        graphWrites.insertPerson(userId, name, gender);
+    }
+
+    @Override
+    public void updatePersonGender(Long userId, Integer gender) {
+        graphWrites.updateGender(userId, gender);
+    }
+
+    @Override
+    public void removePerson(Long userId) {
+        graphWrites.deletePerson(userId);
+    }
+
+    @Override
+    public void syncRelation(List<String> chain, Long userAId, Long userBId, Integer userAGender, Integer userBGender) {
+        graphWrites.syncRelation(chain, userAId, userBId, userAGender, userBGender);
+    }
+
+    @Override
+    public void removeRelation(Long aId, Long bId) {
+        graphWrites.removeRelation(aId, bId);
+    }
+
+    /** 先等 outbox 中的旧变更落地，避免重建后被覆盖 */
+    @Override
+    public boolean rebuildFamilyEdges(Collection<Long> members, List<RelationSpec> relations) {
+        // 未启用 Nebula 时无边可重建；启用但熔断时返回 false
+        if (!nebulaUtil.isEnabled()) return true;
+        graphWrites.flush();
+        return nebulaUtil.rebuildFamilyEdges(members, relations);
+    }
+
+    @Override
+    public boolean flush() {
+        return graphWrites.flush();
+    }
+}
@@ -1,11 +1,11 @@
 package com.rootlink.backend.utils;
 
 import com.vesoft.nebula.client.graph.data.PathWrapper;
-import com.vesoft.nebula.client.graph.data.Relationship;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 将 Nebula 图路径（PathWrapper）解析为中文亲属称谓。
@@ -14,6 +14,8 @@ import java.util.*;
  *   在 src→dst 边上：1=src比dst年长(src是哥/姐), 2=src比dst年幼(src是弟/妹), 0=未知
  *
  * PARENT_OF 边：src=父/母，dst=子/女（永远如此，与遍历方向无关）
+ *
+ * 解析结果按路径签名记忆化（见「签名编码」），mapToKinship 只在签名首次出现时执行。
  */
 @Slf4j
 @Component
@@ -22,23 +24,171 @@ public class NebulaRelationResolver {
     private static final int MALE   = 1;
     private static final int FEMALE = 2;
 
+    /** 同一条路径两端互相的称谓：forward = viewer 称呼 target，reverse = target 称呼 viewer */
+    public record Kinship(String forward, String reverse) {}
+
+    private static final Kinship UNKNOWN = new Kinship("亲属", "亲属");
+
     public String resolve(PathWrapper path, Long viewerId, Map<Long, Integer> genderMap) {
         if (path == null) return "亲属";
-        List<Step> steps = extractSteps(path, viewerId, genderMap);
-        if (steps == null || steps.isEmpty()) return "亲属";
-        String result = mapToKinship(steps, viewerId, genderMap);
-        log.debug("[称谓解析] viewer={} steps={} → {}", viewerId, steps, result);
-        return result;
+        return resolveEdges(toEdges(path), viewerId, genderMap);
+    }
+
+    /**
+     * 按边序列解析称谓：edges 从 viewer 出发首尾相接（边方向任意），
+     * 用于内存中组合出的路径（无需 PathWrapper）
+     */
+    public String resolveEdges(List<GraphEdge> edges, Long viewerId, Map<Long, Integer> genderMap) {
+        if (edges == null || edges.isEmpty()) return "亲属";
+        return lookup(encode(edges, viewerId, false, genderMap));
+    }
+
+    /**
+     * 同时解析正反两个方向的称谓
+     * 逆向不再查图：把路径反过来走（UP↔DOWN，年长↔年幼）即可
+     */
+    public Kinship resolveBoth(List<GraphEdge> edges, Long viewerId, Map<Long, Integer> genderMap) {
+        if (edges == null || edges.isEmpty()) return UNKNOWN;
+        long targetId = viewerId;
+        for (GraphEdge e : edges) targetId = e.other(targetId);
+        return new Kinship(lookup(encode(edges, viewerId, false, genderMap)),
+                           lookup(encode(edges, targetId, true, genderMap)));
+    }
+
+    public Kinship resolveBoth(PathWrapper path, Long viewerId, Map<Long, Integer> genderMap) {
+        if (path == null) return UNKNOWN;
+        return resolveBoth(toEdges(path), viewerId, genderMap);
+    }
+
+    /**
+     * 多条路径中取正反两个方向各自的最佳称谓（最短且非「亲属」，等长取靠前的）
+     * paths 为空时返回 null；某方向无法解析时为「亲属」。不修改调用方的 paths
+     */
+    public Kinship resolveBestBoth(List<List<GraphEdge>> paths, Long viewerId, Map<Long, Integer> genderMap) {
+        if (paths == null || paths.isEmpty()) return null;
+        String forward = null, reverse = null;
+        int forwardHops = Integer.MAX_VALUE, reverseHops = Integer.MAX_VALUE;
+        for (List<GraphEdge> path : paths) {
+            int hops = path.size();
+            if (hops >= forwardHops && hops >= reverseHops) continue;
+            Kinship k = resolveBoth(path, viewerId, genderMap);
+            if (hops < forwardHops && !"亲属".equals(k.forward())) { forward = k.forward(); forwardHops = hops; }
+            if (hops < reverseHops && !"亲属".equals(k.reverse())) { reverse = k.reverse(); reverseHops = hops; }
+        }
+        return new Kinship(forward != null ? forward : "亲属", reverse != null ? reverse : "亲属");
     }
 
+    /** 最短且非「亲属」的称谓（等长取靠前的）；不修改调用方的 paths */
     public String resolveBest(List<PathWrapper> paths, Long viewerId, Map<Long, Integer> genderMap) {
         if (paths == null || paths.isEmpty()) return null;
-        paths.sort(Comparator.comparingInt(p -> p.getRelationships().size()));
+        String best = null;
+        int bestHops = Integer.MAX_VALUE;
         for (PathWrapper path : paths) {
+            int hops = path.getRelationships().size();
+            if (hops >= bestHops) continue;
             String name = resolve(path, viewerId, genderMap);
-            if (name != null && !"亲属".equals(name)) return name;
+            if (name != null && !"亲属".equals(name)) { best = name; bestHops = hops; }
         }
-        return "亲属";
+        return best != null ? best : "亲属";
+    }
+
+    // ══ 签名编码 + 记忆化 ══════════════════════════════════
+    //
+    // mapToKinship 的结果只取决于：跳数、两端性别，以及每一步的
+    // 类型 / 父母性别 / 子女性别 / 年长关系 / 中间节点性别。
+    // 把这些打包成一个 long（低位起）：
+    //   [0..2]  跳数 n（1~4）
+    //   [3..4]  viewer 性别     [5..6] target 性别
+    //   每步 10 bit，自第 7 位起：
+    //     type(2) | parentGender(2) | childGender(2) | nextOlderThan(2) | 该步到达节点(中间节点)性别(2)
+    // 性别取值 0/1/2 原样保留，其余值归为 3（在 mapToKinship 中与任何非 0/1/2 值等价）。
+    // 相同签名结果必然相同，命中时一次哈希查找即可，不再构造 Step。
+
+    /** 记忆表上限（实际出现的签名远少于此） */
+    private static final int MEMO_LIMIT = 8192;
+    private static final long UNRESOLVABLE = -1L;
+    private static final int STEP_BITS = 10, STEP_BASE = 7;
+
+    private final Map<Long, String> memo = new ConcurrentHashMap<>();
+
+    private String lookup(long sig) {
+        if (sig == UNRESOLVABLE) return "亲属";
+        String name = memo.get(sig);
+        if (name != null) return name;
+        name = mapToKinship(decodeSteps(sig), 0L, decodeGenders(sig));
+        if (memo.size() < MEMO_LIMIT) memo.putIfAbsent(sig, name);
+        return name;
+    }
+
+    /**
+     * 路径签名；reversed=true 时从最后一条边倒着走（startId 为原路径终点）
+     * 超过 4 跳或含未知边类型时返回 UNRESOLVABLE（原实现对此均返回「亲属」）
+     */
+    private long encode(List<GraphEdge> edges, long startId, boolean reversed, Map<Long, Integer> genders) {
+        int n = edges.size();
+        if (n > 4) return UNRESOLVABLE;
+        long sig = n | ((long) genderCode(genders, startId) << 3);
+        long current = startId;
+        for (int k = 0; k < n; k++) {
+            GraphEdge e = edges.get(reversed ? n - 1 - k : k);
+            boolean fwd = e.src() == current;
+            long next = fwd ? e.dst() : e.src();
+            int type, pg = 0, cg = 0, older = 0;
+            switch (e.type()) {
+                case "PARENT_OF" -> {
+                    type = fwd ? StepType.DOWN.ordinal() : StepType.UP.ordinal();
+                    int mapPG = genders.getOrDefault(e.src(), 0);
+                    int mapCG = genders.getOrDefault(e.dst(), 0);
+                    pg = clamp(mapPG != 0 ? mapPG : e.parentGender());
+                    cg = clamp(mapCG != 0 ? mapCG : e.childGender());
+                }
+                case "SPOUSE_OF" -> type = StepType.SPOUSE.ordinal();
+                case "SIBLING_OF" -> {
+                    type = StepType.SIBLING.ordinal();
+                    int sen = e.seniority();
+                    older = fwd ? (sen == 1 ? 2 : (sen == 2 ? 1 : 0)) : (sen == 1 || sen == 2 ? sen : 0);
+                }
+                default -> { return UNRESOLVABLE; }
+            }
+            int midG = k < n - 1 ? genderCode(genders, next) : 0;
+            long step = type | (pg << 2) | (cg << 4) | (older << 6) | (midG << 8);
+            sig |= step << (STEP_BASE + STEP_BITS * k);
+            current = next;
+        }
+        return sig | ((long) genderCode(genders, current) << 5);
+    }
+
+    /** 签名还原为合成路径：viewer=0，第 k 步到达节点 k+1 */
+    private List<Step> decodeSteps(long sig) {
+        int n = (int) (sig & 0b111);
+        StepType[] types = StepType.values();
+        List<Step> steps = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            int step = (int) (sig >>> (STEP_BASE + STEP_BITS * k)) & 0x3FF;
+            steps.add(new Step(types[step & 0b11], (long) (k + 1),
+                    (step >>> 2) & 0b11, (step >>> 4) & 0b11, (step >>> 6) & 0b11));
+        }
+        return steps;
+    }
+
+    private Map<Long, Integer> decodeGenders(long sig) {
+        int n = (int) (sig & 0b111);
+        Map<Long, Integer> genders = new HashMap<>();
+        genders.put(0L, (int) (sig >>> 3) & 0b11);
+        for (int k = 0; k < n - 1; k++) {
+            genders.put((long) (k + 1), (int) (sig >>> (STEP_BASE + STEP_BITS * k + 8)) & 0b11);
+        }
+        genders.put((long) n, (int) (sig >>> 5) & 0b11);
+        return genders;
+    }
+
+    private static int genderCode(Map<Long, Integer> genders, long userId) {
+        Integer g = genders.get(userId);
+        return g == null ? 0 : clamp(g);
+    }
+
+    private static int clamp(int gender) {
+        return gender >= 0 && gender <= 2 ? gender : 3;
     }
 
     // ══ 内部结构 ══════════════════════════════════════════
@@ -64,76 +214,21 @@ public class NebulaRelationResolver {
         @Override public String toString() { return type + "→" + nextNodeId + "(pg=" + parentGender + ",cg=" + childGender + ",seniority=" + nextOlderThan + ")"; }
     }
 
-    // ══ 步骤提取 ══════════════════════════════════════════
+    // ══ 路径转换 ══════════════════════════════════════════
 
-    private List<Step> extractSteps(PathWrapper path, Long startId, Map<Long, Integer> genderMap) {
-        List<Step> steps = new ArrayList<>();
-        Long currentId = startId;
+    private List<GraphEdge> toEdges(PathWrapper path) {
         try {
-            for (Relationship rel : path.getRelationships()) {
-                long srcId  = rel.srcId().asLong();
-                long dstId  = rel.dstId().asLong();
-                String edge = rel.edgeName();
-                boolean fwd = (srcId == currentId);
-                Long nextId = fwd ? dstId : srcId;
-
-                int parentGender = 0, childGender = 0, nextOlderThan = 0;
-
-                if ("PARENT_OF".equals(edge)) {
-                    // PARENT_OF 的 src 永远是父/母，dst 永远是子/女
-                    long parentNodeId = srcId;
-                    long childNodeId  = dstId;
-                    try {
-                        parentGender = (int) rel.properties().get("parent_gender").asLong();
-                        childGender  = (int) rel.properties().get("child_gender").asLong();
-                    } catch (Exception ignored) {}
-                    // genderMap 覆盖（来自 UserProfile，最准）
-                    int mapPG = genderMap.getOrDefault(parentNodeId, 0);
-                    int mapCG = genderMap.getOrDefault(childNodeId,  0);
-                    if (mapPG != 0) parentGender = mapPG;
-                    if (mapCG != 0) childGender  = mapCG;
-
-                } else if ("SIBLING_OF".equals(edge)) {
-                    // seniority: 在 src→dst 边上，1=src比dst年长，2=src比dst年幼，0=未知
-                    int seniority = 0;
-                    try { seniority = (int) rel.properties().get("seniority").asLong(); } catch (Exception ignored) {}
-                    if (fwd) {
-                        // 当前在 src，下一步是 dst
-                        // seniority=1 → src(current)年长 → dst(next)年幼 → nextOlderThan=2
-                        // seniority=2 → src(current)年幼 → dst(next)年长 → nextOlderThan=1
-                        nextOlderThan = seniority == 1 ? 2 : (seniority == 2 ? 1 : 0);
-                    } else {
-                        // 当前在 dst，下一步是 src
-                        // seniority=1 → src(next)年长 → nextOlderThan=1
-                        // seniority=2 → src(next)年幼 → nextOlderThan=2
-                        nextOlderThan = seniority;
-                    }
-                }
-
-                StepType type;
-                switch (edge) {
-                    case "PARENT_OF":
-                        // fwd=true → 从父母走向子女 → DOWN（往下辈）
-                        // fwd=false → 从子女走向父母 → UP（往上辈）
-                        type = fwd ? StepType.DOWN : StepType.UP;
-                        break;
-                    case "SPOUSE_OF":  type = StepType.SPOUSE;  break;
-                    case "SIBLING_OF": type = StepType.SIBLING; break;
-                    default: log.warn("未知边类型: {}", edge); return null;
-                }
-                steps.add(new Step(type, nextId, parentGender, childGender, nextOlderThan));
-                currentId = nextId;
-            }
+            return GraphEdge.pathOf(path);
         } catch (Exception e) {
             log.error("路径步骤提取失败: {}", e.getMessage());
             return null;
         }
-        return steps;
     }
 
     // ══ 称谓映射（核心逻辑）══════════════════════════════
 
-    private String mapToKinship(List<Step> steps, Long viewerId, Map<Long, Integer> genders) {
+    /** 签名首次出现时执行；包内可见供 bench 中的逐步解析基准对照 */
+    String mapToKinship(List<Step> steps, Long viewerId, Map<Long, Integer> genders) {
         int myG   = genders.getOrDefault(viewerId, 0);
         int n     = steps.size();
         Step s1   = steps.get(0);
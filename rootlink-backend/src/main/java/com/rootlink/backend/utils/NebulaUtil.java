@@ -1,17 +1,19 @@
 package com.rootlink.backend.utils;
 
 import com.vesoft.nebula.client.graph.data.PathWrapper;
+import com.vesoft.nebula.client.graph.data.Relationship;
 import com.vesoft.nebula.client.graph.data.ResultSet;
 import com.vesoft.nebula.client.graph.data.ValueWrapper;
-import com.vesoft.nebula.client.graph.net.NebulaPool;
-import com.vesoft.nebula.client.graph.net.Session;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 
 /**
  * NebulaGraph 工具类
@@ -21,75 +23,136 @@ import java.util.*;
  *   EDGE PARENT_OF(parent_gender int, child_gender int)   父/母→子/女
  *   EDGE SPOUSE_OF()                                       配偶（双向）
  *   EDGE SIBLING_OF()                                      兄弟姐妹（双向）
+ *   TAG  SchemaMeta(version int)                          Schema 版本标记（vid=-1）
+ *
+ * 连接：由 NebulaConnectionManager 管理（会话池、语句超时、熔断与后台重连）；
+ *   isAvailable() 随熔断状态变化，调用方每次使用前判断，不可用时走降级路径。
+ *   Schema 在应用就绪后由后台线程初始化，校验通过前 isAvailable()=false。
  */
 @Slf4j
 @Component
 public class NebulaUtil {
 
-    @Autowired(required = false)
-    private NebulaPool nebulaPool;
-
-    @Value("${nebula.graph.username:root}")
-    private String username;
-
-    @Value("${nebula.graph.password:nebula}")
-    private String password;
+    @Autowired private NebulaConnectionManager connections;
 
     @Value("${nebula.graph.space:rootlink_family}")
     private String space;
 
+    /** 已连接且未熔断 */
     public boolean isAvailable() {
-        return nebulaPool != null;
+        return connections.isAvailable();
+    }
+
+    /** nebula.enabled=true（可能暂时熔断） */
+    public boolean isEnabled() {
+        return connections.isEnabled();
     }
 
     // ── Schema 初始化 ────────────────────────────────
 
+    /**
+     * Schema 版本：修改下方建表语句时递增。
+     * 图空间内 SchemaMeta 顶点（vid=-1）记录已应用的版本，与之一致时跳过建表语句。
+     */
+    private static final int SCHEMA_VERSION = 1;
+    private static final long SCHEMA_META_VID = -1;
+
+    /** 注册连接钩子；首次连接放到应用就绪后，不阻塞启动 */
     @PostConstruct
-    public void initSchema() {
-        if (!isAvailable()) return;
+    public void init() {
+        if (!connections.isEnabled()) {
+            log.info("NebulaGraph 已禁用（nebula.enabled=false），将使用降级推断");
+            return;
+        }
+        connections.onConnect(this::initSchema);
+    }
+
+    /**
+     * 应用就绪后在重连线程中建立连接并校验 Schema；
+     * 完成前 isAvailable()=false，图相关功能走降级路径，其他接口照常服务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void connectWhenReady() {
+        if (!connections.isEnabled()) return;
+        connections.connectAsync();
+        log.info("NebulaGraph 后台连接中，Schema 就绪后启用图推断");
+    }
+
+    /** 连接钩子：每次（重新）连接后执行，语句均幂等；失败抛异常，由连接管理器稍后重试 */
+    private void initSchema() {
         try {
-            // 1. 创建图空间
-            executeOnMeta(String.format(
-                "CREATE SPACE IF NOT EXISTS `%s`" +
-                "(partition_num=1,replica_factor=1,vid_type=INT64)", space));
-            
-            // 2. 等待图空间就绪（最多重试 10 次，共 20 秒）
-            boolean spaceReady = false;
-            for (int i = 0; i < 10; i++) {
-                Thread.sleep(2000);  // 每次等 2 秒
-                try {
-                    // 尝试切换图空间，成功则跳出循环
-                    doExecute("USE " + space);
-                    spaceReady = true;
-                    log.info("图空间 {} 已就绪（等待 {}s）", space, (i+1)*2);
-                    break;
-                } catch (Exception e) {
-                    if (i == 9) {
-                        // 最后一次还是失败，抛出异常
-                        throw new RuntimeException("图空间创建超时，请检查 NebulaGraph 服务状态");
-                    }
-                    // 否则继续等待
-                }
+            // 1. 图空间已存在时直接建立会话池；否则创建并等待就绪（最多 20 秒）
+            if (!trySessionPool()) {
+                ResultSet created = connections.executeOnMeta(String.format(
+                    "CREATE SPACE IF NOT EXISTS `%s`" +
+                    "(partition_num=1,replica_factor=1,vid_type=INT64)", space));
+                if (!created.isSucceeded())
+                    throw new IllegalStateException("创建图空间失败: " + created.getErrorMessage());
+                if (!await(this::trySessionPool))
+                    throw new IllegalStateException("图空间创建超时，请检查 NebulaGraph 服务状态");
+                log.info("图空间 {} 已就绪", space);
             }
-            
-            if (!spaceReady) {
-                throw new RuntimeException("图空间未就绪，Schema 初始化中止");
+
+            // 2. 版本一致则跳过
+            int applied = appliedSchemaVersion();
+            if (applied >= SCHEMA_VERSION) {
+                log.info("NebulaGraph Schema 已是最新（v{}），跳过初始化", applied);
+                return;
             }
 
             // 3. 创建 TAG 和 EDGE（此时图空间已就绪）
-            execute("CREATE TAG IF NOT EXISTS Person(name string,gender int,life_status int)");
-            execute("CREATE EDGE IF NOT EXISTS PARENT_OF(parent_gender int,child_gender int)");
-            execute("CREATE EDGE IF NOT EXISTS SPOUSE_OF()");
+            schema("CREATE TAG IF NOT EXISTS Person(name string,gender int,life_status int)");
+            schema("CREATE EDGE IF NOT EXISTS PARENT_OF(parent_gender int,child_gender int)");
+            schema("CREATE EDGE IF NOT EXISTS SPOUSE_OF()");
             // seniority: 在 src->dst 边上，1=src比dst年长(src是哥/姐), 2=src比dst年幼(src是弟/妹), 0=未知
-            execute("CREATE EDGE IF NOT EXISTS SIBLING_OF(seniority int DEFAULT 0)");
-            // 若 SIBLING_OF 已存在但无 seniority 属性，尝试 ALTER 添加
-            try { execute("ALTER EDGE SIBLING_OF ADD (seniority int DEFAULT 0)"); }
-            catch (Exception alterEx) { log.debug("SIBLING_OF seniority 属性已存在，跳过 ALTER"); }
-            Thread.sleep(1000);
-            log.info("NebulaGraph Schema 初始化完成");
+            schema("CREATE EDGE IF NOT EXISTS SIBLING_OF(seniority int DEFAULT 0)");
+            // 若 SIBLING_OF 已存在但无 seniority 属性，尝试 ALTER 添加（已存在时报错，忽略）
+            connections.execute("ALTER EDGE SIBLING_OF ADD (seniority int DEFAULT 0)");
+            schema("CREATE TAG IF NOT EXISTS SchemaMeta(version int)");
+
+            // 4. 新建的 TAG / EDGE 需等 graphd 同步后才可写入：轮询写版本标记，成功即说明 Schema 已生效
+            String mark = String.format("INSERT VERTEX SchemaMeta(version) VALUES %d:(%d)",
+                    SCHEMA_META_VID, SCHEMA_VERSION);
+            if (!await(() -> connections.execute(mark).isSucceeded()))
+                throw new IllegalStateException("Schema 同步超时，请检查 NebulaGraph 服务状态");
+            log.info("NebulaGraph Schema 初始化完成（v{} → v{}）", applied, SCHEMA_VERSION);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Schema 初始化被中断", e);
+        }
+    }
+
+    private boolean trySessionPool() {
+        try {
+            connections.openSessionPool();
+            return true;
         } catch (Exception e) {
-            log.error("NebulaGraph Schema 初始化失败：{}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /** 已应用的 Schema 版本，尚无标记（含 SchemaMeta 不存在）时为 0 */
+    private int appliedSchemaVersion() {
+        ResultSet rs = connections.execute(String.format(
+                "FETCH PROP ON SchemaMeta %d YIELD SchemaMeta.version AS v", SCHEMA_META_VID));
+        if (!rs.isSucceeded() || rs.rowsSize() == 0) return 0;
+        ValueWrapper v = rs.rowValues(0).get("v");
+        return v == null || !v.isLong() ? 0 : (int) v.asLong();
+    }
+
+    /** 每 2 秒重试一次，最多 10 次 */
+    private static boolean await(BooleanSupplier ready) throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            if (ready.getAsBoolean()) return true;
+            Thread.sleep(2000);
         }
+        return false;
+    }
+
+    private void schema(String nGQL) {
+        ResultSet rs = connections.execute(nGQL);
+        if (!rs.isSucceeded())
+            throw new IllegalStateException("Schema 语句执行失败: " + nGQL + " | " + rs.getErrorMessage());
     }
 
     // ── 基础执行 ─────────────────────────────────────
@@ -98,19 +161,10 @@ public class NebulaUtil {
         return doExecute(nGQL);
     }
 
-    public void execute(String nGQL) {
-        doExecute(nGQL);
-    }
-
     private ResultSet doExecute(String nGQL) {
-        if (!isAvailable()) throw new RuntimeException("NebulaGraph 未启用");
-        Session session = null;
+        if (!isAvailable()) throw new RuntimeException("NebulaGraph 未启用或熔断中");
         try {
-            session = nebulaPool.getSession(username, password, true);
-            ResultSet useRs = session.execute("USE `" + space + "`");
-            if (!useRs.isSucceeded())
-                throw new RuntimeException("切换图空间失败: " + useRs.getErrorMessage());
-            ResultSet rs = session.execute(nGQL);
+            ResultSet rs = connections.execute(nGQL);
             if (!rs.isSucceeded())
                 log.warn("nGQL 执行警告: {} | 错误: {}", nGQL, rs.getErrorMessage());
             else
@@ -119,163 +173,159 @@ public class NebulaUtil {
         } catch (Exception e) {
             log.error("NebulaGraph 执行异常 nGQL={}", nGQL, e);
             throw new RuntimeException("图数据库操作失败: " + e.getMessage(), e);
-        } finally {
-            if (session != null) session.release();
         }
     }
 
-    private void executeOnMeta(String nGQL) {
-        if (!isAvailable()) return;
-        Session session = null;
-        try {
-            session = nebulaPool.getSession(username, password, false);
-            session.execute(nGQL);
-        } catch (Exception e) {
-            log.warn("Meta 语句执行失败: {}", e.getMessage());
-        } finally {
-            if (session != null) session.release();
-        }
+    /** 执行并校验结果，失败抛异常（批量写入需要感知失败时使用） */
+    ResultSet executeChecked(String nGQL) {
+        ResultSet rs = doExecute(nGQL);
+        if (!rs.isSucceeded())
+            throw new RuntimeException("nGQL 执行失败: " + rs.getErrorMessage());
+        return rs;
     }
 
     // ── 顶点操作 ─────────────────────────────────────
 
-    public void insertPerson(Long userId, String name, Integer gender) {
-        if (!isAvailable()) return;
-        try {
-            String safeName = name == null ? "" : name.replace("'", "\\'");
-            int g = gender != null ? gender : 0;
-            execute(String.format(
-                "INSERT VERTEX IF NOT EXISTS Person(name,gender,life_status) VALUES %d:('%s',%d,0)",
-                userId, safeName, g));
-            log.info("Person 顶点写入: userId={}", userId);
-        } catch (Exception e) {
-            log.error("写入 Person 顶点失败 userId={}: {}", userId, e.getMessage());
-        }
+    static final String INSERT_PERSON = "INSERT VERTEX IF NOT EXISTS Person(name,gender,life_status) VALUES ";
+
+    /** Person 顶点的 VALUES 子句，如 1:('张三',1,0) */
+    static String personValue(Long userId, String name, Integer gender) {
+        String safeName = name == null ? "" : name.replace("'", "\\'");
+        return String.format("%d:('%s',%d,0)", userId, safeName, gender != null ? gender : 0);
     }
 
-    public void updateLifeStatus(Long userId, int lifeStatus) {
-        if (!isAvailable()) return;
-        try {
-            execute(String.format(
-                "UPDATE VERTEX ON Person %d SET life_status=%d", userId, lifeStatus));
-        } catch (Exception e) {
-            log.error("更新 Nebula 生命状态失败 userId={}: {}", userId, e.getMessage());
-        }
+    static String lifeStatusStatement(Long userId, int lifeStatus) {
+        return String.format("UPDATE VERTEX ON Person %d SET life_status=%d", userId, lifeStatus);
+    }
+
+    /** 顶点不存在时一并创建（nebula 未启用期间注册的用户） */
+    static String genderStatement(Long userId, Integer gender) {
+        return String.format("UPSERT VERTEX ON Person %d SET gender=%d", userId, gender != null ? gender : 0);
     }
 
     // ── 边操作 ───────────────────────────────────────
 
+    /** 单条边的 VALUES 子句，如 PARENT_OF / "1->2:(1,2)" */
+    record EdgeValue(String type, String value) {}
+
+    /** 批量读写时单条语句的最大边数 */
+    static final int EDGE_BATCH_SIZE = 200;
+
+    /** GO 单条语句的最大起点数 */
+    private static final int VERTEX_BATCH_SIZE = 500;
+
+    static final String EDGE_TYPES = "PARENT_OF, SPOUSE_OF, SIBLING_OF";
+
     /**
-     * 将已确认关系同步写入图数据库。
+     * 重建家族内的全部亲属边（全量重推用）：
+     *   1. GO 一次取出 members 之间的全部边（两端都在家族内的边必然是某个成员的出边，无需 BIDIRECT）
+     *   2. 按边类型分批 DELETE EDGE
+     *   3. 按边类型分批多值 INSERT EDGE 写回 relations，携带最新 gender
+     * 语句数 ≈ 边数 / EDGE_BATCH_SIZE，与成员数的平方无关；任一语句失败抛异常，Nebula 不可用返回 false
+     */
+    public boolean rebuildFamilyEdges(Collection<Long> members, List<GraphStore.RelationSpec> relations) {
+        if (!isAvailable()) return false;
+        if (members.isEmpty()) return true;
+        Set<Long> memberSet = new HashSet<>(members);
+
+        // 1. 取家族内已有边（type → "src->dst@rank"）
+        Map<String, List<String>> existing = new LinkedHashMap<>();
+        int found = 0;
+        List<Long> ids = new ArrayList<>(memberSet);
+        for (int i = 0; i < ids.size(); i += VERTEX_BATCH_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(i + VERTEX_BATCH_SIZE, ids.size()));
+            ResultSet rs = executeChecked(String.format(
+                "GO FROM %s OVER %s YIELD edge AS e", joinIds(chunk), EDGE_TYPES));
+            for (int r = 0; r < rs.rowsSize(); r++) {
+                ValueWrapper vw = rs.rowValues(r).get("e");
+                if (vw == null || !vw.isEdge()) continue;
+                Relationship rel = vw.asRelationship();
+                long dst = rel.dstId().asLong();
+                if (!memberSet.contains(dst)) continue;
+                existing.computeIfAbsent(rel.edgeName(), k -> new ArrayList<>())
+                        .add(rel.srcId().asLong() + "->" + dst + "@" + rel.ranking());
+                found++;
+            }
+        }
+
+        // 2. 分批删除
+        int statements = 0;
+        for (Map.Entry<String, List<String>> e : existing.entrySet()) {
+            List<String> keys = e.getValue();
+            for (int i = 0; i < keys.size(); i += EDGE_BATCH_SIZE) {
+                executeChecked("DELETE EDGE " + e.getKey() + " "
+                        + String.join(", ", keys.subList(i, Math.min(i + EDGE_BATCH_SIZE, keys.size()))));
+                statements++;
+            }
+        }
+
+        // 3. 分批写回（同一对人同类型的边按 VALUES 顺序后写覆盖先写，与逐条写入一致）
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        int written = 0;
+        for (GraphStore.RelationSpec rel : relations) {
+            if (rel.chain() == null || rel.chain().isEmpty()) continue;
+            for (EdgeValue v : edgeValues(rel.chain(), rel.userAId(), rel.userBId(),
+                                          rel.userAGender(), rel.userBGender())) {
+                values.computeIfAbsent(v.type(), k -> new ArrayList<>()).add(v.value());
+                written++;
+            }
+        }
+        for (Map.Entry<String, List<String>> e : values.entrySet()) {
+            List<String> vals = e.getValue();
+            for (int i = 0; i < vals.size(); i += EDGE_BATCH_SIZE) {
+                executeChecked(insertEdgeStatement(e.getKey(), vals.subList(i, Math.min(i + EDGE_BATCH_SIZE, vals.size()))));
+                statements++;
+            }
+        }
+        log.info("Nebula 家族边重建: 成员 {} 人，删除 {} 条，写入 {} 条，共 {} 条写语句",
+                memberSet.size(), found, written, statements);
+        return true;
+    }
+
+    /**
+     * 已确认关系对应的边（chain 首元素决定边类型与方向，见 GraphEdge.fromChain）
      * chain 含义：申请人（A）描述对方（B）是"我的 xxx"
      *   ["父"] → B 是 A 的父亲 → B PARENT_OF A
      *   ["子"] → B 是 A 的儿子 → A PARENT_OF B
      *   ["配偶"] → 双向 SPOUSE_OF
      *   ["同辈",...] → 双向 SIBLING_OF
      */
-    public void syncRelationToGraph(List<String> chain, Long userAId, Long userBId,
-                                    Integer userAGender, Integer userBGender) {
-        if (!isAvailable() || chain == null || chain.isEmpty()) return;
-        try {
-            String first = chain.get(0);
-            int gA = userAGender != null ? userAGender : 0;
-            int gB = userBGender != null ? userBGender : 0;
-
-            if ("父".equals(first) || "母".equals(first)) {
-                // B 是 A 的父/母 → B PARENT_OF A（B是父母，src=B, dst=A）
-                execute(String.format(
-                    "INSERT EDGE PARENT_OF(parent_gender,child_gender) VALUES %d->%d:(%d,%d)",
-                    userBId, userAId, gB, gA));
-
-            } else if ("子".equals(first) || "女".equals(first)) {
-                // B 是 A 的子/女 → A PARENT_OF B（A是父母，src=A, dst=B）
-                execute(String.format(
-                    "INSERT EDGE PARENT_OF(parent_gender,child_gender) VALUES %d->%d:(%d,%d)",
-                    userAId, userBId, gA, gB));
-
-            } else if ("配偶".equals(first)) {
-                execute(String.format(
-                    "INSERT EDGE SPOUSE_OF() VALUES %d->%d:(),%d->%d:()",
-                    userAId, userBId, userBId, userAId));
-
-            } else if ("哥".equals(first) || "姐".equals(first)) {
-                // B 是 A 的哥/姐（B比A年长）
-                // A->B: A是年幼的(seniority=2), B->A: B是年长的(seniority=1)
-                execute(String.format(
-                    "INSERT EDGE SIBLING_OF(seniority) VALUES %d->%d:(2),%d->%d:(1)",
-                    userAId, userBId, userBId, userAId));
-
-            } else if ("弟".equals(first) || "妹".equals(first)) {
-                // B 是 A 的弟/妹（A比B年长）
-                // A->B: A是年长的(seniority=1), B->A: B是年幼的(seniority=2)
-                execute(String.format(
-                    "INSERT EDGE SIBLING_OF(seniority) VALUES %d->%d:(1),%d->%d:(2)",
-                    userAId, userBId, userBId, userAId));
-
-            } else if ("同辈".equals(first)) {
-                // 兼容旧的"同辈"前缀格式，从chain[2]判断B的辈分
-                String senType = chain.size() >= 3 ? chain.get(2) : "";
-                if ("哥".equals(senType) || "姐".equals(senType)) {
-                    // B比A年长：A->B seniority=2, B->A seniority=1
-                    execute(String.format(
-                        "INSERT EDGE SIBLING_OF(seniority) VALUES %d->%d:(2),%d->%d:(1)",
-                        userAId, userBId, userBId, userAId));
-                } else if ("弟".equals(senType) || "妹".equals(senType)) {
-                    // A比B年长：A->B seniority=1, B->A seniority=2
-                    execute(String.format(
-                        "INSERT EDGE SIBLING_OF(seniority) VALUES %d->%d:(1),%d->%d:(2)",
-                        userAId, userBId, userBId, userAId));
-                } else {
-                    execute(String.format(
-                        "INSERT EDGE SIBLING_OF(seniority) VALUES %d->%d:(0),%d->%d:(0)",
-                        userAId, userBId, userBId, userAId));
-                }
-            }
-            log.info("关系同步到 Nebula: A={} B={} chain={}", userAId, userBId, chain);
-        } catch (Exception e) {
-            log.error("关系同步 Nebula 失败 A={} B={}: {}", userAId, userBId, e.getMessage());
-        }
+    static List<EdgeValue> edgeValues(List<String> chain, Long userAId, Long userBId,
+                                      Integer userAGender, Integer userBGender) {
+        List<EdgeValue> values = new ArrayList<>();
+        for (GraphEdge e : GraphEdge.fromChain(chain, userAId, userBId, userAGender, userBGender))
+            values.add(new EdgeValue(e.type(), edgeValue(e)));
+        return values;
     }
 
-    /**
-     * 删除指定用户的 Person 顶点及其所有关联边（用于账号注销）
-     * NebulaGraph 3.x 中删顶点时需先删边，使用 DELETE VERTEX … WITH EDGE 语法
-     */
-    public void deletePersonVertex(Long userId) {
-        if (!isAvailable()) return;
-        try {
-            // WITH EDGE 会级联删除该顶点的所有入边和出边
-            execute(String.format("DELETE VERTEX %d WITH EDGE", userId));
-            log.info("Nebula Person 顶点删除完成: userId={}", userId);
-        } catch (Exception e) {
-            log.error("Nebula 删除顶点失败 userId={}: {}", userId, e.getMessage());
-            throw new RuntimeException("Nebula 删除顶点失败: " + e.getMessage(), e);
-        }
+    /** 单条边的 VALUES 子句，如 1->2:(1,2) */
+    private static String edgeValue(GraphEdge e) {
+        return switch (e.type()) {
+            case "PARENT_OF"  -> String.format("%d->%d:(%d,%d)", e.src(), e.dst(), e.parentGender(), e.childGender());
+            case "SIBLING_OF" -> String.format("%d->%d:(%d)", e.src(), e.dst(), e.seniority());
+            default           -> String.format("%d->%d:()", e.src(), e.dst());
+        };
     }
 
-    /** 删除两人之间所有类型的边 */
-    public void removeRelationFromGraph(Long aId, Long bId) {
-        if (!isAvailable()) return;
-        try {
-            String tpl = "DELETE EDGE %s %d->%d; DELETE EDGE %s %d->%d;";
-            for (String et : new String[]{"PARENT_OF", "SPOUSE_OF", "SIBLING_OF"}) {
-                execute(String.format(tpl, et, aId, bId, et, bId, aId));
-            }
-        } catch (Exception e) {
-            log.warn("Nebula 删除边失败 A={} B={}: {}", aId, bId, e.getMessage());
-        }
+    static String insertEdgeStatement(String type, List<String> values) {
+        String props = switch (type) {
+            case "PARENT_OF"  -> "(parent_gender,child_gender)";
+            case "SIBLING_OF" -> "(seniority)";
+            default           -> "()";
+        };
+        return "INSERT EDGE " + type + props + " VALUES " + String.join(",", values);
     }
 
     // ── 图遍历推断 ───────────────────────────────────
 
     /**
-     * 查询两人之间所有路径（最多 maxSteps 跳）
+     * 查询两人之间所有路径（最多 maxSteps 跳，双向遍历，可沿 PARENT_OF 从子女走到父母）
      */
     public List<PathWrapper> findPaths(Long fromId, Long toId, int maxSteps) {
         if (!isAvailable()) return Collections.emptyList();
         try {
             String nGQL = String.format(
-                "FIND ALL PATH FROM %d TO %d OVER * UPTO %d STEPS YIELD path AS p",
+                "FIND ALL PATH FROM %d TO %d OVER * BIDIRECT UPTO %d STEPS YIELD path AS p",
                 fromId, toId, maxSteps);
             ResultSet rs = executeQuery(nGQL);
             List<PathWrapper> paths = new ArrayList<>();
@@ -290,6 +340,74 @@ public class NebulaUtil {
         }
     }
 
+    /** FIND SHORTEST PATH 单条语句的最大目标数 */
+    private static final int PATH_BATCH_SIZE = 50;
+
+    /**
+     * 批量查询 fromId 到多个目标的最短路径（双向遍历，最多 maxSteps 跳）
+     * 每 PATH_BATCH_SIZE 个目标一条 FIND SHORTEST PATH，结果按目标分组
+     */
+    public Map<Long, List<PathWrapper>> findShortestPaths(Long fromId, Collection<Long> toIds, int maxSteps) {
+        Map<Long, List<PathWrapper>> grouped = new HashMap<>();
+        if (!isAvailable() || toIds.isEmpty()) return grouped;
+        List<Long> targets = new ArrayList<>(toIds);
+        for (int i = 0; i < targets.size(); i += PATH_BATCH_SIZE) {
+            List<Long> chunk = targets.subList(i, Math.min(i + PATH_BATCH_SIZE, targets.size()));
+            String nGQL = String.format(
+                "FIND SHORTEST PATH FROM %d TO %s OVER * BIDIRECT UPTO %d STEPS YIELD path AS p",
+                fromId, joinIds(chunk), maxSteps);
+            try {
+                ResultSet rs = executeQuery(nGQL);
+                for (int r = 0; r < rs.rowsSize(); r++) {
+                    ValueWrapper vw = rs.rowValues(r).get("p");
+                    if (vw == null || !vw.isPath()) continue;
+                    PathWrapper path = vw.asPath();
+                    long key = path.getEndNode().getId().asLong();
+                    grouped.computeIfAbsent(key, k -> new ArrayList<>()).add(path);
+                }
+            } catch (Exception e) {
+                log.error("findShortestPaths 失败 nGQL={}: {}", nGQL, e.getMessage());
+            }
+        }
+        return grouped;
+    }
+
+    private static String joinIds(Collection<Long> ids) {
+        StringJoiner sj = new StringJoiner(",");
+        for (Long id : ids) sj.add(String.valueOf(id));
+        return sj.toString();
+    }
+
+    /**
+     * 取 seeds 周围 steps 跳以内的子图边（三种亲属边，带属性）
+     * 一条 GET SUBGRAPH 完成；SPOUSE_OF / SIBLING_OF 的双向存储按无方向去重
+     *
+     * GET SUBGRAPH N STEPS 只展开前 N-1 步到达的节点的边，两端都在第 N 步才到达的边不返回。
+     * 不影响长度 ≤ steps 的路径：从 seeds 出发的路径上第 i 条边的起点距 seeds 至多 i-1 跳 < steps，
+     * 这条边必然在展开时取到。只需要这类路径的调用方（增量推断、跳数计算）按路径预算传 steps 即可，
+     * 多取一步会让子图按家族规模放大一圈。
+     */
+    public List<GraphEdge> fetchSubgraphEdges(Collection<Long> seeds, int steps) {
+        if (!isAvailable() || seeds.isEmpty()) return Collections.emptyList();
+        String nGQL = String.format(
+            "GET SUBGRAPH WITH PROP %d STEPS FROM %s BOTH PARENT_OF, SPOUSE_OF, SIBLING_OF YIELD EDGES AS rels",
+            steps, joinIds(seeds));
+        ResultSet rs = executeQuery(nGQL);
+        if (!rs.isSucceeded())
+            throw new RuntimeException("GET SUBGRAPH 失败: " + rs.getErrorMessage());
+        Map<String, GraphEdge> edges = new LinkedHashMap<>();
+        for (int i = 0; i < rs.rowsSize(); i++) {
+            ValueWrapper vw = rs.rowValues(i).get("rels");
+            if (vw == null || !vw.isList()) continue;
+            for (ValueWrapper ev : vw.asList()) {
+                if (!ev.isEdge()) continue;
+                GraphEdge e = GraphEdge.of(ev.asRelationship());
+                edges.putIfAbsent(e.undirectedKey(), e);
+            }
+        }
+        return new ArrayList<>(edges.values());
+    }
+
     /**
      * 查询某人 N 跳以内的所有邻居节点 ID
      */
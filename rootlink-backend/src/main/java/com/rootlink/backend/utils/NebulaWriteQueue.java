@@ -0,0 +1,480 @@
+package com.rootlink.backend.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.rootlink.backend.entity.GraphOutbox;
+import com.rootlink.backend.mapper.GraphOutboxMapper;
+import com.vesoft.nebula.client.graph.data.ResultSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nebula 写入队列（transactional outbox）：顶点 / 边变更写入 graph_outbox 表，由后台投递线程按序写入 Nebula
+ *
+ * 入队：与业务数据（user / user_relation）在同一事务中插入 outbox 记录，事务回滚则变更一并撤销；
+ *   事务提交后唤醒投递线程，无事务时立即唤醒。请求线程不再等待 graphd。
+ * 投递：按 id 顺序认领一批已到期的待同步记录（READ COMMITTED + FOR UPDATE 短事务内将 next_retry_time 设为
+ *   认领到期时间后立即提交，行锁不跨 graphd 调用），已被认领 / 处于退避期的记录阻塞其后涉及相同顶点的记录；
+ *   投递完成后再开短事务写回结果并释放未处理记录的认领。节点宕机时认领 claim-seconds 后过期，由其他节点重投。
+ *   同类变更合并为一条多值语句（INSERT VERTEX / INSERT EDGE / DELETE EDGE 按类型），
+ *   多条语句再以 ; 拼接为一次请求；失败时逐条重放定位失败记录。
+ * 顺序：变更只会并入"之后没有其他语句涉及其顶点"的同类语句，否则另起一条；
+ *   某条记录失败后本批后续记录不再投递、释放认领，失败记录退避期间只有涉及其顶点的后续记录等待，
+ *   保证同一顶点上的变更按入队顺序生效，其他顶点的变更照常投递。
+ * 重试：语句均幂等（INSERT 覆盖 / IF NOT EXISTS / DELETE / UPDATE SET），重放无副作用；
+ *   超过 max-attempts 次的记录标记放弃，不再阻塞后续记录（可由全量重推修复）。
+ *
+ * 熔断：nebula.enabled=true 时始终入队；Nebula 熔断期间暂停投递，恢复后按序续投，
+ *   因熔断失败的记录不计入重试次数。
+ *
+ * 图读取依赖最新边时（如推断前）调用 flush()，等待本节点此前入队的变更全部投递（已失败退避中的记录不等待）：
+ *   outbox id 由自增分配、事务乱序提交，投递进度（appliedId）可能越过尚未提交的较小 id，
+ *   因此以查表（id ≤ 本节点最大入队 id 的待同步记录是否存在）为准，appliedId 仅用于唤醒等待。
+ *
+ * 指标：rootlink.graph.outbox.relay（单批投递耗时）/ rootlink.graph.outbox.failed（失败记录数）
+ *       rootlink.graph.outbox.dead（放弃记录数）
+ */
+@Slf4j
+@Component
+public class NebulaWriteQueue {
+
+    /** 单次请求最多拼接的语句数 */
+    private static final int STATEMENTS_PER_REQUEST = 16;
+
+    /** outbox.status */
+    private static final int PENDING = 0, SENT = 1, DEAD = 2;
+
+    /** 退避上限（秒） */
+    private static final long MAX_BACKOFF_SECONDS = 300;
+
+    @Autowired private NebulaUtil nebulaUtil;
+    @Autowired private GraphOutboxMapper outboxMapper;
+    @Autowired private PlatformTransactionManager transactionManager;
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${app.graph-outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.graph-outbox.relay-interval-ms:1000}")
+    private long relayIntervalMs;
+
+    @Value("${app.graph-outbox.flush-timeout-ms:5000}")
+    private long flushTimeoutMs;
+
+    @Value("${app.graph-outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${app.graph-outbox.retention-hours:24}")
+    private long retentionHours;
+
+    @Value("${app.graph-outbox.claim-seconds:60}")
+    private long claimSeconds;
+
+    /** 一批投递结果：rows 锁定的记录数，reachedId 本批已处理（同步 / 放弃）的最大 id（仅用于唤醒 flush），blocked 是否因失败中止 */
+    private record Relayed(int rows, long reachedId, boolean blocked) {}
+
+    private TransactionTemplate relayTx;
+    private Thread relay;
+    private volatile boolean running;
+
+    /** 本节点入队的最大 outbox id */
+    private final AtomicLong lastEnqueuedId = new AtomicLong();
+
+    /** 本节点已投递的最大连续 outbox id */
+    private volatile long appliedId;
+    private final Object appliedMonitor = new Object();
+
+    private final Object signal = new Object();
+    private boolean signalled;
+
+    private Timer relayTimer;
+    private Counter failedCounter;
+    private Counter deadCounter;
+
+    @PostConstruct
+    public void start() {
+        relayTx = new TransactionTemplate(transactionManager);
+        relayTx.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        relayTimer = Timer.builder("rootlink.graph.outbox.relay")
+                .description("graph_outbox 单批投递耗时").register(meterRegistry);
+        failedCounter = Counter.builder("rootlink.graph.outbox.failed").register(meterRegistry);
+        deadCounter = Counter.builder("rootlink.graph.outbox.dead").register(meterRegistry);
+
+        running = true;
+        relay = new Thread(this::relayLoop, "graph-outbox-relay");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        wakeUp();
+        try {
+            relay.join(flushTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ── 入队 ─────────────────────────────────────────
+
+    public void insertPerson(Long userId, String name, Integer gender) {
+        if (!nebulaUtil.isEnabled()) return;
+        enqueue("VERTEX:Person", NebulaUtil.personValue(userId, name, gender), userId, null);
+    }
+
+    public void updateLifeStatus(Long userId, int lifeStatus) {
+        if (!nebulaUtil.isEnabled()) return;
+        enqueue(null, NebulaUtil.lifeStatusStatement(userId, lifeStatus), userId, null);
+    }
+
+    public void updateGender(Long userId, Integer gender) {
+        if (!nebulaUtil.isEnabled()) return;
+        enqueue(null, NebulaUtil.genderStatement(userId, gender), userId, null);
+    }
+
+    /** 删除顶点及其所有边（账号注销） */
+    public void deletePerson(Long userId) {
+        if (!nebulaUtil.isEnabled()) return;
+        enqueue(null, String.format("DELETE VERTEX %d WITH EDGE", userId), userId, null);
+    }
+
+    /** 已确认关系写边（chain 为 A 视角，见 NebulaUtil.edgeValues） */
+    public void syncRelation(List<String> chain, Long userAId, Long userBId,
+                             Integer userAGender, Integer userBGender) {
+        if (!nebulaUtil.isEnabled() || chain == null || chain.isEmpty()) return;
+        for (NebulaUtil.EdgeValue v : NebulaUtil.edgeValues(chain, userAId, userBId, userAGender, userBGender))
+            enqueue("EDGE:" + v.type(), v.value(), userAId, userBId);
+    }
+
+    /** 删除两人之间所有类型的边 */
+    public void removeRelation(Long aId, Long bId) {
+        if (!nebulaUtil.isEnabled()) return;
+        for (String type : NebulaUtil.EDGE_TYPES.split(", ")) {
+            enqueue("DELETE:" + type, aId + "->" + bId, aId, bId);
+            enqueue("DELETE:" + type, bId + "->" + aId, aId, bId);
+        }
+    }
+
+    /**
+     * 等待本节点此前入队的变更全部投递，超时返回 false
+     * 由其他节点投递或所在事务已回滚的记录，通过查表确认
+     */
+    public boolean flush() {
+        long target = lastEnqueuedId.get();
+        if (target == 0 || !hasPending(target)) return true;
+        if (!nebulaUtil.isAvailable()) return false;   // 熔断期间不等待
+        wakeUp();
+
+        long deadline = System.currentTimeMillis() + flushTimeoutMs;
+        try {
+            while (true) {
+                long remain = deadline - System.currentTimeMillis();
+                if (remain <= 0) {
+                    log.warn("[图同步] flush 超时，outbox 投递进度 {} / {}", appliedId, target);
+                    return false;
+                }
+                // appliedId 只作为提示：投递推进时被唤醒后查表确认
+                synchronized (appliedMonitor) {
+                    appliedMonitor.wait(Math.min(remain, 200));
+                }
+                if (!hasPending(target)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** 定时清理已同步的记录（放弃的记录保留备查） */
+    @Scheduled(fixedDelayString = "${app.graph-outbox.purge-interval-ms:3600000}")
+    public void purgeSent() {
+        int removed = outboxMapper.delete(new LambdaQueryWrapper<GraphOutbox>()
+                .eq(GraphOutbox::getStatus, SENT)
+                .lt(GraphOutbox::getUpdateTime, LocalDateTime.now().minusHours(retentionHours)));
+        if (removed > 0) log.info("[图同步] 清理已同步 outbox 记录 {} 条", removed);
+    }
+
+    // ══ 内部实现 ══════════════════════════════════════════
+
+    private void enqueue(String group, String value, Long vertexA, Long vertexB) {
+        GraphOutbox row = new GraphOutbox();
+        row.setOpGroup(group);
+        row.setOpValue(value);
+        row.setVertexA(vertexA);
+        row.setVertexB(vertexB);
+        row.setStatus(PENDING);
+        row.setAttempts(0);
+        outboxMapper.insert(row);
+        lastEnqueuedId.accumulateAndGet(row.getId(), Math::max);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        } else {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (signal) {
+            signalled = true;
+            signal.notifyAll();
+        }
+    }
+
+    /** 已失败退避中的记录不计入：等待无助于其投递 */
+    private boolean hasPending(long uptoId) {
+        return outboxMapper.selectCount(new LambdaQueryWrapper<GraphOutbox>()
+                .eq(GraphOutbox::getStatus, PENDING)
+                .eq(GraphOutbox::getAttempts, 0)
+                .le(GraphOutbox::getId, uptoId)) > 0;
+    }
+
+    private void relayLoop() {
+        while (running) {
+            try {
+                Relayed r;
+                do {
+                    r = relayOnce();
+                    if (r.reachedId() > 0) advance(r.reachedId());
+                } while (running && !r.blocked() && r.rows() >= batchSize);
+            } catch (Exception e) {
+                log.error("[图同步] outbox 投递异常", e);
+            }
+            synchronized (signal) {
+                try {
+                    if (!signalled && running) signal.wait(relayIntervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                signalled = false;
+            }
+        }
+    }
+
+    /** 认领一批待同步记录（短事务）→ 投递（不持行锁）→ 写回结果并释放剩余认领（短事务） */
+    private Relayed relayOnce() {
+        if (!nebulaUtil.isAvailable()) return new Relayed(0, 0, true);
+        List<GraphOutbox> rows = relayTx.execute(status -> claim());
+        if (rows == null) return new Relayed(0, 0, false);
+        if (rows.isEmpty()) return new Relayed(0, 0, true);
+
+        long start = System.nanoTime();
+        List<Long> sent = new ArrayList<>();
+        List<GraphOutbox> failed = new ArrayList<>();
+        long reachedId = 0;
+        boolean blocked = false;
+        if (executeAll(coalesce(rows))) {
+            for (GraphOutbox row : rows) sent.add(row.getId());
+            reachedId = rows.get(rows.size() - 1).getId();
+        } else {
+            // 逐条重放定位失败记录，失败记录之后的本批记录留待下次按序重试
+            for (GraphOutbox row : rows) {
+                String error = execute(statement(row.getOpGroup(), List.of(row.getOpValue())));
+                if (error == null) {
+                    sent.add(row.getId());
+                } else if (!nebulaUtil.isAvailable()) {
+                    // graphd 不可用（已熔断）不计入重试次数，恢复后按序续投
+                    blocked = true;
+                    break;
+                } else {
+                    row.setLastError(error);
+                    failed.add(row);
+                    if (!willDie(row)) {
+                        blocked = true;
+                        break;
+                    }
+                }
+                reachedId = row.getId();
+            }
+        }
+
+        Set<Long> handled = new HashSet<>(sent);
+        for (GraphOutbox row : failed) handled.add(row.getId());
+        List<Long> unclaimed = rows.stream().map(GraphOutbox::getId).filter(id -> !handled.contains(id)).toList();
+        relayTx.executeWithoutResult(status -> {
+            if (!sent.isEmpty()) {
+                outboxMapper.update(null, new LambdaUpdateWrapper<GraphOutbox>()
+                        .set(GraphOutbox::getStatus, SENT)
+                        .set(GraphOutbox::getNextRetryTime, null)
+                        .in(GraphOutbox::getId, sent));
+            }
+            for (GraphOutbox row : failed) fail(row, row.getLastError());
+            if (!unclaimed.isEmpty()) {
+                outboxMapper.update(null, new LambdaUpdateWrapper<GraphOutbox>()
+                        .set(GraphOutbox::getNextRetryTime, null)
+                        .in(GraphOutbox::getId, unclaimed)
+                        .eq(GraphOutbox::getStatus, PENDING));
+            }
+        });
+        relayTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.debug("[图同步] outbox 投递 {} 条，成功 {} 条", rows.size(), sent.size());
+        return new Relayed(rows.size(), reachedId, blocked);
+    }
+
+    /**
+     * 锁定一批已到期的待同步记录并将 next_retry_time 设为认领到期时间，提交后行锁即释放
+     * 顺序只在同一顶点上保证：某顶点上有更早的记录已被认领或处于退避期时，其后涉及该顶点的记录本轮不认领
+     * （被跳过的记录同样阻塞其后涉及其顶点的记录）；不相关的记录照常投递，单条失败不阻塞整个队列。
+     * 无待同步记录返回 null；到期记录均被更早记录阻塞时返回空列表
+     */
+    private List<GraphOutbox> claim() {
+        LocalDateTime now = LocalDateTime.now();
+        List<GraphOutbox> rows = outboxMapper.lockPending(now, batchSize);
+        if (rows.isEmpty()) return null;
+
+        Map<Long, Long> blockedFrom = new HashMap<>();   // 顶点 → 涉及它的最早一条未投递（认领中 / 退避中 / 本轮跳过）记录 id
+        for (GraphOutbox d : outboxMapper.selectDeferred(now)) block(blockedFrom, d);
+        List<GraphOutbox> claimed = new ArrayList<>(rows.size());
+        for (GraphOutbox row : rows) {
+            if (isBlocked(blockedFrom, row)) block(blockedFrom, row);
+            else claimed.add(row);
+        }
+        if (claimed.isEmpty()) return List.of();
+
+        outboxMapper.update(null, new LambdaUpdateWrapper<GraphOutbox>()
+                .set(GraphOutbox::getNextRetryTime, now.plusSeconds(claimSeconds))
+                .in(GraphOutbox::getId, claimed.stream().map(GraphOutbox::getId).toList()));
+        return claimed;
+    }
+
+    private static boolean isBlocked(Map<Long, Long> blockedFrom, GraphOutbox row) {
+        Long a = blockedFrom.get(row.getVertexA());
+        Long b = row.getVertexB() == null ? null : blockedFrom.get(row.getVertexB());
+        return (a != null && a < row.getId()) || (b != null && b < row.getId());
+    }
+
+    private static void block(Map<Long, Long> blockedFrom, GraphOutbox row) {
+        blockedFrom.merge(row.getVertexA(), row.getId(), Math::min);
+        if (row.getVertexB() != null) blockedFrom.merge(row.getVertexB(), row.getId(), Math::min);
+    }
+
+    /** 本次失败后是否达到重试上限（放弃的记录不再阻塞后续记录） */
+    private boolean willDie(GraphOutbox row) {
+        return (row.getAttempts() == null ? 0 : row.getAttempts()) + 1 >= maxAttempts;
+    }
+
+    /** 记录失败并退避；超过重试次数时标记放弃（见 willDie） */
+    private void fail(GraphOutbox row, String error) {
+        failedCounter.increment();
+        int attempts = (row.getAttempts() == null ? 0 : row.getAttempts()) + 1;
+        GraphOutbox patch = new GraphOutbox();
+        patch.setId(row.getId());
+        patch.setAttempts(attempts);
+        patch.setLastError(error.length() > 255 ? error.substring(0, 255) : error);
+        boolean dead = attempts >= maxAttempts;
+        if (dead) {
+            patch.setStatus(DEAD);
+            deadCounter.increment();
+            log.error("[图同步] outbox 记录 {} 重试 {} 次仍失败，放弃: {} | {}",
+                    row.getId(), attempts, row.getOpValue(), error);
+        } else {
+            long backoff = Math.min(1L << Math.min(attempts, 20), MAX_BACKOFF_SECONDS);
+            patch.setNextRetryTime(LocalDateTime.now().plusSeconds(backoff));
+            log.warn("[图同步] outbox 记录 {} 第 {} 次失败，{}s 后重试: {}", row.getId(), attempts, backoff, error);
+        }
+        outboxMapper.updateById(patch);
+    }
+
+    private void advance(long reachedId) {
+        synchronized (appliedMonitor) {
+            if (reachedId > appliedId) appliedId = reachedId;
+            appliedMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * 按顺序合并变更：变更并入最后一条同组语句，前提是该语句之后没有其他语句涉及其顶点；
+     * 否则新起一条语句。多值语句按 EDGE_BATCH_SIZE 拆分。
+     */
+    private static List<String> coalesce(List<GraphOutbox> rows) {
+        List<String> groups = new ArrayList<>();
+        List<List<String>> values = new ArrayList<>();
+        Map<Long, Integer> lastTouch = new HashMap<>();   // 顶点 → 最后涉及它的语句下标
+        Map<String, Integer> lastOfGroup = new HashMap<>();
+
+        for (GraphOutbox row : rows) {
+            List<Long> vertices = row.getVertexB() == null
+                    ? List.of(row.getVertexA()) : List.of(row.getVertexA(), row.getVertexB());
+            int barrier = -1;
+            for (Long v : vertices) barrier = Math.max(barrier, lastTouch.getOrDefault(v, -1));
+            Integer target = row.getOpGroup() == null ? null : lastOfGroup.get(row.getOpGroup());
+            if (target == null || target < barrier) {
+                target = groups.size();
+                groups.add(row.getOpGroup());
+                values.add(new ArrayList<>());
+                if (row.getOpGroup() != null) lastOfGroup.put(row.getOpGroup(), target);
+            }
+            values.get(target).add(row.getOpValue());
+            for (Long v : vertices) lastTouch.put(v, target);
+        }
+
+        List<String> statements = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            List<String> vals = values.get(i);
+            if (groups.get(i) == null) {
+                statements.addAll(vals);
+                continue;
+            }
+            for (int j = 0; j < vals.size(); j += NebulaUtil.EDGE_BATCH_SIZE) {
+                statements.add(statement(groups.get(i),
+                        vals.subList(j, Math.min(j + NebulaUtil.EDGE_BATCH_SIZE, vals.size()))));
+            }
+        }
+        return statements;
+    }
+
+    private static String statement(String group, List<String> values) {
+        if (group == null) return values.get(0);
+        String type = group.substring(group.indexOf(':') + 1);
+        if (group.startsWith("VERTEX:")) return NebulaUtil.INSERT_PERSON + String.join(",", values);
+        if (group.startsWith("EDGE:"))   return NebulaUtil.insertEdgeStatement(type, values);
+        return "DELETE EDGE " + type + " " + String.join(", ", values);
+    }
+
+    /** 拼接执行全部语句，任一请求失败返回 false */
+    private boolean executeAll(List<String> statements) {
+        for (int i = 0; i < statements.size(); i += STATEMENTS_PER_REQUEST) {
+            String joined = String.join("; ",
+                    statements.subList(i, Math.min(i + STATEMENTS_PER_REQUEST, statements.size())));
+            if (execute(joined) != null) return false;
+        }
+        return true;
+    }
+
+    /** 执行一条请求，成功返回 null，失败返回错误信息 */
+    private String execute(String nGQL) {
+        try {
+            ResultSet rs = nebulaUtil.executeQuery(nGQL);
+            if (rs.isSucceeded()) return null;
+            return rs.getErrorMessage();
+        } catch (Exception e) {
+            return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+    }
+}
@@ -6,10 +6,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 亲属关系推断工具
  * 核心逻辑：将关系链（如 ["父","母"]）转换为中文称谓（如"奶奶"）
+ *
+ * 关系链词汇极少（父/母/子/女/哥/弟/姐/妹/配偶/同辈…），实际出现的链也只有几百种：
+ *   - 链统一驻留为规范的不可变实例（intern），jsonToChain 按原始 JSON 串缓存
+ *   - resolveChain / inferChain / reverseChainWithGender 的结果按链签名缓存
+ * 所有缓存有上限，超出后不再写入（只影响命中率，不影响正确性）。
+ * 对外返回的链均为不可变 List，调用方需要修改时自行复制。
  */
 @Slf4j
 @Component
@@ -17,6 +24,21 @@ public class RelationInferenceUtil {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /** 各缓存上限 */
+    private static final int CACHE_LIMIT = 4096;
+
+    private static final List<String> EMPTY_CHAIN = List.of();
+
+    private final Map<List<String>, List<String>> chainPool   = new ConcurrentHashMap<>();
+    private final Map<String, List<String>>       jsonCache   = new ConcurrentHashMap<>();
+    private final Map<List<String>, String>       nameCache   = new ConcurrentHashMap<>();
+    private final Map<InferKey, Optional<List<String>>> inferCache = new ConcurrentHashMap<>();
+    private final Map<ReverseKey, List<String>>   reverseCache = new ConcurrentHashMap<>();
+
+    private record InferKey(List<String> a2b, List<String> b2c) {}
+    /** 逆向链只取决于原链和「我」的性别，对方性别不参与 */
+    private record ReverseKey(List<String> chain, Integer myGender) {}
+
     // =============================================
     // 直系链称谓表（key = 链逗号拼接）
     // =============================================
@@ -204,8 +226,41 @@ public class RelationInferenceUtil {
         }
     }
 
+    // =============================================
+    // 链驻留 + 结果缓存
+    // =============================================
+
+    /**
+     * 返回与 chain 内容相同的规范不可变实例
+     */
+    public List<String> intern(List<String> chain) {
+        if (chain == null) return null;
+        if (chain.isEmpty()) return EMPTY_CHAIN;
+        List<String> canonical = chainPool.get(chain);
+        if (canonical != null) return canonical;
+        // List.copyOf 不接受 null 元素（List.of 实例的 contains(null) 也会抛异常，只能逐个判断）
+        for (String s : chain) {
+            if (s == null) return Collections.unmodifiableList(new ArrayList<>(chain));
+        }
+        canonical = List.copyOf(chain);
+        return cachePut(chainPool, canonical, canonical);
+    }
+
+    private static <K, V> V cachePut(Map<K, V> cache, K key, V value) {
+        if (cache.size() >= CACHE_LIMIT) return value;
+        V prev = cache.putIfAbsent(key, value);
+        return prev != null ? prev : value;
+    }
+
     public String resolveChain(List<String> chain) {
         if (chain == null || chain.isEmpty()) return "亲属";
+        List<String> key = intern(chain);
+        String name = nameCache.get(key);
+        if (name != null) return name;
+        return cachePut(nameCache, key, doResolveChain(key));
+    }
+
+    private String doResolveChain(List<String> chain) {
 
         // 兼容旧的"同辈"前缀模式
         if ("同辈".equals(chain.get(0))) {
@@ -258,6 +313,16 @@ public class RelationInferenceUtil {
     public List<String> inferChain(List<String> chainA2B, List<String> chainB2C) {
         if (chainA2B == null || chainB2C == null) return null;
         if (chainA2B.isEmpty() || chainB2C.isEmpty()) return null;
+        InferKey key = new InferKey(intern(chainA2B), intern(chainB2C));
+        Optional<List<String>> cached = inferCache.get(key);
+        if (cached == null) {
+            cached = cachePut(inferCache, key,
+                    Optional.ofNullable(intern(doInferChain(key.a2b(), key.b2c()))));
+        }
+        return cached.orElse(null);
+    }
+
+    private List<String> doInferChain(List<String> chainA2B, List<String> chainB2C) {
 
         // ---- 同辈特殊处理 ----
         boolean a2bSibling = "同辈".equals(chainA2B.get(0));
@@ -376,14 +441,17 @@ public class RelationInferenceUtil {
     }
 
     /**
-     * 将 JSON 字符串转为链列表
+     * 将 JSON 字符串转为链列表（不可变，按 JSON 串缓存）
      */
     public List<String> jsonToChain(String json) {
+        if (json == null || json.isBlank()) return EMPTY_CHAIN;
+        List<String> chain = jsonCache.get(json);
+        if (chain != null) return chain;
         try {
-            if (json == null || json.isBlank()) return new ArrayList<>();
-            return MAPPER.readValue(json, new TypeReference<>() {});
+            List<String> parsed = MAPPER.readValue(json, new TypeReference<>() {});
+            return cachePut(jsonCache, json, parsed == null ? EMPTY_CHAIN : intern(parsed));
         } catch (Exception e) {
-            return new ArrayList<>();
+            return cachePut(jsonCache, json, EMPTY_CHAIN);
         }
     }
 
@@ -421,7 +489,14 @@ public class RelationInferenceUtil {
      *    即：A是B的儿子的女儿(孙女)
      */
     public List<String> reverseChainWithGender(List<String> chain, Integer myGender, Integer otherGender) {
-        if (chain == null || chain.isEmpty()) return new ArrayList<>();
+        if (chain == null || chain.isEmpty()) return EMPTY_CHAIN;
+        ReverseKey key = new ReverseKey(intern(chain), myGender);
+        List<String> rev = reverseCache.get(key);
+        if (rev != null) return rev;
+        return cachePut(reverseCache, key, intern(doReverseChain(key.chain(), myGender)));
+    }
+
+    private List<String> doReverseChain(List<String> chain, Integer myGender) {
 
         // 单步配偶才对称返回；多步配偶链（["配偶","父"]/["配偶","母"]等）走通用逆向
         if (chain.size() == 1 && "配偶".equals(chain.get(0))) return new ArrayList<>(chain);